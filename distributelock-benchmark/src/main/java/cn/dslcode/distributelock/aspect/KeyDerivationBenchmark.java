@@ -0,0 +1,117 @@
+package cn.dslcode.distributelock.aspect;
+
+import cn.dslcode.distributelock.CallBackExecutor;
+import cn.dslcode.distributelock.Lockable;
+import cn.dslcode.distributelock.lock.DistributeLock;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+/**
+ * @author dongsilin
+ * @version 2018/11/23.
+ * DistributedLockAspect lockKey生成开销基准测试，与LockKeyPlan同包以访问包内方法：
+ * compile 每次调用都编译计划（对应没有缓存时的反射解析），
+ * lockKey 使用已编译计划生成lockKey，
+ * aspect 经过完整AOP代理调用，锁后端为直接执行回调的空实现，只测量切面本身
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class KeyDerivationBenchmark {
+
+    private static final String[] ARG_NAMES = {"order", "channel"};
+
+    private Lockable lockable;
+    private LockKeyPlan plan;
+    private Object[] args;
+    private OrderService proxy;
+
+    @Setup
+    public void setup() throws Exception {
+        Method method = OrderService.class.getMethod("pay", Order.class, String.class);
+        lockable = method.getAnnotation(Lockable.class);
+        plan = LockKeyPlan.compile(lockable, ARG_NAMES, null);
+        Order order = new Order();
+        order.id = 10086L;
+        order.user = new User();
+        order.user.id = 42L;
+        args = new Object[]{order, "alipay"};
+
+        DistributedLockAspect aspect = new DistributedLockAspect();
+        Field field = DistributedLockAspect.class.getDeclaredField("distributeLock");
+        field.setAccessible(true);
+        field.set(aspect, new PassThroughLock());
+        AspectJProxyFactory factory = new AspectJProxyFactory(new OrderService());
+        factory.setProxyTargetClass(true);
+        factory.addAspect(aspect);
+        proxy = factory.getProxy();
+    }
+
+    @Benchmark
+    public String compile() throws Throwable {
+        return LockKeyPlan.compile(lockable, ARG_NAMES, null).lockKey(args);
+    }
+
+    @Benchmark
+    public String lockKey() throws Throwable {
+        return plan.lockKey(args);
+    }
+
+    @Benchmark
+    public Object aspect() {
+        return proxy.pay((Order) args[0], (String) args[1]);
+    }
+
+    @Benchmark
+    public Object direct() {
+        return ((Order) args[0]).id;
+    }
+
+
+    public static class OrderService {
+
+        @Lockable(key = "order.pay", fields = {"order.id", "order.user.id", "channel"})
+        public Object pay(Order order, String channel) {
+            return order.id;
+        }
+    }
+
+    public static class Order {
+        private Long id;
+        private User user;
+    }
+
+    public static class User {
+        private Long id;
+    }
+
+    /**
+     * 不访问后端的锁，直接执行回调
+     */
+    private static class PassThroughLock implements DistributeLock<Object> {
+
+        @Override
+        public Object tryLockAndCallBack(String lockKey, int waitTimeMs, int timeoutMs, CallBackExecutor<Object> successExecutor, CallBackExecutor<Object> failExecutor) throws Throwable {
+            return successExecutor.execute();
+        }
+
+        @Override
+        public boolean tryLock(String lockKey, String lockValue, int waitTimeMs, int timeoutMs) {
+            return true;
+        }
+
+        @Override
+        public void releaseLock(String lockKey, String lockValue) {
+        }
+    }
+
+}
@@ -0,0 +1,48 @@
+package cn.dslcode.distributelock.benchmark;
+
+import cn.dslcode.distributelock.aspect.KeyDerivationBenchmark;
+import java.io.File;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * @author dongsilin
+ * @version 2018/11/23.
+ * 基准测试入口：竞争测试按线程数1/4/16分别运行，结果以JSON输出到target/jmh-*.json，
+ * 不同版本的结果可以直接对比。命令行参数与JMH一致，可覆盖默认配置（如 -p backend=redis）
+ */
+public class BenchmarkRunner {
+
+    private static final int[] THREADS = {1, 4, 16};
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        new File("target").mkdirs();
+
+        // 无竞争延迟、lockKey生成开销，单线程
+        run(commandLine, "single", 1, LockBenchmark.class.getName() + ".uncontended", KeyDerivationBenchmark.class.getName());
+        // 竞争吞吐量，按线程数分别运行
+        for (int threads : THREADS) {
+            run(commandLine, "contended-" + threads + "t", threads, LockBenchmark.class.getName() + ".contended");
+        }
+    }
+
+    private static void run(CommandLineOptions commandLine, String name, int threads, String... includes) throws Exception {
+        ChainedOptionsBuilder builder = new OptionsBuilder()
+            .parent(commandLine)
+            .threads(threads)
+            .forks(1)
+            .warmupIterations(3)
+            .measurementIterations(5)
+            .resultFormat(ResultFormatType.JSON)
+            .result("target/jmh-" + name + ".json");
+        for (String include : includes) {
+            builder.include(include);
+        }
+        new Runner(builder.build()).run();
+    }
+
+}
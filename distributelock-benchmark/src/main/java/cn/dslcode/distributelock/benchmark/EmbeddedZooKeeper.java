@@ -0,0 +1,51 @@
+package cn.dslcode.distributelock.benchmark;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import org.apache.zookeeper.server.NIOServerCnxnFactory;
+import org.apache.zookeeper.server.ServerCnxnFactory;
+import org.apache.zookeeper.server.ZooKeeperServer;
+
+/**
+ * @author dongsilin
+ * @version 2018/11/23.
+ * 进程内单机zookeeper服务，数据目录使用临时目录，关闭时删除
+ */
+public class EmbeddedZooKeeper implements Closeable {
+
+    private final File dataDir;
+    private final ZooKeeperServer server;
+    private final ServerCnxnFactory cnxnFactory;
+
+    public EmbeddedZooKeeper() throws IOException, InterruptedException {
+        this.dataDir = Files.createTempDirectory("distributelock-zk").toFile();
+        this.server = new ZooKeeperServer(dataDir, dataDir, 2000);
+        this.cnxnFactory = NIOServerCnxnFactory.createFactory(new InetSocketAddress("127.0.0.1", 0), 1000);
+        cnxnFactory.startup(server);
+    }
+
+    public String getConnectString() {
+        return "127.0.0.1:" + cnxnFactory.getLocalPort();
+    }
+
+    @Override
+    public void close() {
+        cnxnFactory.shutdown();
+        server.shutdown();
+        delete(dataDir);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+}
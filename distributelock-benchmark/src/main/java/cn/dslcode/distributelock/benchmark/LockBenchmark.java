@@ -0,0 +1,109 @@
+package cn.dslcode.distributelock.benchmark;
+
+import cn.dslcode.distributelock.lock.DistributeLock;
+import cn.dslcode.distributelock.lock.RedisDistributeLock;
+import cn.dslcode.distributelock.lock.ZookeeperDistributeLock;
+import java.io.Closeable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+/**
+ * @author dongsilin
+ * @version 2018/11/23.
+ * 分布式锁后端基准测试：
+ * uncontended 每个线程使用自己的key，测量无竞争加锁+释放锁的延迟；
+ * contended 所有线程在keys个key中随机选取，测量竞争下的吞吐量，线程数由BenchmarkRunner控制
+ */
+@State(Scope.Benchmark)
+public class LockBenchmark {
+
+    /** 锁后端 */
+    @Param({"redis", "zookeeper"})
+    public String backend;
+    /** 竞争时的key数量，越小竞争越激烈 */
+    @Param({"1", "16", "1024"})
+    public int keys;
+
+    private Closeable server;
+    private DistributeLock<Object> lock;
+    private LettuceConnectionFactory connectionFactory;
+    private String[] lockKeys;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        if ("redis".equals(backend)) {
+            RespServer respServer = new RespServer();
+            server = respServer;
+            connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1", respServer.getPort()));
+            connectionFactory.afterPropertiesSet();
+            StringRedisTemplate redisTemplate = new StringRedisTemplate(connectionFactory);
+            redisTemplate.afterPropertiesSet();
+            lock = new RedisDistributeLock<>(redisTemplate);
+        } else {
+            EmbeddedZooKeeper zooKeeper = new EmbeddedZooKeeper();
+            server = zooKeeper;
+            lock = new ZookeeperDistributeLock<>(zooKeeper.getConnectString());
+        }
+        lockKeys = new String[keys];
+        for (int i = 0; i < keys; i++) {
+            lockKeys[i] = "bench-" + i;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (lock instanceof Closeable) {
+            ((Closeable) lock).close();
+        }
+        if (connectionFactory != null) {
+            connectionFactory.destroy();
+        }
+        server.close();
+    }
+
+    /**
+     * 每个线程独占的key
+     */
+    @State(Scope.Thread)
+    public static class ThreadKey {
+
+        private static final AtomicInteger SEQ = new AtomicInteger();
+
+        private final String lockKey = "bench-thread-" + SEQ.incrementAndGet();
+        private final String lockValue = lockKey + "-value";
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public boolean uncontended(ThreadKey threadKey) throws Exception {
+        boolean getLock = lock.tryLock(threadKey.lockKey, threadKey.lockValue, 0, 10000);
+        if (getLock) {
+            lock.releaseLock(threadKey.lockKey, threadKey.lockValue);
+        }
+        return getLock;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public Object contended(ThreadKey threadKey) throws Throwable {
+        String lockKey = lockKeys[ThreadLocalRandom.current().nextInt(keys)];
+        return lock.tryLockAndCallBack(lockKey, 1000, 10000, () -> Boolean.TRUE, () -> Boolean.FALSE);
+    }
+
+}
@@ -0,0 +1,463 @@
+package cn.dslcode.distributelock.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author dongsilin
+ * @version 2018/11/23.
+ * 进程内redis协议服务，只实现分布式锁用到的命令，用于离线运行基准测试。
+ * Lua脚本不真正执行，按脚本内容识别为锁的加锁/解锁/续期操作并在Java中等价实现，
+ * 所有数据操作在同一把锁内执行，与redis单线程语义一致
+ */
+public class RespServer implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(RespServer.class);
+
+    private static final Object NIL = new Object();
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "resp-server");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /** 数据，所有访问在data锁内 */
+    private final Map<String, Value> data = new HashMap<>();
+    /** sha1 -> 脚本 */
+    private final Map<String, String> scripts = new ConcurrentHashMap<>();
+    /** channel -> 订阅者 */
+    private final Map<String, Set<Client>> channels = new ConcurrentHashMap<>();
+    private volatile boolean running = true;
+
+    public RespServer() throws IOException {
+        this.serverSocket = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+        executor.execute(this::accept);
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    private void accept() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Client client = new Client(socket);
+                executor.execute(client::serve);
+            } catch (IOException e) {
+                if (running) {
+                    log.error("-------------- resp-server接收连接失败", e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverSocket.close();
+        executor.shutdownNow();
+    }
+
+
+    /******************************* 命令处理 ******************************/
+
+    private Object execute(Client client, List<String> command) {
+        String name = command.get(0).toUpperCase(Locale.ROOT);
+        switch (name) {
+            case "PING": return "+PONG";
+            case "QUIT": return "+OK";
+            case "SELECT": return "+OK";
+            case "CLIENT": return "+OK";
+            case "FLUSHALL":
+            case "FLUSHDB":
+                synchronized (data) {
+                    data.clear();
+                }
+                return "+OK";
+            case "GET":
+                synchronized (data) {
+                    Value value = get(command.get(1));
+                    return value == null ? NIL : value.value;
+                }
+            case "SET":
+                synchronized (data) {
+                    return set(command) ? "+OK" : NIL;
+                }
+            case "DEL":
+                synchronized (data) {
+                    long removed = 0;
+                    for (int i = 1; i < command.size(); i++) {
+                        removed += get(command.get(i)) != null && data.remove(command.get(i)) != null ? 1 : 0;
+                    }
+                    return removed;
+                }
+            case "EXISTS":
+                synchronized (data) {
+                    return get(command.get(1)) != null ? 1L : 0L;
+                }
+            case "PTTL":
+                synchronized (data) {
+                    return pttl(command.get(1));
+                }
+            case "PEXPIRE":
+                synchronized (data) {
+                    return pexpire(command.get(1), Long.parseLong(command.get(2)));
+                }
+            case "PUBLISH":
+                return publish(command.get(1), command.get(2));
+            case "SUBSCRIBE":
+                for (int i = 1; i < command.size(); i++) {
+                    channels.computeIfAbsent(command.get(i), k -> ConcurrentHashMap.newKeySet()).add(client);
+                    client.subscriptions++;
+                    client.push("subscribe", command.get(i), (long) client.subscriptions);
+                }
+                return null;
+            case "UNSUBSCRIBE":
+                for (int i = 1; i < command.size(); i++) {
+                    Set<Client> subscribers = channels.get(command.get(i));
+                    if (subscribers != null && subscribers.remove(client)) {
+                        client.subscriptions--;
+                    }
+                    client.push("unsubscribe", command.get(i), (long) client.subscriptions);
+                }
+                return null;
+            case "SCRIPT":
+                if ("LOAD".equalsIgnoreCase(command.get(1))) {
+                    String sha = sha1(command.get(2));
+                    scripts.put(sha, command.get(2));
+                    return new Bulk(sha);
+                }
+                return "+OK";
+            case "EVAL": {
+                String script = command.get(1);
+                scripts.putIfAbsent(sha1(script), script);
+                return eval(script, command);
+            }
+            case "EVALSHA": {
+                String script = scripts.get(command.get(1).toLowerCase(Locale.ROOT));
+                return script == null ? new Error("NOSCRIPT No matching script. Please use EVAL.") : eval(script, command);
+            }
+            default:
+                return new Error("ERR unknown command '" + command.get(0) + "'");
+        }
+    }
+
+    /**
+     * 按脚本内容识别锁操作并等价执行
+     */
+    private Object eval(String script, List<String> command) {
+        int numKeys = Integer.parseInt(command.get(2));
+        List<String> keys = command.subList(3, 3 + numKeys);
+        List<String> args = command.subList(3 + numKeys, command.size());
+        synchronized (data) {
+            if (script.contains("for i = 1, #KEYS do if redis.call('EXISTS'")) {
+                // 多key加锁
+                for (String key : keys) {
+                    if (get(key) != null) {
+                        return pttl(key);
+                    }
+                }
+                for (String key : keys) {
+                    data.put(key, new Value(args.get(0), System.currentTimeMillis() + Long.parseLong(args.get(1))));
+                }
+                return NIL;
+            }
+            if (script.contains("for i = 1, #KEYS do if redis.call('GET'")) {
+                // 多key解锁
+                for (int i = 0; i < keys.size(); i++) {
+                    Value value = get(keys.get(i));
+                    if (value != null && value.value.equals(args.get(0))) {
+                        data.remove(keys.get(i));
+                        publish(args.get(i + 1), args.get(0));
+                    }
+                }
+                return NIL;
+            }
+            if (script.contains("'NX', 'PX'")) {
+                // 加锁
+                String key = keys.get(0);
+                if (get(key) == null) {
+                    data.put(key, new Value(args.get(0), System.currentTimeMillis() + Long.parseLong(args.get(1))));
+                    return NIL;
+                }
+                return pttl(key);
+            }
+            if (script.contains("PEXPIRE")) {
+                // 续期
+                Value value = get(keys.get(0));
+                return value != null && value.value.equals(args.get(0)) ? pexpire(keys.get(0), Long.parseLong(args.get(1))) : 0L;
+            }
+            if (script.contains("redis.call('DEL'")) {
+                // 解锁，异步批量释放的脚本返回是否释放成功
+                Value value = get(keys.get(0));
+                boolean released = value != null && value.value.equals(args.get(0));
+                if (released) {
+                    data.remove(keys.get(0));
+                    if (args.size() > 1) {
+                        publish(args.get(1), args.get(0));
+                    }
+                }
+                if (script.contains("return 1")) {
+                    return released ? 1L : 0L;
+                }
+                return NIL;
+            }
+        }
+        return new Error("ERR unsupported script: " + script);
+    }
+
+    private Value get(String key) {
+        Value value = data.get(key);
+        if (value != null && value.expireAt > 0 && value.expireAt <= System.currentTimeMillis()) {
+            data.remove(key);
+            return null;
+        }
+        return value;
+    }
+
+    /** SET key value [NX] [PX ms] */
+    private boolean set(List<String> command) {
+        boolean nx = false;
+        long px = 0;
+        for (int i = 3; i < command.size(); i++) {
+            String option = command.get(i).toUpperCase(Locale.ROOT);
+            if ("NX".equals(option)) {
+                nx = true;
+            } else if ("PX".equals(option)) {
+                px = Long.parseLong(command.get(++i));
+            } else if ("EX".equals(option)) {
+                px = Long.parseLong(command.get(++i)) * 1000;
+            }
+        }
+        if (nx && get(command.get(1)) != null) {
+            return false;
+        }
+        data.put(command.get(1), new Value(command.get(2), px > 0 ? System.currentTimeMillis() + px : 0));
+        return true;
+    }
+
+    private long pttl(String key) {
+        Value value = get(key);
+        if (value == null) {
+            return -2;
+        }
+        return value.expireAt == 0 ? -1 : Math.max(0, value.expireAt - System.currentTimeMillis());
+    }
+
+    private long pexpire(String key, long ms) {
+        Value value = get(key);
+        if (value == null) {
+            return 0;
+        }
+        value.expireAt = System.currentTimeMillis() + ms;
+        return 1;
+    }
+
+    private long publish(String channel, String message) {
+        Set<Client> subscribers = channels.get(channel);
+        if (subscribers == null) {
+            return 0;
+        }
+        for (Client subscriber : subscribers) {
+            subscriber.push("message", channel, message);
+        }
+        return subscribers.size();
+    }
+
+    private static String sha1(String script) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(script.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(40);
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    /******************************* RESP 协议 ******************************/
+
+    private static class Value {
+        private final String value;
+        private long expireAt;
+
+        private Value(String value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+    }
+
+    private static class Bulk {
+        private final String value;
+
+        private Bulk(String value) {
+            this.value = value;
+        }
+    }
+
+    private static class Error {
+        private final String message;
+
+        private Error(String message) {
+            this.message = message;
+        }
+    }
+
+    private class Client {
+
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+        private int subscriptions;
+
+        private Client(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream());
+            this.out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        private void serve() {
+            try {
+                while (running) {
+                    List<String> command = readCommand();
+                    Object reply = execute(this, command);
+                    if (reply != null) {
+                        synchronized (out) {
+                            write(reply);
+                            // 没有更多pipeline请求时才flush
+                            if (in.available() == 0) {
+                                out.flush();
+                            }
+                        }
+                    }
+                    if ("QUIT".equalsIgnoreCase(command.get(0))) {
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                // 客户端断开
+            } finally {
+                channels.values().forEach(subscribers -> subscribers.remove(this));
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        private void push(Object... items) {
+            synchronized (out) {
+                try {
+                    writeLine("*" + items.length);
+                    for (Object item : items) {
+                        write(item instanceof String ? new Bulk((String) item) : item);
+                    }
+                    out.flush();
+                } catch (IOException ignored) {
+                    // 订阅者已断开
+                }
+            }
+        }
+
+        private List<String> readCommand() throws IOException {
+            String line = readLine();
+            if (line.charAt(0) != '*') {
+                // inline命令
+                List<String> command = new ArrayList<>();
+                for (String part : line.trim().split("\\s+")) {
+                    command.add(part);
+                }
+                return command;
+            }
+            int count = Integer.parseInt(line.substring(1));
+            List<String> command = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String header = readLine();
+                int len = Integer.parseInt(header.substring(1));
+                byte[] bytes = new byte[len];
+                int read = 0;
+                while (read < len) {
+                    int n = in.read(bytes, read, len - read);
+                    if (n < 0) {
+                        throw new EOFException();
+                    }
+                    read += n;
+                }
+                readLine();
+                command.add(new String(bytes, StandardCharsets.UTF_8));
+            }
+            return command;
+        }
+
+        private String readLine() throws IOException {
+            StringBuilder sb = new StringBuilder();
+            int b;
+            while ((b = in.read()) != '\r') {
+                if (b < 0) {
+                    throw new EOFException();
+                }
+                sb.append((char) b);
+            }
+            in.read();
+            return sb.toString();
+        }
+
+        private void write(Object reply) throws IOException {
+            if (reply == NIL) {
+                writeLine("$-1");
+            } else if (reply instanceof Long) {
+                writeLine(":" + reply);
+            } else if (reply instanceof Error) {
+                writeLine("-" + ((Error) reply).message);
+            } else if (reply instanceof Bulk) {
+                byte[] bytes = ((Bulk) reply).value.getBytes(StandardCharsets.UTF_8);
+                writeLine("$" + bytes.length);
+                out.write(bytes);
+                out.write('\r');
+                out.write('\n');
+            } else if (reply instanceof String) {
+                String value = (String) reply;
+                if (value.startsWith("+")) {
+                    writeLine(value);
+                } else {
+                    write(new Bulk(value));
+                }
+            }
+        }
+
+        private void writeLine(String line) throws IOException {
+            out.write(line.getBytes(StandardCharsets.UTF_8));
+            out.write('\r');
+            out.write('\n');
+        }
+    }
+
+}
@@ -1,18 +1,42 @@
 package cn.dslcode.distributelock;
 
+import cn.dslcode.distributelock.lock.AsyncDistributeLock;
 import cn.dslcode.distributelock.lock.DistributeLock;
+import cn.dslcode.distributelock.lock.FailoverDistributeLock;
+import cn.dslcode.distributelock.lock.LocalDistributeLock;
+import cn.dslcode.distributelock.lock.LocalQueuedDistributeLock;
+import cn.dslcode.distributelock.lock.RedisAsyncDistributeLock;
 import cn.dslcode.distributelock.lock.RedisDistributeLock;
+import cn.dslcode.distributelock.lock.RedisLockNotifier;
+import cn.dslcode.distributelock.lock.RedisLockReleaser;
+import cn.dslcode.distributelock.lock.RedisLockWatchdog;
+import cn.dslcode.distributelock.lock.RedisQuorumDistributeLock;
+import cn.dslcode.distributelock.lock.ShardedRedisDistributeLock;
 import cn.dslcode.distributelock.lock.ZookeeperDistributeLock;
+import cn.dslcode.distributelock.metrics.JfrLockMetrics;
+import cn.dslcode.distributelock.metrics.LockMetrics;
+import cn.dslcode.distributelock.metrics.SimpleLockMetrics;
+import cn.dslcode.distributelock.support.CircuitBreaker;
+import cn.dslcode.distributelock.support.HeldKeyCache;
+import cn.dslcode.distributelock.wait.WaitStrategy;
 import javax.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.zookeeper.ZooKeeper;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.AutoConfigureAfter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.NoneNestedConditions;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.boot.autoconfigure.data.redis.RedisAutoConfiguration;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.util.ClassUtils;
 
 /**
  * @author dongsilin
@@ -21,45 +45,193 @@ import org.springframework.data.redis.core.StringRedisTemplate;
  */
 @Slf4j
 @Configuration
+@AutoConfigureAfter(RedisAutoConfiguration.class)
 public class DistributeLockAutoConfiguration {
 
-    @Value("${distributelock.type}")
+    @Value("${distributelock.type:}")
     private String lockType;
+    /** 是否开启本地排队：同一JVM内相同lockKey只有一个线程请求后端 */
+    @Value("${distributelock.local-queue:false}")
+    private boolean localQueue;
+    /** 等待策略：exponential、decorrelated-jitter（默认）、deadline 或自定义WaitStrategy类名 */
+    @Value("${distributelock.wait-strategy:decorrelated-jitter}")
+    private String waitStrategy;
+    /** 是否记录JFR事件 */
+    @Value("${distributelock.jfr.enabled:false}")
+    private boolean jfr;
 
+    /**
+     * 检查配置，配置错误只打印日志，不阻止应用启动，调用@Lockable方法时再报错
+     */
     @PostConstruct
     public void checkConfig() {
-        if (lockType == null || lockType.length() == 0 || !("redis".equals(lockType) || "zookeeper".equals(lockType))) {
-            log.warn("********** 请配置分布式锁实现方式：distributelock.type = redis 或 distributelock.type = zookeeper");
-            System.exit(1);
+        if (lockType == null || lockType.length() == 0 || !("redis".equals(lockType) || "zookeeper".equals(lockType) || "local".equals(lockType) || "failover".equals(lockType))) {
+            log.error("********** 请配置分布式锁实现方式：distributelock.type = redis、zookeeper、local 或 failover");
+            return;
         }
 
-        if ("redis".equals(lockType)) {
-            try {
-                Class.forName("org.springframework.data.redis.core.StringRedisTemplate");
-            } catch (ClassNotFoundException e) {
-                log.warn("********** 请导入spring-data-redis的jar包");
-                System.exit(1);
-            }
+        if (("redis".equals(lockType) || "failover".equals(lockType))
+            && !ClassUtils.isPresent("org.springframework.data.redis.core.StringRedisTemplate", getClass().getClassLoader())) {
+            log.error("********** 请导入spring-data-redis的jar包");
         }
 
-        if ("zookeeper".equals(lockType)) {
-            try {
-                Class.forName("org.apache.zookeeper.ZooKeeper");
-            } catch (ClassNotFoundException e) {
-                log.warn("********** 请导入zookeeper的jar包");
-                System.exit(1);
-            }
+        if (("zookeeper".equals(lockType) || "failover".equals(lockType))
+            && !ClassUtils.isPresent("org.apache.zookeeper.ZooKeeper", getClass().getClassLoader())) {
+            log.error("********** 请导入zookeeper的jar包");
         }
     }
 
+    /** 没有接入监控系统时，开启内存统计 */
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(value = "distributelock.metrics.enabled", havingValue = "true")
+    public LockMetrics lockMetrics() {
+        return new SimpleLockMetrics();
+    }
+
+    /**
+     * 监控指标，开启JFR时包装为JfrLockMetrics，同时记录JFR事件
+     * @param lockMetrics
+     * @return LockMetrics
+     */
+    private LockMetrics metrics(ObjectProvider<LockMetrics> lockMetrics) {
+        LockMetrics metrics = lockMetrics.getIfAvailable();
+        if (!jfr) {
+            return metrics;
+        }
+        try {
+            Class.forName("jdk.jfr.Event");
+        } catch (ClassNotFoundException e) {
+            log.warn("********** 当前JDK不支持JFR事件（需要JDK 8u262+或JDK 11+），distributelock.jfr.enabled 不生效");
+            return metrics;
+        }
+        return new JfrLockMetrics(metrics);
+    }
+
+    /**
+     * 创建redis分布式锁，不含等待策略和监控指标
+     */
+    private RedisDistributeLock redisDistributeLock(StringRedisTemplate stringRedisTemplate, String waitMode, boolean watchdog,
+                                                    int heldCacheSize, long heldCacheTtlMs, boolean asyncRelease, long asyncReleaseDelayMs) {
+        // subscribe：订阅锁释放通知等待，poll：轮询等待
+        RedisLockNotifier notifier = "subscribe".equals(waitMode)
+            ? new RedisLockNotifier(stringRedisTemplate.getConnectionFactory()) : null;
+        RedisDistributeLock distributeLock = new RedisDistributeLock(stringRedisTemplate, notifier,
+            watchdog ? new RedisLockWatchdog(stringRedisTemplate) : null);
+        // 不等待的加锁失败后，持有者剩余过期时间内直接本地失败
+        if (heldCacheSize > 0) {
+            distributeLock.setHeldCache(new HeldKeyCache(heldCacheSize, heldCacheTtlMs));
+        }
+        // 回调业务逻辑执行完直接返回，后台批量释放锁
+        if (asyncRelease) {
+            distributeLock.setReleaser(new RedisLockReleaser(stringRedisTemplate, asyncReleaseDelayMs, 10000));
+        }
+        return distributeLock;
+    }
+
+    /**
+     * 按配置包装分布式锁实现
+     * @param distributeLock
+     * @return DistributeLock
+     */
+    private DistributeLock decorate(DistributeLock distributeLock) {
+        return localQueue ? new LocalQueuedDistributeLock(distributeLock) : distributeLock;
+    }
+
     @Configuration
     @ConditionalOnClass(StringRedisTemplate.class)
     @ConditionalOnProperty(value = "distributelock.type", havingValue = "redis")
     public class RedisDistributeLockBean {
+        /** 多master仲裁模式：配置了多个相互独立的redis master */
         @Bean
         @ConditionalOnMissingBean
-        public DistributeLock distributeLock(StringRedisTemplate stringRedisTemplate){
-            return new RedisDistributeLock(stringRedisTemplate);
+        @ConditionalOnProperty("distributelock.redis.nodes")
+        public DistributeLock quorumDistributeLock(@Value("${distributelock.redis.nodes}") String nodes,
+                                                   @Value("${spring.redis.password:}") String password,
+                                                   ObjectProvider<LockMetrics> lockMetrics){
+            RedisQuorumDistributeLock distributeLock = new RedisQuorumDistributeLock(nodes, password);
+            distributeLock.setWaitStrategy(WaitStrategy.of(waitStrategy));
+            distributeLock.setMetrics(metrics(lockMetrics));
+            return decorate(distributeLock);
+        }
+
+        /** 多master分片模式：lockKey按一致性hash分布到多个相互独立的redis master */
+        @Bean
+        @ConditionalOnMissingBean
+        @ConditionalOnProperty("distributelock.redis.shards")
+        public DistributeLock shardedDistributeLock(@Value("${distributelock.redis.shards}") String shards,
+                                                    @Value("${spring.redis.password:}") String password,
+                                                    ObjectProvider<LockMetrics> lockMetrics,
+                                                    @Value("${distributelock.redis.wait-mode:poll}") String waitMode,
+                                                    @Value("${distributelock.redis.watchdog:false}") boolean watchdog,
+                                                    @Value("${distributelock.redis.held-cache-size:0}") int heldCacheSize,
+                                                    @Value("${distributelock.redis.held-cache-ttl:1000}") long heldCacheTtlMs,
+                                                    @Value("${distributelock.redis.async-release:false}") boolean asyncRelease,
+                                                    @Value("${distributelock.redis.async-release-delay:0}") long asyncReleaseDelayMs){
+            ShardedRedisDistributeLock<Object> distributeLock = new ShardedRedisDistributeLock<>(shards, password,
+                redisTemplate -> redisDistributeLock(redisTemplate, waitMode, watchdog,
+                    heldCacheSize, heldCacheTtlMs, asyncRelease, asyncReleaseDelayMs));
+            distributeLock.setWaitStrategy(WaitStrategy.of(waitStrategy));
+            distributeLock.setMetrics(metrics(lockMetrics));
+            return decorate(distributeLock);
+        }
+
+        @Bean
+        @ConditionalOnMissingBean
+        public DistributeLock distributeLock(StringRedisTemplate stringRedisTemplate,
+                                             ObjectProvider<LockMetrics> lockMetrics,
+                                             @Value("${distributelock.redis.wait-mode:poll}") String waitMode,
+                                             @Value("${distributelock.redis.watchdog:false}") boolean watchdog,
+                                             @Value("${distributelock.redis.held-cache-size:0}") int heldCacheSize,
+                                             @Value("${distributelock.redis.held-cache-ttl:1000}") long heldCacheTtlMs,
+                                             @Value("${distributelock.redis.async-release:false}") boolean asyncRelease,
+                                             @Value("${distributelock.redis.async-release-delay:0}") long asyncReleaseDelayMs){
+            RedisDistributeLock distributeLock = redisDistributeLock(stringRedisTemplate, waitMode, watchdog,
+                heldCacheSize, heldCacheTtlMs, asyncRelease, asyncReleaseDelayMs);
+            distributeLock.setWaitStrategy(WaitStrategy.of(waitStrategy));
+            distributeLock.setMetrics(metrics(lockMetrics));
+            return decorate(distributeLock);
+        }
+
+        /**
+         * 异步分布式锁，需要lettuce等支持reactive的连接。
+         * 只对spring.redis单实例加锁，配置了多master仲裁或分片时不创建，异步方法使用同步的分布式锁，保证与同步方法互斥
+         */
+        @Bean
+        @ConditionalOnMissingBean
+        @ConditionalOnBean(ReactiveRedisConnectionFactory.class)
+        @Conditional(SingleRedisCondition.class)
+        public AsyncDistributeLock asyncDistributeLock(ReactiveRedisConnectionFactory reactiveRedisConnectionFactory){
+            return new RedisAsyncDistributeLock(reactiveRedisConnectionFactory);
+        }
+    }
+
+    /** 没有配置多master仲裁或分片，分布式锁使用spring.redis单实例 */
+    static class SingleRedisCondition extends NoneNestedConditions {
+
+        SingleRedisCondition() {
+            super(ConfigurationPhase.REGISTER_BEAN);
+        }
+
+        @ConditionalOnProperty("distributelock.redis.nodes")
+        static class Quorum {
+        }
+
+        @ConditionalOnProperty("distributelock.redis.shards")
+        static class Sharded {
+        }
+    }
+
+    /** 进程内锁，单实例部署和测试使用，不需要redis/zookeeper */
+    @Configuration
+    @ConditionalOnProperty(value = "distributelock.type", havingValue = "local")
+    public class LocalDistributeLockBean {
+        @Bean
+        @ConditionalOnMissingBean
+        public DistributeLock distributeLock(ObjectProvider<LockMetrics> lockMetrics){
+            LocalDistributeLock distributeLock = new LocalDistributeLock();
+            distributeLock.setMetrics(metrics(lockMetrics));
+            return distributeLock;
         }
     }
 
@@ -69,12 +241,65 @@ public class DistributeLockAutoConfiguration {
     public class ZookeeperDistributeLockBean {
         @Bean
         @ConditionalOnMissingBean
-        public DistributeLock distributeLock(@Value("${distributelock.zookeeper.connect-string}") String connectString){
-            return new ZookeeperDistributeLock(connectString);
+        public DistributeLock distributeLock(@Value("${distributelock.zookeeper.connect-string}") String connectString,
+                                             @Value("${distributelock.zookeeper.fair:false}") boolean fair,
+                                             @Value("${distributelock.zookeeper.connect-timeout:2000}") long connectTimeoutMs,
+                                             @Value("${distributelock.zookeeper.container-nodes:false}") boolean containerNodes,
+                                             @Value("${distributelock.zookeeper.reap-interval:600000}") long reapIntervalMs,
+                                             ObjectProvider<LockMetrics> lockMetrics){
+            ZookeeperDistributeLock distributeLock = new ZookeeperDistributeLock(connectString, fair);
+            distributeLock.setConnectTimeoutMs(connectTimeoutMs);
+            distributeLock.setReapIntervalMs(reapIntervalMs);
+            distributeLock.setContainerNodes(containerNodes);
+            distributeLock.setWaitStrategy(WaitStrategy.of(waitStrategy));
+            distributeLock.setMetrics(metrics(lockMetrics));
+            return decorate(distributeLock);
         }
     }
 
-
-
+    /** 主备切换：redis为主，熔断时切换到zookeeper */
+    @Configuration
+    @ConditionalOnClass({StringRedisTemplate.class, ZooKeeper.class})
+    @ConditionalOnProperty(value = "distributelock.type", havingValue = "failover")
+    public class FailoverDistributeLockBean {
+        @Bean
+        @ConditionalOnMissingBean
+        public DistributeLock distributeLock(StringRedisTemplate stringRedisTemplate,
+                                             @Value("${distributelock.zookeeper.connect-string}") String connectString,
+                                             @Value("${distributelock.zookeeper.fair:false}") boolean fair,
+                                             @Value("${distributelock.zookeeper.connect-timeout:2000}") long connectTimeoutMs,
+                                             @Value("${distributelock.zookeeper.container-nodes:false}") boolean containerNodes,
+                                             @Value("${distributelock.zookeeper.reap-interval:600000}") long reapIntervalMs,
+                                             ObjectProvider<LockMetrics> lockMetrics,
+                                             @Value("${distributelock.redis.wait-mode:poll}") String waitMode,
+                                             @Value("${distributelock.redis.watchdog:false}") boolean watchdog,
+                                             @Value("${distributelock.redis.held-cache-size:0}") int heldCacheSize,
+                                             @Value("${distributelock.redis.held-cache-ttl:1000}") long heldCacheTtlMs,
+                                             @Value("${distributelock.redis.async-release:false}") boolean asyncRelease,
+                                             @Value("${distributelock.redis.async-release-delay:0}") long asyncReleaseDelayMs,
+                                             @Value("${distributelock.failover.window-size:100}") int windowSize,
+                                             @Value("${distributelock.failover.min-calls:20}") int minCalls,
+                                             @Value("${distributelock.failover.failure-rate:0.5}") double failureRate,
+                                             @Value("${distributelock.failover.slow-rate:0.5}") double slowRate,
+                                             @Value("${distributelock.failover.slow-call-ms:100}") long slowCallMs,
+                                             @Value("${distributelock.failover.open-ms:5000}") long openMs,
+                                             @Value("${distributelock.failover.fence-ms:-1}") long fenceMs){
+            LockMetrics metrics = metrics(lockMetrics);
+            RedisDistributeLock redis = redisDistributeLock(stringRedisTemplate, waitMode, watchdog,
+                heldCacheSize, heldCacheTtlMs, asyncRelease, asyncReleaseDelayMs);
+            redis.setWaitStrategy(WaitStrategy.of(waitStrategy));
+            ZookeeperDistributeLock zookeeper = new ZookeeperDistributeLock(connectString, fair);
+            zookeeper.setConnectTimeoutMs(connectTimeoutMs);
+            zookeeper.setReapIntervalMs(reapIntervalMs);
+            zookeeper.setContainerNodes(containerNodes);
+            zookeeper.setWaitStrategy(WaitStrategy.of(waitStrategy));
+            zookeeper.setMetrics(metrics);
+            FailoverDistributeLock distributeLock = new FailoverDistributeLock(redis, zookeeper,
+                new CircuitBreaker(windowSize, minCalls, failureRate, slowRate, slowCallMs), openMs, slowCallMs, fenceMs);
+            redis.setMetrics(metrics);
+            redis.setCallObserver(distributeLock.callObserver());
+            return decorate(distributeLock);
+        }
+    }
 
 }
\ No newline at end of file
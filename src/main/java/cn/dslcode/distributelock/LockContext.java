@@ -0,0 +1,123 @@
+package cn.dslcode.distributelock;
+
+import cn.dslcode.distributelock.wait.WaitStrategy;
+import java.util.HashMap;
+
+/**
+ * @author dongsilin
+ * @version 2018/11/20.
+ * 当前线程正在执行的@Lockable上下文，由DistributedLockAspect设置，
+ * 分布式锁实现用它取得锁名称（@Lockable.key，而不是拼接了参数的lockKey）用于监控统计，
+ * 以及@Lockable.waitStrategy指定的等待策略；
+ * 同时记录当前线程持有的锁和持有次数，嵌套调用相同lockKey的@Lockable方法时直接重入，不再请求后端
+ */
+public final class LockContext {
+
+    /** 直接调用DistributeLock（没有经过@Lockable）时的锁名称 */
+    public static final String UNNAMED = "-";
+
+    private static final ThreadLocal<String> NAME = new ThreadLocal<>();
+    private static final ThreadLocal<WaitStrategy> WAIT_STRATEGY = new ThreadLocal<>();
+    /** 当前线程持有的锁：lockKey -> 持有次数 */
+    private static final ThreadLocal<HashMap<String, int[]>> HELD = ThreadLocal.withInitial(HashMap::new);
+
+    private LockContext() {
+    }
+
+    /**
+     * 设置当前锁名称
+     * @param name @Lockable.key
+     * @return 之前的锁名称，用于恢复
+     */
+    public static String enter(String name) {
+        String previous = NAME.get();
+        NAME.set(name);
+        return previous;
+    }
+
+    /**
+     * 恢复之前的锁名称
+     * @param previous enter返回的锁名称
+     */
+    public static void exit(String previous) {
+        if (previous == null) {
+            NAME.remove();
+        } else {
+            NAME.set(previous);
+        }
+    }
+
+    /**
+     * 当前锁名称
+     * @return @Lockable.key，没有经过@Lockable时返回UNNAMED
+     */
+    public static String name() {
+        String name = NAME.get();
+        return name != null ? name : UNNAMED;
+    }
+
+    /**
+     * 设置当前等待策略
+     * @param waitStrategy 方法指定的等待策略，null表示使用全局配置
+     * @return 之前的等待策略，用于恢复
+     */
+    public static WaitStrategy enterWaitStrategy(WaitStrategy waitStrategy) {
+        WaitStrategy previous = WAIT_STRATEGY.get();
+        if (waitStrategy != previous) {
+            WAIT_STRATEGY.set(waitStrategy);
+        }
+        return previous;
+    }
+
+    /**
+     * 恢复之前的等待策略
+     * @param previous enterWaitStrategy返回的等待策略
+     */
+    public static void exitWaitStrategy(WaitStrategy previous) {
+        if (previous == null) {
+            WAIT_STRATEGY.remove();
+        } else {
+            WAIT_STRATEGY.set(previous);
+        }
+    }
+
+    /**
+     * 当前等待策略
+     * @param defaultStrategy 锁实现的全局等待策略
+     * @return @Lockable.waitStrategy指定的策略，没有指定时返回defaultStrategy
+     */
+    public static WaitStrategy waitStrategy(WaitStrategy defaultStrategy) {
+        WaitStrategy waitStrategy = WAIT_STRATEGY.get();
+        return waitStrategy != null ? waitStrategy : defaultStrategy;
+    }
+
+    /**
+     * 当前线程是否持有锁
+     * @param lockKey
+     * @return boolean
+     */
+    public static boolean isHeld(String lockKey) {
+        return HELD.get().containsKey(lockKey);
+    }
+
+    /**
+     * 当前线程持有锁，持有次数加1
+     * @param lockKey
+     */
+    public static void hold(String lockKey) {
+        int[] count = HELD.get().computeIfAbsent(lockKey, k -> new int[1]);
+        count[0]++;
+    }
+
+    /**
+     * 持有次数减1，减到0时不再持有
+     * @param lockKey
+     */
+    public static void unhold(String lockKey) {
+        HashMap<String, int[]> held = HELD.get();
+        int[] count = held.get(lockKey);
+        if (count != null && --count[0] <= 0) {
+            held.remove(lockKey);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package cn.dslcode.distributelock;
+
+/**
+ * @author dongsilin
+ * @version 2018/11/26.
+ * 锁模式
+ */
+public enum LockMode {
+
+    /** 互斥锁 */
+    EXCLUSIVE,
+
+    /** 读锁：与其他读锁共享，与写锁互斥 */
+    READ,
+
+    /** 写锁：与读锁、写锁都互斥，等待中的写锁会阻止新的读锁，避免写锁饥饿 */
+    WRITE
+
+}
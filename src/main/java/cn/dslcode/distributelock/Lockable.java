@@ -1,5 +1,6 @@
 package cn.dslcode.distributelock;
 
+import cn.dslcode.distributelock.wait.WaitStrategy;
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
@@ -30,6 +31,43 @@ public @interface Lockable {
 		 */
 		String[] fields() default {};
 
+		/**
+		 * 是否多key锁：为true时每个field（集合或数组则每个元素）各自与key组合成一个lockKey，
+		 * 所有lockKey一次性原子加锁，如转账同时锁住转出和转入账户
+		 */
+		boolean multi() default false;
+
+		/**
+		 * 锁模式：EXCLUSIVE互斥锁（默认），READ读锁，WRITE写锁。
+		 * 相同lockKey的READ与WRITE互斥、READ之间共享，读写锁与互斥锁相互独立；读写锁不支持multi和异步方法
+		 */
+		LockMode mode() default LockMode.EXCLUSIVE;
+
+		/**
+		 * 信号量许可数：大于0时不再是互斥锁，相同lockKey全局最多permits个并发执行，
+		 * timeoutMs为许可过期时间；不支持multi、mode和异步方法
+		 */
+		int permits() default 0;
+
+		/**
+		 * 等待策略：waitTimeMs大于0时加锁失败后的重试间隔，默认使用全局配置distributelock.wait-strategy。
+		 * 可选ExponentialWaitStrategy、DecorrelatedJitterWaitStrategy、DeadlineWaitStrategy或自定义实现
+		 */
+		Class<? extends WaitStrategy> waitStrategy() default WaitStrategy.class;
+
+		/**
+		 * 合并执行：同一JVM内相同lockKey的并发调用只有一个加锁执行方法，其他调用最多等待waitTimeMs，
+		 * 继承其返回值或异常（包括加锁失败），等待超时按获取锁失败处理（failMsg）；
+		 * 适合重建缓存、昂贵查询等幂等方法；只支持互斥锁同步方法，不支持multi、mode、permits和异步方法
+		 */
+		boolean singleFlight() default false;
+
+		/**
+		 * 自适应锁过期时间：按该方法最近的持有锁时间分位数加余量设置过期时间（distributelock.adaptive-timeout.*），
+		 * 样本不足时使用timeoutMs；只对同步方法生效
+		 */
+		boolean adaptiveTimeout() default false;
+
 		/** 获取锁失败提示消息，可将此消息抛出RuntimeException，然后用全局异常处理器处理 */
 		String failMsg() default "请勿重复提交|2101";
 
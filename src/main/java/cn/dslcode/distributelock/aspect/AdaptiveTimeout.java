@@ -0,0 +1,103 @@
+package cn.dslcode.distributelock.aspect;
+
+import cn.dslcode.distributelock.support.PercentileSketch;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author dongsilin
+ * @version 2018/12/9.
+ * 自适应锁过期时间：统计方法最近的持有锁时间，过期时间 = 分位数 + 余量，限制在[minMs, maxMs]内。
+ * 样本不足时使用@Lockable.timeoutMs；每记录UPDATE_INTERVAL个样本重新计算一次，加锁时只读一个volatile字段。
+ * 每个开启了adaptiveTimeout的@Lockable方法一个实例
+ */
+@Slf4j
+class AdaptiveTimeout {
+
+    /** 每个窗口的样本数，统计最近1 ~ 2个窗口 */
+    private static final int WINDOW_SIZE = 1024;
+    /** 开始自适应的最少样本数 */
+    private static final int MIN_SAMPLES = 50;
+    /** 每记录多少个样本重新计算一次 */
+    private static final int UPDATE_INTERVAL = 16;
+
+    /** @Lockable.key，用于日志 */
+    private final String key;
+    /** 样本不足时使用的过期时间/ms */
+    private final int initialMs;
+    /** 分位数，0 ~ 1 */
+    private final double percentile;
+    /** 余量/ms，覆盖GC停顿等 */
+    private final int headroomMs;
+    private final int minMs;
+    private final int maxMs;
+    /** 持有锁时间/ns */
+    private final PercentileSketch holdNanos = new PercentileSketch(WINDOW_SIZE);
+    private final AtomicInteger sinceUpdate = new AtomicInteger();
+    /** 当前使用的过期时间/ms */
+    private volatile int timeoutMs;
+    /** 计算过期时间时的分位数/ms */
+    private volatile long percentileMs;
+
+    AdaptiveTimeout(String key, int initialMs, double percentile, int headroomMs, int minMs, int maxMs) {
+        this.key = key;
+        this.initialMs = initialMs;
+        this.percentile = percentile;
+        this.headroomMs = headroomMs;
+        this.minMs = minMs;
+        this.maxMs = Math.max(minMs, maxMs);
+        this.timeoutMs = initialMs;
+    }
+
+    /**
+     * 当前过期时间
+     * @return ms
+     */
+    int timeoutMs() {
+        return timeoutMs;
+    }
+
+    /**
+     * 记录一次持有锁时间
+     * @param nanos
+     */
+    void record(long nanos) {
+        holdNanos.record(nanos);
+        if (sinceUpdate.incrementAndGet() >= UPDATE_INTERVAL) {
+            sinceUpdate.set(0);
+            update();
+        }
+    }
+
+    private void update() {
+        if (holdNanos.count() < MIN_SAMPLES) {
+            return;
+        }
+        long holdMs = TimeUnit.NANOSECONDS.toMillis(holdNanos.percentile(percentile)) + 1;
+        int timeout = (int) Math.min(maxMs, Math.max(minMs, holdMs + headroomMs));
+        percentileMs = holdMs;
+        if (timeout != timeoutMs) {
+            if (log.isDebugEnabled()) log.debug("-------------- 自适应锁过期时间：key = {}, holdMs(p{}) = {}, timeoutMs = {} -> {}",
+                key, percentile * 100, holdMs, timeoutMs, timeout);
+            timeoutMs = timeout;
+        }
+    }
+
+    /**
+     * 当前状态
+     * @return 指标名称 -> 值
+     */
+    Map<String, Object> snapshot() {
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("key", key);
+        values.put("timeoutMs", timeoutMs);
+        values.put("initialTimeoutMs", initialMs);
+        values.put("holdPercentileMs", percentileMs);
+        values.put("samples", holdNanos.count());
+        return values;
+    }
+
+}
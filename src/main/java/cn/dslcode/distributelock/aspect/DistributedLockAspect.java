@@ -1,15 +1,35 @@
 package cn.dslcode.distributelock.aspect;
 
+import cn.dslcode.distributelock.LockContext;
+import cn.dslcode.distributelock.LockMode;
 import cn.dslcode.distributelock.Lockable;
+import cn.dslcode.distributelock.lock.AsyncDistributeLock;
 import cn.dslcode.distributelock.lock.DistributeLock;
+import cn.dslcode.distributelock.lock.DistributeSemaphore;
+import cn.dslcode.distributelock.wait.WaitStrategy;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
-import org.aspectj.lang.JoinPoint;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.annotation.Pointcut;
 import org.aspectj.lang.reflect.MethodSignature;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.annotation.Order;
 
@@ -24,8 +44,75 @@ import org.springframework.core.annotation.Order;
 @Configuration
 public class DistributedLockAspect {
 
-    @Autowired
+    /** 分布式锁，配置错误没有创建时不阻止应用启动，调用@Lockable方法时报错 */
+    @Autowired(required = false)
     private DistributeLock distributeLock;
+    /** 异步分布式锁，用于返回CompletableFuture/Mono的方法 */
+    @Autowired(required = false)
+    private AsyncDistributeLock asyncDistributeLock;
+    /** 异步方法执行业务逻辑的线程数，小于等于0时使用ForkJoinPool.commonPool() */
+    @Value("${distributelock.async.callback-threads:0}")
+    private int asyncCallbackThreads;
+    /** 异步方法执行业务逻辑的线程池，不在redis/zookeeper的I/O线程或定时器线程中执行业务逻辑 */
+    private Executor asyncCallbackExecutor = ForkJoinPool.commonPool();
+    /** 持有锁时间达到timeoutMs的该比例时打印告警日志，小于等于0不检测 */
+    @Value("${distributelock.slow-hold-ratio:0}")
+    private double slowHoldRatio;
+    /** 自适应锁过期时间：持有锁时间的分位数 */
+    @Value("${distributelock.adaptive-timeout.percentile:0.99}")
+    private double adaptivePercentile;
+    /** 自适应锁过期时间：在分位数之上增加的余量/ms */
+    @Value("${distributelock.adaptive-timeout.headroom-ms:1000}")
+    private int adaptiveHeadroomMs;
+    /** 自适应锁过期时间下限/ms */
+    @Value("${distributelock.adaptive-timeout.min-ms:1000}")
+    private int adaptiveMinMs;
+    /** 自适应锁过期时间上限/ms */
+    @Value("${distributelock.adaptive-timeout.max-ms:60000}")
+    private int adaptiveMaxMs;
+    /** 方法 -> lockKey生成计划 */
+    private final ConcurrentHashMap<Method, LockKeyPlan> lockKeyPlans = new ConcurrentHashMap<>();
+    /** @Lockable.waitStrategy -> 等待策略实例，相同策略类共享一个实例 */
+    private final ConcurrentHashMap<Class<? extends WaitStrategy>, WaitStrategy> waitStrategies = new ConcurrentHashMap<>();
+
+    /**
+     * 检查配置，创建异步方法执行业务逻辑的线程池
+     */
+    @PostConstruct
+    public void init() {
+        checkAdaptiveTimeout();
+        if (asyncCallbackThreads > 0) {
+            AtomicInteger threadIndex = new AtomicInteger();
+            asyncCallbackExecutor = Executors.newFixedThreadPool(asyncCallbackThreads, r -> {
+                Thread thread = new Thread(r, "distributelock-async-callback-" + threadIndex.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * 检查自适应锁过期时间配置，超出范围时修正并打印告警，避免分位数无效导致过期时间全部变为下限
+     */
+    private void checkAdaptiveTimeout() {
+        if (!(adaptivePercentile > 0 && adaptivePercentile <= 1)) {
+            double percentile = adaptivePercentile > 1 && adaptivePercentile <= 100 ? adaptivePercentile / 100 : 0.99;
+            log.warn("********** distributelock.adaptive-timeout.percentile = {} 应在(0, 1]内，按{}处理", adaptivePercentile, percentile);
+            adaptivePercentile = percentile;
+        }
+        if (adaptiveHeadroomMs < 0) {
+            log.warn("********** distributelock.adaptive-timeout.headroom-ms = {} 不能小于0，按0处理", adaptiveHeadroomMs);
+            adaptiveHeadroomMs = 0;
+        }
+        if (adaptiveMinMs <= 0) {
+            log.warn("********** distributelock.adaptive-timeout.min-ms = {} 应大于0，按1000处理", adaptiveMinMs);
+            adaptiveMinMs = 1000;
+        }
+        if (adaptiveMaxMs < adaptiveMinMs) {
+            log.warn("********** distributelock.adaptive-timeout.max-ms = {} 小于min-ms，按{}处理", adaptiveMaxMs, adaptiveMinMs);
+            adaptiveMaxMs = adaptiveMinMs;
+        }
+    }
 
     @Pointcut("@annotation(cn.dslcode.distributelock.Lockable)")
     public void lockPointcut() {
@@ -34,16 +121,166 @@ public class DistributedLockAspect {
     @Around("lockPointcut()")
     public Object lockAround(ProceedingJoinPoint joinPoint) throws Throwable {
         if (log.isDebugEnabled()) log.debug("===========> DistributedLockAspect  begin ............");
-        // 获取注解
-        Lockable lockable = ((MethodSignature) joinPoint.getSignature()).getMethod().getAnnotation(Lockable.class);
+        if (distributeLock == null) {
+            throw new IllegalStateException("分布式锁未配置，请检查distributelock.type及对应的redis/zookeeper配置");
+        }
+        // 获取lockKey生成计划
+        LockKeyPlan plan = getLockKeyPlan((MethodSignature) joinPoint.getSignature());
+        // 锁名称用于监控统计，按@Lockable.key而不是拼接参数后的lockKey统计
+        String previousName = LockContext.enter(plan.lockable.key());
+        WaitStrategy previousWaitStrategy = LockContext.enterWaitStrategy(getWaitStrategy(plan.lockable));
+        try {
+            return lock(plan, joinPoint);
+        } finally {
+            LockContext.exitWaitStrategy(previousWaitStrategy);
+            LockContext.exit(previousName);
+        }
+    }
+
+    /**
+     * 加锁并执行方法
+     * @param plan lockKey生成计划
+     * @param joinPoint
+     * @return 方法返回值
+     */
+    @SuppressWarnings("unchecked")
+    private Object lock(LockKeyPlan plan, ProceedingJoinPoint joinPoint) throws Throwable {
+        Lockable lockable = plan.lockable;
+        if (plan.singleFlight != null) {
+            // 合并执行，相同lockKey执行中时不再加锁，等待并共享结果
+            Class<?> returnType = ((MethodSignature) joinPoint.getSignature()).getReturnType();
+            if (lockable.permits() > 0 || lockable.multi() || lockable.mode() != LockMode.EXCLUSIVE
+                || CompletionStage.class.isAssignableFrom(returnType) || ReactiveLockSupport.isMono(returnType)) {
+                throw new UnsupportedOperationException("合并执行只支持互斥锁同步方法：" + lockable.key());
+            }
+            String lockKey = plan.lockKey(joinPoint.getArgs());
+            if (LockContext.isHeld(lockKey)) {
+                // 当前线程已持有，重入
+                return proceedHolding(joinPoint, plan, lockKey, lockKey);
+            }
+            return plan.singleFlight.execute(lockKey, lockable.waitTimeMs(), () -> distributeLock.tryLockAndCallBack(
+                lockKey,
+                lockable.waitTimeMs(),
+                plan.timeoutMs(),
+                () -> proceedHolding(joinPoint, plan, lockKey, lockKey),
+                () -> {
+                    throw new RuntimeException(lockable.failMsg());
+                }
+            ), () -> {
+                throw new RuntimeException(lockable.failMsg());
+            });
+        }
+        if (lockable.permits() > 0) {
+            // 信号量
+            Class<?> returnType = ((MethodSignature) joinPoint.getSignature()).getReturnType();
+            if (lockable.multi() || lockable.mode() != LockMode.EXCLUSIVE
+                || CompletionStage.class.isAssignableFrom(returnType) || ReactiveLockSupport.isMono(returnType)) {
+                throw new UnsupportedOperationException("信号量不支持多key锁、读写锁和异步方法：" + lockable.key());
+            }
+            if (!(distributeLock instanceof DistributeSemaphore)) {
+                throw new UnsupportedOperationException("不支持信号量：" + distributeLock.getClass().getName());
+            }
+            String lockKey = plan.lockKey(joinPoint.getArgs());
+            return ((DistributeSemaphore) distributeLock).tryAcquireAndCallBack(
+                lockKey,
+                lockable.permits(),
+                lockable.waitTimeMs(),
+                plan.timeoutMs(),
+                () -> proceed(joinPoint, plan, lockKey),
+                () -> {
+                    throw new RuntimeException(lockable.failMsg());
+                }
+            );
+        }
+        if (lockable.mode() != LockMode.EXCLUSIVE) {
+            // 读写锁
+            Class<?> returnType = ((MethodSignature) joinPoint.getSignature()).getReturnType();
+            if (lockable.multi() || CompletionStage.class.isAssignableFrom(returnType) || ReactiveLockSupport.isMono(returnType)) {
+                throw new UnsupportedOperationException("读写锁不支持多key锁和异步方法：" + lockable.key());
+            }
+            String lockKey = plan.lockKey(joinPoint.getArgs());
+            String holdKey = holdKey(lockable.mode(), lockKey);
+            // 重入：当前线程已持有相同模式的锁，或持有写锁时再加读锁；不支持读锁升级为写锁
+            if (LockContext.isHeld(holdKey) || lockable.mode() == LockMode.READ && LockContext.isHeld(holdKey(LockMode.WRITE, lockKey))) {
+                return proceedHolding(joinPoint, plan, lockKey, holdKey);
+            }
+            return distributeLock.tryLockAndCallBack(
+                lockable.mode(),
+                lockKey,
+                lockable.waitTimeMs(),
+                plan.timeoutMs(),
+                () -> proceedHolding(joinPoint, plan, lockKey, holdKey),
+                () -> {
+                    throw new RuntimeException(lockable.failMsg());
+                }
+            );
+        }
+        if (lockable.multi()) {
+            // 多key锁，一次性原子加锁
+            Collection<String> lockKeys = plan.lockKeys(joinPoint.getArgs());
+            if (lockKeys.isEmpty()) {
+                // 没有任何lockKey时不能不加锁执行
+                throw new IllegalArgumentException("多key锁的lockKey为空：" + lockable.key());
+            }
+            // 当前线程已持有的key重入，只对其余key加锁
+            Collection<String> unheldKeys = unheld(lockKeys);
+            if (unheldKeys.isEmpty()) {
+                return proceedHolding(joinPoint, plan, lockKeys);
+            }
+            return distributeLock.tryMultiLockAndCallBack(
+                unheldKeys,
+                lockable.waitTimeMs(),
+                plan.timeoutMs(),
+                () -> proceedHolding(joinPoint, plan, lockKeys),
+                () -> {
+                    throw new RuntimeException(lockable.failMsg());
+                }
+            );
+        }
         // 获取lockKey
-        String lockKey = getLockKey(lockable, joinPoint);
+        String lockKey = plan.lockKey(joinPoint.getArgs());
+        // 返回CompletableFuture/Mono的方法异步加锁，异步结果完成后释放锁
+        Class<?> returnType = ((MethodSignature) joinPoint.getSignature()).getReturnType();
+        AsyncDistributeLock asyncLock = getAsyncDistributeLock();
+        if (asyncLock != null) {
+            if (CompletionStage.class.isAssignableFrom(returnType) && returnType.isAssignableFrom(CompletableFuture.class)) {
+                return asyncLock.tryLockAndCallBackAsync(
+                    lockKey,
+                    lockable.waitTimeMs(),
+                    lockable.timeoutMs(),
+                    () -> (CompletionStage<Object>) joinPoint.proceed(),
+                    () -> {
+                        throw new RuntimeException(lockable.failMsg());
+                    },
+                    asyncCallbackExecutor
+                );
+            }
+            if (ReactiveLockSupport.isMono(returnType)) {
+                return ReactiveLockSupport.lockAround(asyncLock, lockKey, lockable, joinPoint, asyncCallbackExecutor);
+            }
+        }
+        if (CompletionStage.class.isAssignableFrom(returnType) || ReactiveLockSupport.isMono(returnType)) {
+            // 异步方法返回时业务逻辑还没有执行完，不记录当前线程持有，不支持重入，不统计持有锁时间
+            return distributeLock.tryLockAndCallBack(
+                lockKey,
+                lockable.waitTimeMs(),
+                lockable.timeoutMs(),
+                () -> joinPoint.proceed(),
+                () -> {
+                    throw new RuntimeException(lockable.failMsg());
+                }
+            );
+        }
+        if (LockContext.isHeld(lockKey)) {
+            // 当前线程已持有，重入，不请求后端
+            return proceedHolding(joinPoint, plan, lockKey, lockKey);
+        }
         // 尝试加锁并回调业务逻辑
         return distributeLock.tryLockAndCallBack(
             lockKey,
             lockable.waitTimeMs(),
-            lockable.timeoutMs(),
-            () -> joinPoint.proceed(),
+            plan.timeoutMs(),
+            () -> proceedHolding(joinPoint, plan, lockKey, lockKey),
             () -> {
                 throw new RuntimeException(lockable.failMsg());
             }
@@ -51,46 +288,164 @@ public class DistributedLockAspect {
     }
 
     /**
-     * 根据fields 反射获取lockKey
-     * @param lockable
+     * 持有锁期间执行方法，持有时间接近或超过timeoutMs时打印告警日志：锁可能已过期，被其他节点获取；
+     * 开启自适应锁过期时间时记录持有锁时间
+     * @param joinPoint
+     * @param plan
+     * @param lockKey lockKey或多key锁的lockKey集合，用于日志
+     * @return 方法返回值
+     */
+    private Object proceed(ProceedingJoinPoint joinPoint, LockKeyPlan plan, Object lockKey) throws Throwable {
+        return proceed(joinPoint, plan, lockKey, plan.adaptiveTimeout);
+    }
+
+    /**
+     * @param adaptiveTimeout 记录持有锁时间，重入时为null：内层方法的执行时间不是持有锁时间
+     */
+    private Object proceed(ProceedingJoinPoint joinPoint, LockKeyPlan plan, Object lockKey, AdaptiveTimeout adaptiveTimeout) throws Throwable {
+        if (slowHoldRatio <= 0 && adaptiveTimeout == null) {
+            return joinPoint.proceed();
+        }
+        // 加锁时使用的过期时间
+        int timeoutMs = plan.timeoutMs();
+        long startNanos = System.nanoTime();
+        try {
+            return joinPoint.proceed();
+        } finally {
+            long holdNanos = System.nanoTime() - startNanos;
+            if (adaptiveTimeout != null) {
+                adaptiveTimeout.record(holdNanos);
+            }
+            long holdMs = TimeUnit.NANOSECONDS.toMillis(holdNanos);
+            if (slowHoldRatio > 0 && holdMs >= timeoutMs * slowHoldRatio) {
+                log.warn("-------------- 持有锁时间过长：method = {}, lockKey = {}, holdMs = {}, timeoutMs = {}",
+                    joinPoint.getSignature().toShortString(), lockKey, holdMs, timeoutMs);
+            }
+        }
+    }
+
+    /**
+     * 记录当前线程持有锁并执行方法，嵌套调用相同lockKey的@Lockable方法直接重入
+     * @param joinPoint
+     * @param plan
+     * @param lockKey lockKey，用于日志
+     * @param holdKey 当前线程持有记录的key，互斥锁为lockKey，读写锁区分模式
+     * @return 方法返回值
+     */
+    private Object proceedHolding(ProceedingJoinPoint joinPoint, LockKeyPlan plan, String lockKey, String holdKey) throws Throwable {
+        boolean reentrant = LockContext.isHeld(holdKey);
+        LockContext.hold(holdKey);
+        try {
+            return proceed(joinPoint, plan, lockKey, reentrant ? null : plan.adaptiveTimeout);
+        } finally {
+            LockContext.unhold(holdKey);
+        }
+    }
+
+    /**
+     * 记录当前线程持有多key锁并执行方法
      * @param joinPoint
-     * @return lockKey
+     * @param plan
+     * @param lockKeys
+     * @return 方法返回值
+     */
+    private Object proceedHolding(ProceedingJoinPoint joinPoint, LockKeyPlan plan, Collection<String> lockKeys) throws Throwable {
+        boolean reentrant = unheld(lockKeys).isEmpty();
+        lockKeys.forEach(LockContext::hold);
+        try {
+            return proceed(joinPoint, plan, lockKeys, reentrant ? null : plan.adaptiveTimeout);
+        } finally {
+            lockKeys.forEach(LockContext::unhold);
+        }
+    }
+
+    /**
+     * 当前线程没有持有的key
+     * @param lockKeys
+     * @return 都没有持有时返回lockKeys本身
      */
-    private String getLockKey(Lockable lockable, JoinPoint joinPoint) throws NoSuchFieldException, IllegalAccessException {
-        String lockKey = lockable.key();
-        if (lockable.fields().length > 0) {
-            // 方法参数值
-            Object[] argValues = joinPoint.getArgs();
-            // 方法参数名称
-            String[] argNames = ((MethodSignature) joinPoint.getSignature()).getParameterNames();
-            int argLength = argNames.length;
-            // 循环拼接
-            StringBuilder lockKeyBuilder = new StringBuilder(lockKey);
-            for (String field : lockable.fields()) {
-                lockKeyBuilder.append("_");
-                int idx;
-                if (field.contains(".")) {
-                    idx = field.indexOf(".");
-                    String an = field.substring(0, idx);
-                    String av = field.substring(idx + 1);
-                    for (idx = 0; idx < argLength; idx++) {
-                        if (argNames[idx].equals(an)) {
-                            Object fieldValue = ReflectionUtil.getFieldValue(argValues[idx], av);
-                            lockKeyBuilder.append(fieldValue);
-                            break;
-                        }
-                    }
-                } else {
-                    for (idx = 0; idx < argLength; idx++) {
-                        if (argNames[idx].equals(field)) {
-                            lockKeyBuilder.append(argValues[idx]);
-                            break;
-                        }
-                    }
+    private static Collection<String> unheld(Collection<String> lockKeys) {
+        List<String> unheldKeys = null;
+        int index = 0;
+        for (String lockKey : lockKeys) {
+            if (LockContext.isHeld(lockKey)) {
+                if (unheldKeys == null) {
+                    unheldKeys = new ArrayList<>(lockKeys);
+                    unheldKeys.subList(index, unheldKeys.size()).clear();
                 }
+            } else if (unheldKeys != null) {
+                unheldKeys.add(lockKey);
             }
-            lockKey = lockKeyBuilder.toString();
+            index++;
+        }
+        return unheldKeys != null ? unheldKeys : lockKeys;
+    }
+
+    /**
+     * 读写锁持有记录的key，与互斥锁的lockKey区分
+     */
+    private static String holdKey(LockMode mode, String lockKey) {
+        return mode.name() + '\u0000' + lockKey;
+    }
+
+    /**
+     * 获取异步分布式锁，没有单独配置时使用同时实现了异步接口的分布式锁
+     * @return AsyncDistributeLock，不支持异步时返回null
+     */
+    private AsyncDistributeLock getAsyncDistributeLock() {
+        if (asyncDistributeLock != null) {
+            return asyncDistributeLock;
+        }
+        return distributeLock instanceof AsyncDistributeLock ? (AsyncDistributeLock) distributeLock : null;
+    }
+
+    /**
+     * 获取方法的lockKey生成计划，每个方法只编译一次
+     * @param signature
+     * @return LockKeyPlan
+     */
+    private LockKeyPlan getLockKeyPlan(MethodSignature signature) {
+        Method method = signature.getMethod();
+        LockKeyPlan plan = lockKeyPlans.get(method);
+        if (plan == null) {
+            plan = lockKeyPlans.computeIfAbsent(method, m -> {
+                Lockable lockable = m.getAnnotation(Lockable.class);
+                AdaptiveTimeout adaptiveTimeout = lockable.adaptiveTimeout() ? new AdaptiveTimeout(lockable.key(), lockable.timeoutMs(),
+                    adaptivePercentile, adaptiveHeadroomMs, adaptiveMinMs, adaptiveMaxMs) : null;
+                return LockKeyPlan.compile(lockable, signature.getParameterNames(), adaptiveTimeout);
+            });
+        }
+        return plan;
+    }
+
+    /**
+     * 开启了自适应锁过期时间的方法当前使用的过期时间，方法被调用过才会出现
+     * @return 方法签名（Method.toGenericString，重载方法分开） -> key、timeoutMs（当前过期时间）、initialTimeoutMs（@Lockable.timeoutMs）、holdPercentileMs（持有锁时间分位数）、samples（样本数）
+     */
+    public Map<String, Map<String, Object>> adaptiveTimeouts() {
+        Map<String, Map<String, Object>> snapshot = new TreeMap<>();
+        lockKeyPlans.forEach((method, plan) -> {
+            if (plan.adaptiveTimeout != null) {
+                snapshot.put(method.toGenericString(), plan.adaptiveTimeout.snapshot());
+            }
+        });
+        return snapshot;
+    }
+
+    /**
+     * 获取方法指定的等待策略
+     * @param lockable
+     * @return WaitStrategy，没有指定时返回null，使用全局配置
+     */
+    private WaitStrategy getWaitStrategy(Lockable lockable) {
+        Class<? extends WaitStrategy> type = lockable.waitStrategy();
+        if (type == WaitStrategy.class) {
+            return null;
+        }
+        WaitStrategy waitStrategy = waitStrategies.get(type);
+        if (waitStrategy == null) {
+            waitStrategy = waitStrategies.computeIfAbsent(type, t -> WaitStrategy.of(t.getName()));
         }
-        return lockKey;
+        return waitStrategy;
     }
 }
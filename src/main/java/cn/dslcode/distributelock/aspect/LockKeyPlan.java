@@ -0,0 +1,192 @@
+package cn.dslcode.distributelock.aspect;
+
+import cn.dslcode.distributelock.Lockable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author dongsilin
+ * @version 2018/11/12.
+ * lockKey生成计划，每个@Lockable方法编译一次：
+ * 参数名预先解析为参数下标，多级field解析为MethodHandle访问链，
+ * 运行时只做下标取值和MethodHandle调用，不再反射
+ */
+@Slf4j
+class LockKeyPlan {
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    /** 每个线程复用的lockKey拼接缓冲区 */
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(64));
+
+    /** 方法上的注解 */
+    final Lockable lockable;
+    /** 合并执行，没有开启时为null */
+    final SingleFlight singleFlight;
+    /** 自适应锁过期时间，没有开启时为null */
+    final AdaptiveTimeout adaptiveTimeout;
+    /** 每个field对应一个取值器 */
+    private final Part[] parts;
+
+    private LockKeyPlan(Lockable lockable, Part[] parts, AdaptiveTimeout adaptiveTimeout) {
+        this.lockable = lockable;
+        this.parts = parts;
+        this.singleFlight = lockable.singleFlight() ? new SingleFlight() : null;
+        this.adaptiveTimeout = adaptiveTimeout;
+    }
+
+    /**
+     * 编译lockKey生成计划
+     * @param lockable 方法上的注解
+     * @param argNames 方法参数名称
+     * @param adaptiveTimeout 自适应锁过期时间，没有开启时为null
+     * @return LockKeyPlan
+     */
+    static LockKeyPlan compile(Lockable lockable, String[] argNames, AdaptiveTimeout adaptiveTimeout) {
+        String[] fields = lockable.fields();
+        Part[] parts = new Part[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            String[] path = fields[i].split("\\.");
+            int argIndex = -1;
+            for (int idx = 0; argNames != null && idx < argNames.length; idx++) {
+                if (argNames[idx].equals(path[0])) {
+                    argIndex = idx;
+                    break;
+                }
+            }
+            if (argIndex < 0) {
+                log.warn("-------------- @Lockable(key = {}) 方法参数不存在：{}", lockable.key(), path[0]);
+            }
+            FieldAccessor[] accessors = new FieldAccessor[path.length - 1];
+            for (int j = 1; j < path.length; j++) {
+                accessors[j - 1] = new FieldAccessor(path[j]);
+            }
+            parts[i] = new Part(argIndex, accessors);
+        }
+        return new LockKeyPlan(lockable, parts, adaptiveTimeout);
+    }
+
+    /**
+     * 锁过期时间，开启自适应时按持有锁时间计算
+     * @return ms
+     */
+    int timeoutMs() {
+        return adaptiveTimeout != null ? adaptiveTimeout.timeoutMs() : lockable.timeoutMs();
+    }
+
+    /**
+     * 生成lockKey
+     * @param args 方法参数值
+     * @return lockKey
+     */
+    String lockKey(Object[] args) throws Throwable {
+        if (parts.length == 0) {
+            return lockable.key();
+        }
+        StringBuilder lockKeyBuilder = BUFFER.get();
+        lockKeyBuilder.setLength(0);
+        lockKeyBuilder.append(lockable.key());
+        for (Part part : parts) {
+            lockKeyBuilder.append('_');
+            if (part.argIndex >= 0) {
+                lockKeyBuilder.append(part.value(args[part.argIndex]));
+            }
+        }
+        return lockKeyBuilder.toString();
+    }
+
+    /**
+     * 生成多key锁的lockKey集合，每个field值（集合或数组则每个元素）各自生成一个lockKey
+     * @param args 方法参数值
+     * @return lockKey集合
+     */
+    List<String> lockKeys(Object[] args) throws Throwable {
+        List<String> lockKeys = new ArrayList<>(parts.length);
+        for (Part part : parts) {
+            if (part.argIndex < 0) {
+                continue;
+            }
+            Object value = part.value(args[part.argIndex]);
+            if (value instanceof Collection) {
+                for (Object v : (Collection<?>) value) {
+                    lockKeys.add(lockable.key() + '_' + v);
+                }
+            } else if (value != null && value.getClass().isArray()) {
+                for (int i = 0, len = Array.getLength(value); i < len; i++) {
+                    lockKeys.add(lockable.key() + '_' + Array.get(value, i));
+                }
+            } else {
+                lockKeys.add(lockable.key() + '_' + value);
+            }
+        }
+        return lockKeys;
+    }
+
+
+    /**
+     * 单个field取值：参数下标 + 多级field访问链
+     */
+    private static class Part {
+
+        private final int argIndex;
+        private final FieldAccessor[] accessors;
+
+        private Part(int argIndex, FieldAccessor[] accessors) {
+            this.argIndex = argIndex;
+            this.accessors = accessors;
+        }
+
+        private Object value(Object obj) throws Throwable {
+            for (FieldAccessor accessor : accessors) {
+                if (obj == null) {
+                    return null;
+                }
+                obj = accessor.get(obj);
+            }
+            return obj;
+        }
+    }
+
+    /**
+     * field访问器，按对象实际类型缓存MethodHandle，类型不变时不再反射
+     */
+    private static class FieldAccessor {
+
+        private final String fieldName;
+        private volatile Getter getter;
+
+        private FieldAccessor(String fieldName) {
+            this.fieldName = fieldName;
+        }
+
+        private Object get(Object obj) throws Throwable {
+            Getter g = getter;
+            if (g == null || g.type != obj.getClass()) {
+                getter = g = new Getter(obj.getClass(), fieldName);
+            }
+            return g.handle.invokeExact(obj);
+        }
+    }
+
+    private static class Getter {
+
+        private final Class<?> type;
+        private final MethodHandle handle;
+
+        private Getter(Class<?> type, String fieldName) throws IllegalAccessException {
+            Field field = ReflectionUtil.getField(type, fieldName);
+            if (field == null) {
+                throw new IllegalArgumentException("Could not find field [" + fieldName + "] on class [" + type.getName() + ']');
+            }
+            this.type = type;
+            this.handle = MethodHandles.lookup().unreflectGetter(field).asType(GETTER_TYPE);
+        }
+    }
+
+}
@@ -0,0 +1,50 @@
+package cn.dslcode.distributelock.aspect;
+
+import cn.dslcode.distributelock.Lockable;
+import cn.dslcode.distributelock.lock.AsyncDistributeLock;
+import java.util.concurrent.Executor;
+import org.aspectj.lang.ProceedingJoinPoint;
+import reactor.core.publisher.Mono;
+
+/**
+ * @author dongsilin
+ * @version 2018/11/16.
+ * 返回Mono的@Lockable方法加锁，单独成类，没有引入reactor时不会加载
+ */
+class ReactiveLockSupport {
+
+    private static final String MONO_CLASS_NAME = "reactor.core.publisher.Mono";
+
+    /**
+     * 是否返回Mono，按类名判断，避免没有引入reactor时加载Mono类
+     * @param returnType 方法返回类型
+     * @return boolean
+     */
+    static boolean isMono(Class<?> returnType) {
+        return MONO_CLASS_NAME.equals(returnType.getName());
+    }
+
+    /**
+     * 订阅时异步加锁，获取锁成功后在callbackExecutor中订阅业务Mono，业务Mono完成后释放锁
+     * @param asyncDistributeLock 异步分布式锁
+     * @param lockKey
+     * @param lockable
+     * @param joinPoint
+     * @param callbackExecutor 执行业务逻辑的线程池
+     * @return Mono
+     */
+    @SuppressWarnings("unchecked")
+    static Object lockAround(AsyncDistributeLock asyncDistributeLock, String lockKey, Lockable lockable, ProceedingJoinPoint joinPoint,
+                             Executor callbackExecutor) {
+        return Mono.defer(() -> Mono.fromFuture(asyncDistributeLock.tryLockAndCallBackAsync(
+            lockKey,
+            lockable.waitTimeMs(),
+            lockable.timeoutMs(),
+            () -> ((Mono<Object>) joinPoint.proceed()).toFuture(),
+            () -> {
+                throw new RuntimeException(lockable.failMsg());
+            },
+            callbackExecutor
+        )));
+    }
+}
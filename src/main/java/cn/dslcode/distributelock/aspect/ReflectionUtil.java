@@ -26,11 +26,15 @@ class ReflectionUtil {
      * 如向上转型到Object仍无法找到, 返回null.
      * 因为getFiled()不能获取父类的private属性, 因此采用循环向上的getDeclaredField();
      */
-    private static Field getField(final Class clazz, final String fieldName) throws NoSuchFieldException {
-        for (Class<?> superClass = clazz; superClass != Object.class; superClass = superClass.getSuperclass()) {
-            Field field = superClass.getDeclaredField(fieldName);
-            makeAccessible(field);
-            return field;
+    static Field getField(final Class clazz, final String fieldName) {
+        for (Class<?> superClass = clazz; superClass != null && superClass != Object.class; superClass = superClass.getSuperclass()) {
+            try {
+                Field field = superClass.getDeclaredField(fieldName);
+                makeAccessible(field);
+                return field;
+            } catch (NoSuchFieldException e) {
+                // 继续向上转型查找
+            }
         }
         return null;
     }
@@ -41,7 +45,7 @@ class ReflectionUtil {
      */
     protected static <T> T getFieldValue(Object obj, String fieldName) throws IllegalAccessException, NoSuchFieldException {
         if (fieldName.contains(".")) {
-            String[] fields = fieldName.split(".");
+            String[] fields = fieldName.split("\\.");
             for (String field : fields) {
                 obj = getFieldValue(obj, field);
             }
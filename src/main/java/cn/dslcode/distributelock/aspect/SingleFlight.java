@@ -0,0 +1,59 @@
+package cn.dslcode.distributelock.aspect;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * @author dongsilin
+ * @version 2018/12/6.
+ * 同一JVM内相同lockKey的并发调用合并为一次执行：第一个调用者加锁执行方法，
+ * 执行期间到达的调用者不再请求分布式锁，最多等待waitTimeMs，继承其返回值或异常（包括加锁失败），
+ * 等待超时按加锁失败处理。执行完成即移除，之后到达的调用者重新执行，不缓存结果。每个@Lockable方法一个实例
+ */
+class SingleFlight {
+
+    /** lockKey -> 执行中的调用 */
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> calls = new ConcurrentHashMap<>();
+
+    /**
+     * 执行或加入执行中的调用
+     * @param lockKey
+     * @param waitTimeMs 等待执行中调用的最长时间/ms，与加锁等待时间一致，0为不等待
+     * @param call 加锁执行方法
+     * @param fail 等待超时，按加锁失败处理
+     * @return 方法返回值
+     * @throws Throwable 方法或加锁抛出的异常，等待者收到同一个异常
+     */
+    Object execute(String lockKey, int waitTimeMs, Call call, Call fail) throws Throwable {
+        CompletableFuture<Object> mine = new CompletableFuture<>();
+        CompletableFuture<Object> inFlight = calls.putIfAbsent(lockKey, mine);
+        if (inFlight != null) {
+            try {
+                return inFlight.get(waitTimeMs, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                throw e.getCause();
+            } catch (TimeoutException e) {
+                return fail.execute();
+            }
+        }
+        try {
+            Object result = call.execute();
+            mine.complete(result);
+            return result;
+        } catch (Throwable e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(lockKey, mine);
+        }
+    }
+
+    @FunctionalInterface
+    interface Call {
+        Object execute() throws Throwable;
+    }
+
+}
@@ -0,0 +1,103 @@
+package cn.dslcode.distributelock.lock;
+
+import cn.dslcode.distributelock.CallBackExecutor;
+import cn.dslcode.distributelock.support.LockTokens;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * @author dongsilin
+ * @version 2018/11/16.
+ * 异步分布式锁，加锁、释放锁都不阻塞调用线程，等待锁由定时器或后端通知驱动
+ */
+public interface AsyncDistributeLock {
+
+    /**
+     * 异步尝试加锁并回调业务逻辑，业务逻辑返回的CompletionStage完成后自动释放锁，业务逻辑在ForkJoinPool.commonPool()中执行
+     * @param lockKey 锁key,每个业务一个key
+     * @param waitTimeMs 等待时间/ms
+     * @param timeoutMs 锁过期时间/ms，只对redis有效，zookeeper断开连接会自动删除
+     * @param successExecutor 获取锁成功回调业务逻辑
+     * @param failExecutor 获取锁失败回调业务逻辑
+     * @return CompletableFuture 业务逻辑结果
+     */
+    default <T> CompletableFuture<T> tryLockAndCallBackAsync(String lockKey, int waitTimeMs, int timeoutMs,
+                                                            CallBackExecutor<? extends CompletionStage<T>> successExecutor,
+                                                            CallBackExecutor<? extends CompletionStage<T>> failExecutor) {
+        return tryLockAndCallBackAsync(lockKey, waitTimeMs, timeoutMs, successExecutor, failExecutor, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * 异步尝试加锁并回调业务逻辑，业务逻辑返回的CompletionStage完成后自动释放锁。
+     * 加锁、释放结果由redis/zookeeper的I/O线程或定时器线程完成，业务逻辑和返回结果的完成都切换到callbackExecutor，
+     * 业务逻辑中可以调用同步的redis/zookeeper接口或阻塞，不会卡住I/O线程
+     * @param lockKey 锁key,每个业务一个key
+     * @param waitTimeMs 等待时间/ms
+     * @param timeoutMs 锁过期时间/ms，只对redis有效，zookeeper断开连接会自动删除
+     * @param successExecutor 获取锁成功回调业务逻辑
+     * @param failExecutor 获取锁失败回调业务逻辑
+     * @param callbackExecutor 执行业务逻辑的线程池
+     * @return CompletableFuture 业务逻辑结果
+     */
+    default <T> CompletableFuture<T> tryLockAndCallBackAsync(String lockKey, int waitTimeMs, int timeoutMs,
+                                                            CallBackExecutor<? extends CompletionStage<T>> successExecutor,
+                                                            CallBackExecutor<? extends CompletionStage<T>> failExecutor,
+                                                            Executor callbackExecutor) {
+        String lockValue = LockTokens.next();
+        return tryLockAsync(lockKey, lockValue, waitTimeMs, timeoutMs).thenComposeAsync(getLock -> {
+            if (!getLock) {
+                // 获取锁失败，执行失败业务逻辑
+                return execute(failExecutor);
+            }
+            // 获取锁成功，执行成功业务逻辑，完成后释放锁
+            CompletableFuture<T> result = new CompletableFuture<>();
+            execute(successExecutor).whenComplete((value, e) ->
+                releaseLockAsync(lockKey, lockValue).whenCompleteAsync((v, releaseError) -> {
+                    if (e != null) {
+                        result.completeExceptionally(e);
+                    } else if (releaseError != null) {
+                        result.completeExceptionally(releaseError);
+                    } else {
+                        result.complete(value);
+                    }
+                }, callbackExecutor)
+            );
+            return result;
+        }, callbackExecutor);
+    }
+
+    /**
+     * 异步尝试加锁
+     * @param lockKey 锁key,每个业务一个key
+     * @param lockValue 对应该锁的value，删除锁的时候会比对该value
+     * @param waitTimeMs 等待时间/ms
+     * @param timeoutMs 锁过期时间/ms，只对redis有效，zookeeper断开连接会自动删除
+     * @return CompletableFuture 是否获取成功
+     */
+    CompletableFuture<Boolean> tryLockAsync(String lockKey, String lockValue, int waitTimeMs, int timeoutMs);
+
+    /**
+     * 异步释放锁
+     * @param lockKey 锁key,每个业务一个key
+     * @param lockValue 对应该锁的value，删除锁的时候会比对该value
+     * @return CompletableFuture
+     */
+    CompletableFuture<Void> releaseLockAsync(String lockKey, String lockValue);
+
+    /**
+     * 执行异步回调，回调本身抛出的异常转为失败的CompletableFuture
+     * @param executor
+     * @return CompletableFuture
+     */
+    static <T> CompletableFuture<T> execute(CallBackExecutor<? extends CompletionStage<T>> executor) {
+        try {
+            return executor.execute().toCompletableFuture();
+        } catch (Throwable e) {
+            CompletableFuture<T> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package cn.dslcode.distributelock.lock;
+
+/**
+ * @author dongsilin
+ * @version 2018/12/4.
+ * 后端请求结果观察者，每次后端请求（加锁、释放等）结束后回调一次，用于熔断统计
+ */
+public interface BackendCallObserver {
+
+    /**
+     * 一次后端请求结束
+     * @param nanos 耗时/ns
+     * @param error 是否异常
+     */
+    void onCall(long nanos, boolean error);
+
+}
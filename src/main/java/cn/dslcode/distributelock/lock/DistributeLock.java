@@ -1,6 +1,12 @@
 package cn.dslcode.distributelock.lock;
 
 import cn.dslcode.distributelock.CallBackExecutor;
+import cn.dslcode.distributelock.LockMode;
+import cn.dslcode.distributelock.support.LockTokens;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
 
 /**
  * @author dongsilin
@@ -38,4 +44,133 @@ public interface DistributeLock<R> {
      * @param lockValue 对应该锁的value，删除锁的时候会比对该value，只对redis有效
      */
     void releaseLock(String lockKey, String lockValue) throws Exception;
+
+    /**
+     * 按锁模式尝试加锁并回调业务逻辑，自动释放锁
+     * @param mode 锁模式
+     * @param lockKey 锁key,每个业务一个key
+     * @param waitTimeMs 等待时间/ms
+     * @param timeoutMs 锁过期时间/ms，只对redis有效，zookeeper断开连接会自动删除
+     * @param successExecutor 获取锁成功回调业务逻辑
+     * @param failExecutor 获取锁失败回调业务逻辑
+     * @return R 回调业务逻辑泛型
+     * @throws Throwable
+     */
+    default R tryLockAndCallBack(LockMode mode, String lockKey, int waitTimeMs, int timeoutMs, CallBackExecutor<R> successExecutor, CallBackExecutor<R> failExecutor) throws Throwable {
+        if (mode == LockMode.EXCLUSIVE) {
+            return tryLockAndCallBack(lockKey, waitTimeMs, timeoutMs, successExecutor, failExecutor);
+        }
+        String lockValue = LockTokens.next();
+        boolean getLock = false;
+        try {
+            if (getLock = tryLock(mode, lockKey, lockValue, waitTimeMs, timeoutMs)) {
+                return successExecutor.execute();
+            }
+        } finally {
+            if (getLock) {
+                releaseLock(mode, lockKey, lockValue);
+            }
+        }
+        return failExecutor.execute();
+    }
+
+    /**
+     * 按锁模式尝试加锁，默认只支持互斥锁
+     * @param mode 锁模式
+     * @param lockKey 锁key,每个业务一个key
+     * @param lockValue 对应该锁的value，释放锁时用于标识持有者
+     * @param waitTimeMs 等待时间/ms
+     * @param timeoutMs 锁过期时间/ms，只对redis有效，zookeeper断开连接会自动删除
+     * @return boolean 是否获取成功
+     * @throws Exception
+     */
+    default boolean tryLock(LockMode mode, String lockKey, String lockValue, int waitTimeMs, int timeoutMs) throws Exception {
+        if (mode == LockMode.EXCLUSIVE) {
+            return tryLock(lockKey, lockValue, waitTimeMs, timeoutMs);
+        }
+        throw new UnsupportedOperationException("不支持读写锁：" + getClass().getName());
+    }
+
+    /**
+     * 按锁模式释放锁
+     * @param mode 锁模式
+     * @param lockKey 锁key,每个业务一个key
+     * @param lockValue 对应该锁的value
+     * @throws Exception
+     */
+    default void releaseLock(LockMode mode, String lockKey, String lockValue) throws Exception {
+        if (mode == LockMode.EXCLUSIVE) {
+            releaseLock(lockKey, lockValue);
+            return;
+        }
+        throw new UnsupportedOperationException("不支持读写锁：" + getClass().getName());
+    }
+
+    /**
+     * 同时对多个key尝试加锁并回调业务逻辑，自动释放锁，全部获取成功才执行成功业务逻辑
+     * @param lockKeys 锁key集合
+     * @param waitTimeMs 等待时间/ms
+     * @param timeoutMs 锁过期时间/ms，只对redis有效，zookeeper断开连接会自动删除
+     * @param successExecutor 获取锁成功回调业务逻辑
+     * @param failExecutor 获取锁失败回调业务逻辑
+     * @return R 回调业务逻辑泛型
+     * @throws Throwable
+     */
+    default R tryMultiLockAndCallBack(Collection<String> lockKeys, int waitTimeMs, int timeoutMs, CallBackExecutor<R> successExecutor, CallBackExecutor<R> failExecutor) throws Throwable {
+        String lockValue = LockTokens.next();
+        boolean getLock = false;
+        try {
+            if (getLock = tryMultiLock(lockKeys, lockValue, waitTimeMs, timeoutMs)) {
+                return successExecutor.execute();
+            }
+        } finally {
+            if (getLock) {
+                releaseMultiLock(lockKeys, lockValue);
+            }
+        }
+        return failExecutor.execute();
+    }
+
+    /**
+     * 同时对多个key尝试加锁，要么全部获取成功，要么全部失败。
+     * 默认实现按key排序后逐个加锁（全局一致的加锁顺序避免死锁），失败时释放已获取的锁，
+     * 后端支持原子操作的实现应覆盖此方法
+     * @param lockKeys 锁key集合
+     * @param lockValue 对应该锁的value，删除锁的时候会比对该value，只对redis有效
+     * @param waitTimeMs 等待时间/ms
+     * @param timeoutMs 锁过期时间/ms，只对redis有效，zookeeper断开连接会自动删除
+     * @return boolean 是否全部获取成功
+     * @throws Exception
+     */
+    default boolean tryMultiLock(Collection<String> lockKeys, String lockValue, int waitTimeMs, int timeoutMs) throws Exception {
+        long deadline = System.currentTimeMillis() + waitTimeMs;
+        List<String> acquired = new ArrayList<>(lockKeys.size());
+        try {
+            for (String lockKey : new TreeSet<>(lockKeys)) {
+                int remainMs = (int) Math.max(0, deadline - System.currentTimeMillis());
+                if (!tryLock(lockKey, lockValue, remainMs, timeoutMs)) {
+                    return false;
+                }
+                acquired.add(lockKey);
+            }
+            acquired.clear();
+            return true;
+        } finally {
+            // 未全部获取成功，释放已获取的锁
+            for (int i = acquired.size() - 1; i >= 0; i--) {
+                releaseLock(acquired.get(i), lockValue);
+            }
+        }
+    }
+
+    /**
+     * 释放多个key的锁
+     * @param lockKeys 锁key集合
+     * @param lockValue 对应该锁的value，删除锁的时候会比对该value，只对redis有效
+     */
+    default void releaseMultiLock(Collection<String> lockKeys, String lockValue) throws Exception {
+        for (String lockKey : new TreeSet<>(lockKeys)) {
+            releaseLock(lockKey, lockValue);
+        }
+    }
 }
@@ -0,0 +1,59 @@
+package cn.dslcode.distributelock.lock;
+
+import cn.dslcode.distributelock.CallBackExecutor;
+import cn.dslcode.distributelock.support.LockTokens;
+
+/**
+ * @author dongsilin
+ * @version 2018/11/27.
+ * 分布式信号量，限制同一key全局最多permits个并发执行者，如限制调用脆弱的下游服务
+ */
+public interface DistributeSemaphore {
+
+    /**
+     * 尝试获取许可并回调业务逻辑，自动释放许可
+     * @param semaphoreKey 信号量key
+     * @param permits 许可总数
+     * @param waitTimeMs 等待时间/ms
+     * @param leaseMs 许可过期时间/ms，只对redis有效，zookeeper断开连接会自动删除
+     * @param successExecutor 获取许可成功回调业务逻辑
+     * @param failExecutor 获取许可失败回调业务逻辑
+     * @return R 回调业务逻辑泛型
+     * @throws Throwable
+     */
+    default <R> R tryAcquireAndCallBack(String semaphoreKey, int permits, int waitTimeMs, int leaseMs, CallBackExecutor<R> successExecutor, CallBackExecutor<R> failExecutor) throws Throwable {
+        String permitId = LockTokens.next();
+        boolean acquired = false;
+        try {
+            if (acquired = tryAcquire(semaphoreKey, permitId, permits, waitTimeMs, leaseMs)) {
+                return successExecutor.execute();
+            }
+        } finally {
+            if (acquired) {
+                release(semaphoreKey, permitId);
+            }
+        }
+        return failExecutor.execute();
+    }
+
+    /**
+     * 尝试获取许可，一次请求
+     * @param semaphoreKey 信号量key
+     * @param permitId 许可标识，释放许可时使用
+     * @param permits 许可总数
+     * @param waitTimeMs 等待时间/ms
+     * @param leaseMs 许可过期时间/ms，只对redis有效，zookeeper断开连接会自动删除
+     * @return boolean 是否获取成功
+     * @throws Exception
+     */
+    boolean tryAcquire(String semaphoreKey, String permitId, int permits, int waitTimeMs, int leaseMs) throws Exception;
+
+    /**
+     * 释放许可，一次请求
+     * @param semaphoreKey 信号量key
+     * @param permitId 许可标识
+     * @throws Exception
+     */
+    void release(String semaphoreKey, String permitId) throws Exception;
+
+}
@@ -0,0 +1,454 @@
+package cn.dslcode.distributelock.lock;
+
+import cn.dslcode.distributelock.CallBackExecutor;
+import cn.dslcode.distributelock.LockMode;
+import cn.dslcode.distributelock.support.CircuitBreaker;
+import cn.dslcode.distributelock.support.LockTokens;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author dongsilin
+ * @version 2018/12/4.
+ * 主备切换分布式锁，包装主后端（redis）和备后端（zookeeper），两者使用相同的lockKey。
+ * 主后端每次请求的耗时和是否异常由熔断器统计（通过{@link #callObserver()}接入主后端），
+ * 慢调用率或失败率超过阈值后熔断，新的加锁请求改走备后端；熔断期间后台定期用探测key检测主后端，恢复后切回。
+ * 已获取的锁总是在获取它的后端上释放。
+ * 切换时同一个key可能仍被原后端上的持有者占用，为保持互斥，本节点在原后端上持有的锁（包括tryLockAndCallBack回调期间）
+ * 全部释放后才切换：切到备后端前加锁直接失败（不等待，避免请求堆积在故障后端上），切回主后端前继续使用备后端。
+ * 持有者一直不释放时最多等待隔离期fenceMs后强制切换，默认为原后端上使用过的最长timeoutMs
+ * （redis开启续期看门狗或zookeeper锁的持有时间可能超过timeoutMs，此时强制切换后只能尽力保证互斥）。
+ * 注意：各节点独立判断是否熔断，节点之间切换时间不一致时互斥只能尽力保证
+ */
+@Slf4j
+public class FailoverDistributeLock<R> implements DistributeLock<R>, DistributeSemaphore, LockBackendHealth, Closeable {
+
+    /** 主后端恢复探测使用的key */
+    private static final String PROBE_KEY = "__failover_probe__";
+
+    /** 主后端 */
+    private final DistributeLock<R> primary;
+    /** 备后端 */
+    private final DistributeLock<R> secondary;
+    /** 主后端熔断器 */
+    private final CircuitBreaker breaker;
+    /** 熔断后至少多久才探测主后端/ns */
+    private final long openNanos;
+    /** 探测请求超过该耗时视为未恢复/ns */
+    private final long slowCallNanos;
+    /** 切换时等待原后端上的锁释放的最长时间/ms，小于0时使用原后端上使用过的最长锁过期时间 */
+    private final long fenceMs;
+    /** 主后端上当前持有的锁 */
+    private final Holds primaryHolds = new Holds(true);
+    /** 备后端上当前持有的锁 */
+    private final Holds secondaryHolds = new Holds(false);
+    /** 新的加锁请求使用的后端 */
+    private volatile DistributeLock<R> active;
+    /** 最近一次探测到主后端恢复的时间，System.nanoTime */
+    private volatile long recoveredAt;
+    /** 切换后端的锁 */
+    private final Object switchLock = new Object();
+    /** tryLock获取的锁、tryAcquire获取的许可由哪个后端持有，释放时使用 */
+    private final ConcurrentHashMap<String, DistributeLock<R>> holders = new ConcurrentHashMap<>();
+    /** 主后端恢复探测 */
+    private final ScheduledExecutorService prober;
+
+    /**
+     * @param primary 主后端
+     * @param secondary 备后端
+     * @param breaker 主后端熔断器
+     * @param openMs 熔断后至少多久才探测主后端/ms
+     * @param slowCallMs 探测请求超过该耗时视为未恢复/ms
+     * @param fenceMs 切换时等待原后端上的锁释放的最长时间/ms，小于0时使用原后端上使用过的最长锁过期时间，0为立即切换
+     */
+    public FailoverDistributeLock(DistributeLock<R> primary, DistributeLock<R> secondary, CircuitBreaker breaker,
+                                  long openMs, long slowCallMs, long fenceMs) {
+        this.primary = primary;
+        this.secondary = secondary;
+        this.breaker = breaker;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMs);
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMs);
+        this.fenceMs = fenceMs;
+        this.active = primary;
+        this.prober = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "distributelock-failover-prober");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long probeIntervalMs = Math.max(100, Math.min(openMs, 1000));
+        this.prober.scheduleWithFixedDelay(this::probe, probeIntervalMs, probeIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+
+    /**
+     * 尝试加锁并回调业务逻辑，自动释放锁；切换隔离期内直接失败
+     * @param lockKey 锁key,每个业务一个key
+     * @param waitTimeMs 等待时间/ms
+     * @param timeoutMs 锁过期时间/ms
+     * @param successExecutor 获取锁成功回调业务逻辑
+     * @param failExecutor 获取锁失败回调业务逻辑
+     * @return R 回调业务逻辑泛型
+     * @throws Throwable
+     */
+    @Override
+    public R tryLockAndCallBack(String lockKey, int waitTimeMs, int timeoutMs, CallBackExecutor<R> successExecutor, CallBackExecutor<R> failExecutor) throws Throwable {
+        DistributeLock<R> backend = route(timeoutMs);
+        if (backend == null) {
+            if (log.isDebugEnabled()) log.debug("ThreadName = {}, tryLock = {}", Thread.currentThread().getName(), "主备切换隔离期，直接失败");
+            return failExecutor.execute();
+        }
+        try {
+            return backend.tryLockAndCallBack(lockKey, waitTimeMs, timeoutMs, successExecutor, failExecutor);
+        } finally {
+            holds(backend).release();
+        }
+    }
+
+    @Override
+    public boolean tryLock(String lockKey, String lockValue, int waitTimeMs, int timeoutMs) throws Exception {
+        return tryLock(LockMode.EXCLUSIVE, lockKey, lockValue, waitTimeMs, timeoutMs);
+    }
+
+    @Override
+    public void releaseLock(String lockKey, String lockValue) throws Exception {
+        releaseLock(LockMode.EXCLUSIVE, lockKey, lockValue);
+    }
+
+    @Override
+    public boolean tryLock(LockMode mode, String lockKey, String lockValue, int waitTimeMs, int timeoutMs) throws Exception {
+        DistributeLock<R> backend = route(timeoutMs);
+        if (backend == null) {
+            return false;
+        }
+        boolean locked = false;
+        try {
+            locked = backend.tryLock(mode, lockKey, lockValue, waitTimeMs, timeoutMs);
+        } finally {
+            if (!locked) {
+                holds(backend).release();
+            }
+        }
+        if (!locked) {
+            return false;
+        }
+        holders.put(holderKey(lockKey, lockValue), backend);
+        return true;
+    }
+
+    @Override
+    public void releaseLock(LockMode mode, String lockKey, String lockValue) throws Exception {
+        DistributeLock<R> backend = holders.remove(holderKey(lockKey, lockValue));
+        if (backend != null) {
+            try {
+                backend.releaseLock(mode, lockKey, lockValue);
+            } finally {
+                holds(backend).release();
+            }
+        }
+    }
+
+    @Override
+    public boolean tryMultiLock(Collection<String> lockKeys, String lockValue, int waitTimeMs, int timeoutMs) throws Exception {
+        DistributeLock<R> backend = route(timeoutMs);
+        if (backend == null) {
+            return false;
+        }
+        boolean locked = false;
+        try {
+            locked = backend.tryMultiLock(lockKeys, lockValue, waitTimeMs, timeoutMs);
+        } finally {
+            if (!locked) {
+                holds(backend).release();
+            }
+        }
+        if (!locked) {
+            return false;
+        }
+        holders.put(lockValue, backend);
+        return true;
+    }
+
+    @Override
+    public void releaseMultiLock(Collection<String> lockKeys, String lockValue) throws Exception {
+        DistributeLock<R> backend = holders.remove(lockValue);
+        if (backend != null) {
+            try {
+                backend.releaseMultiLock(lockKeys, lockValue);
+            } finally {
+                holds(backend).release();
+            }
+        }
+    }
+
+    /**
+     * 尝试获取许可，与加锁使用相同的主备路由和持有数统计，许可在获取它的后端上释放
+     * @param semaphoreKey 信号量key
+     * @param permitId 许可标识，释放许可时使用
+     * @param permits 许可总数
+     * @param waitTimeMs 等待时间/ms
+     * @param leaseMs 许可过期时间/ms
+     * @return boolean 是否获取成功，切换隔离期内返回false
+     * @throws Exception
+     */
+    @Override
+    public boolean tryAcquire(String semaphoreKey, String permitId, int permits, int waitTimeMs, int leaseMs) throws Exception {
+        DistributeLock<R> backend = route(leaseMs);
+        if (backend == null) {
+            return false;
+        }
+        boolean acquired = false;
+        try {
+            acquired = semaphore(backend).tryAcquire(semaphoreKey, permitId, permits, waitTimeMs, leaseMs);
+        } finally {
+            if (!acquired) {
+                holds(backend).release();
+            }
+        }
+        if (!acquired) {
+            return false;
+        }
+        holders.put(permitHolderKey(semaphoreKey, permitId), backend);
+        return true;
+    }
+
+    @Override
+    public void release(String semaphoreKey, String permitId) throws Exception {
+        DistributeLock<R> backend = holders.remove(permitHolderKey(semaphoreKey, permitId));
+        if (backend != null) {
+            try {
+                semaphore(backend).release(semaphoreKey, permitId);
+            } finally {
+                holds(backend).release();
+            }
+        }
+    }
+
+    private static DistributeSemaphore semaphore(DistributeLock<?> backend) {
+        if (backend instanceof DistributeSemaphore) {
+            return (DistributeSemaphore) backend;
+        }
+        throw new UnsupportedOperationException("不支持信号量：" + backend.getClass().getName());
+    }
+
+    private static String holderKey(String lockKey, String lockValue) {
+        return lockKey + '@' + lockValue;
+    }
+
+    private static String permitHolderKey(String semaphoreKey, String permitId) {
+        return semaphoreKey + '#' + permitId;
+    }
+
+
+    /***************************** 主备路由 ******************************/
+
+    /**
+     * 选择本次加锁使用的后端并计入该后端的持有数，加锁失败或释放后调用{@link Holds#release()}
+     * @param timeoutMs 锁过期时间/ms
+     * @return 后端，切到备后端前等待主后端上的锁释放期间返回null
+     */
+    private DistributeLock<R> route(int timeoutMs) {
+        for (;;) {
+            DistributeLock<R> target = breaker.isOpen() ? secondary : primary;
+            DistributeLock<R> backend = active;
+            if (backend != target) {
+                backend = switchTo(target);
+                if (backend != target && target == secondary) {
+                    return null;
+                }
+            }
+            // 计入持有数失败说明刚切换，重新选择
+            if (holds(backend).acquire(timeoutMs)) {
+                return backend;
+            }
+        }
+    }
+
+    /**
+     * 原后端上的锁已全部释放或等待超过隔离期时切换
+     * @param target 目标后端
+     * @return 当前使用的后端，未切换时为原后端
+     */
+    private DistributeLock<R> switchTo(DistributeLock<R> target) {
+        synchronized (switchLock) {
+            DistributeLock<R> current = active;
+            if (current == target) {
+                return current;
+            }
+            Holds from = holds(current);
+            long since = target == secondary ? breaker.openedAt() : recoveredAt;
+            long fence = fenceMs >= 0 ? fenceMs : from.leaseMs();
+            boolean drained = from.close();
+            if (!drained && System.nanoTime() - since < TimeUnit.MILLISECONDS.toNanos(fence)) {
+                return current;
+            }
+            if (!drained) {
+                from.forceClose();
+                log.warn("-------------- {}后端上仍有{}个锁未释放，等待超过{}ms，强制切换 ............",
+                    from.primary ? "主" : "备", from.count(), fence);
+            }
+            holds(target).open();
+            active = target;
+            log.info("-------------- 加锁切换到{}后端 ............", target == primary ? "主" : "备");
+            return target;
+        }
+    }
+
+    private Holds holds(DistributeLock<R> backend) {
+        return backend == primary ? primaryHolds : secondaryHolds;
+    }
+
+    /**
+     * 记录一次主后端请求
+     * @param nanos 耗时/ns
+     * @param error 是否失败
+     */
+    private void recordPrimary(long nanos, boolean error) {
+        if (breaker.record(nanos, error)) {
+            log.warn("-------------- 主后端熔断，主后端上的锁释放后加锁切换到备后端 ............");
+        }
+    }
+
+    /**
+     * 熔断后定期探测主后端：对探测key加锁再释放，未超时且未出错即恢复
+     */
+    private void probe() {
+        if (!breaker.isOpen() || System.nanoTime() - breaker.openedAt() < openNanos) {
+            return;
+        }
+        long startNanos = System.nanoTime();
+        try {
+            String lockValue = LockTokens.next();
+            if (primary.tryLock(PROBE_KEY, lockValue, 0, 1000)) {
+                primary.releaseLock(PROBE_KEY, lockValue);
+            }
+        } catch (Throwable e) {
+            if (log.isDebugEnabled()) log.debug("主后端探测失败", e);
+            return;
+        }
+        if (System.nanoTime() - startNanos > slowCallNanos) {
+            return;
+        }
+        recoveredAt = System.nanoTime();
+        breaker.reset();
+        log.info("-------------- 主后端已恢复，备后端上的锁释放后加锁切换回主后端 ............");
+    }
+
+    /**
+     * 主后端请求结果观察者，每次主后端请求的耗时和是否异常交给熔断器统计
+     * @return BackendCallObserver 设置给主后端
+     */
+    public BackendCallObserver callObserver() {
+        return this::recordPrimary;
+    }
+
+    /**
+     * 主后端可用且未熔断时UP；熔断或主后端不可用但备后端可用时DEGRADED
+     * @return Status
+     */
+    @Override
+    public Status health() {
+        Status primaryStatus = LockBackendHealth.of(primary);
+        if (!breaker.isOpen() && primaryStatus == Status.UP) {
+            return Status.UP;
+        }
+        return primaryStatus == Status.UP || LockBackendHealth.of(secondary) == Status.UP ? Status.DEGRADED : Status.DOWN;
+    }
+
+    /**
+     * 停止探测，关闭主备后端
+     */
+    @Override
+    public void close() throws IOException {
+        prober.shutdownNow();
+        if (primary instanceof Closeable) {
+            ((Closeable) primary).close();
+        }
+        if (secondary instanceof Closeable) {
+            ((Closeable) secondary).close();
+        }
+    }
+
+
+    /**
+     * 本节点在一个后端上持有的锁数量。state低位为持有数，CLOSED位表示该后端已停止接受新的加锁请求；
+     * 计入持有数和关闭都是对state的CAS，关闭成功时持有数为0，之后不会再有请求在该后端上加锁
+     */
+    private static final class Holds {
+
+        private static final int CLOSED = 1 << 30;
+
+        /** 是否主后端，用于日志 */
+        private final boolean primary;
+        private final AtomicInteger state;
+        /** 使用过的最长锁过期时间/ms */
+        private final AtomicLong leaseMs = new AtomicLong();
+
+        Holds(boolean primary) {
+            this.primary = primary;
+            this.state = new AtomicInteger(primary ? 0 : CLOSED);
+        }
+
+        /**
+         * 计入一个持有者
+         * @param timeoutMs 锁过期时间/ms
+         * @return false：已关闭
+         */
+        boolean acquire(int timeoutMs) {
+            for (;;) {
+                int current = state.get();
+                if ((current & CLOSED) != 0) {
+                    return false;
+                }
+                if (state.compareAndSet(current, current + 1)) {
+                    if (timeoutMs > leaseMs.get()) {
+                        leaseMs.accumulateAndGet(timeoutMs, Math::max);
+                    }
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * 减少一个持有者
+         */
+        void release() {
+            state.decrementAndGet();
+        }
+
+        /**
+         * 持有数为0时关闭
+         * @return boolean 是否已关闭
+         */
+        boolean close() {
+            return state.compareAndSet(0, CLOSED) || state.get() == CLOSED;
+        }
+
+        /**
+         * 不论持有数直接关闭，已持有的锁仍正常释放
+         */
+        void forceClose() {
+            state.getAndUpdate(current -> current | CLOSED);
+        }
+
+        void open() {
+            state.getAndUpdate(current -> current & ~CLOSED);
+        }
+
+        int count() {
+            return state.get() & ~CLOSED;
+        }
+
+        long leaseMs() {
+            return leaseMs.get();
+        }
+    }
+
+}
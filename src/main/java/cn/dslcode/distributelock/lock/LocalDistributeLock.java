@@ -0,0 +1,265 @@
+package cn.dslcode.distributelock.lock;
+
+import cn.dslcode.distributelock.CallBackExecutor;
+import cn.dslcode.distributelock.LockContext;
+import cn.dslcode.distributelock.metrics.LockMetrics;
+import cn.dslcode.distributelock.support.HashedWheelTimer;
+import cn.dslcode.distributelock.support.LockTokens;
+import java.io.Closeable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author dongsilin
+ * @version 2018/12/1.
+ * 进程内分布式锁，用于单实例部署和测试，不依赖redis/zookeeper，加锁不经过网络。
+ * 锁表只保存当前被持有的key：释放即移除，过期的key在下次加锁时直接覆盖，
+ * 没有再被访问的过期key由共享定时器定期清理，key数量再多内存也只与持有中的锁数量相关。
+ * 释放锁时比对lockValue，超时过期后被其他线程获取的锁不会被误删
+ */
+@Slf4j
+public class LocalDistributeLock<R> implements DistributeLock<R>, Closeable {
+
+    /** 监控统计后端名称 */
+    private static final String BACKEND = "local";
+    /** 过期锁清理间隔/ms */
+    private static final long SWEEP_INTERVAL_MS = 1000;
+
+    /** 锁表，lockKey -> 当前持有者 */
+    private final ConcurrentHashMap<String, Holder> locks = new ConcurrentHashMap<>();
+    /** 过期锁清理定时器 */
+    private final HashedWheelTimer timer;
+    /** 清理任务 */
+    private volatile HashedWheelTimer.Timeout sweepTimeout;
+    /** 是否已关闭 */
+    private volatile boolean closed;
+    /** 监控指标 */
+    private LockMetrics metrics = LockMetrics.NOOP;
+
+    public LocalDistributeLock() {
+        this(HashedWheelTimer.getDefault());
+    }
+
+    /**
+     * @param timer 过期锁清理定时器
+     */
+    public LocalDistributeLock(HashedWheelTimer timer) {
+        this.timer = timer;
+        scheduleSweep();
+        log.info("-------------- 进程内分布式锁初始化完成，只在当前JVM内互斥 ............");
+    }
+
+
+    /**
+     * 尝试加锁并回调业务逻辑，自动释放锁
+     * @param lockKey 锁key,每个业务一个key
+     * @param waitTimeMs 等待时间/ms
+     * @param timeoutMs 锁过期时间/ms
+     * @param successExecutor 获取锁成功回调业务逻辑
+     * @param failExecutor 获取锁失败回调业务逻辑
+     * @return R 回调业务逻辑泛型
+     * @throws Throwable
+     */
+    @Override
+    public R tryLockAndCallBack(String lockKey, int waitTimeMs, int timeoutMs, CallBackExecutor<R> successExecutor, CallBackExecutor<R> failExecutor) throws Throwable {
+        String lockValue = LockTokens.next();
+        if (!tryLock(lockKey, lockValue, waitTimeMs, timeoutMs)) {
+            return failExecutor.execute();
+        }
+        long holdStartNanos = System.nanoTime();
+        try {
+            return successExecutor.execute();
+        } finally {
+            recordHold(holdStartNanos);
+            releaseLock(lockKey, lockValue);
+        }
+    }
+
+    /**
+     * 尝试加锁，锁被持有时在持有者对象上等待，释放或过期时唤醒
+     * @param lockKey 锁key,每个业务一个key
+     * @param lockValue 对应该锁的value，删除锁的时候会比对该value
+     * @param waitTimeMs 等待时间/ms
+     * @param timeoutMs 锁过期时间/ms，小于等于0不过期
+     * @return boolean 是否获取成功
+     * @throws Exception
+     */
+    @Override
+    public boolean tryLock(String lockKey, String lockValue, int waitTimeMs, int timeoutMs) throws Exception {
+        long startNanos = System.nanoTime();
+        long deadline = startNanos + TimeUnit.MILLISECONDS.toNanos(waitTimeMs);
+        Holder mine = new Holder(lockValue, timeoutMs > 0 ? startNanos + TimeUnit.MILLISECONDS.toNanos(timeoutMs) : Long.MAX_VALUE);
+        int attempts = 0;
+        boolean getLock = false;
+        String result = LockMetrics.ERROR;
+        try {
+            while (true) {
+                attempts++;
+                Holder current = acquire(lockKey, mine);
+                if (current == mine) {
+                    getLock = true;
+                    break;
+                }
+                long remainNanos = deadline - System.nanoTime();
+                if (remainNanos <= 0) {
+                    break;
+                }
+                if (log.isDebugEnabled()) log.debug("ThreadName = {}, tryLock = {}", Thread.currentThread().getName(), "等待释放.............");
+                current.await(locks, lockKey, remainNanos);
+                // 等待期间过期时间照常计算，重新加锁时从当前时间起算
+                mine = new Holder(lockValue, timeoutMs > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs) : Long.MAX_VALUE);
+            }
+            result = LockMetrics.result(getLock, waitTimeMs);
+            return getLock;
+        } finally {
+            recordAcquire(startNanos, attempts, result);
+        }
+    }
+
+    /**
+     * 释放锁，只释放lockValue一致的锁，并唤醒等待者
+     * @param lockKey 锁key,每个业务一个key
+     * @param lockValue 对应该锁的value，删除锁的时候会比对该value
+     */
+    @Override
+    public void releaseLock(String lockKey, String lockValue) {
+        Holder current = locks.get(lockKey);
+        if (current != null && current.lockValue.equals(lockValue) && locks.remove(lockKey, current)) {
+            current.signal();
+        }
+    }
+
+    /**
+     * 加锁：没有持有者或持有者已过期时替换为自己
+     * @return 加锁后的持有者，等于mine时获取成功
+     */
+    private Holder acquire(String lockKey, Holder mine) {
+        Holder previous = locks.putIfAbsent(lockKey, mine);
+        if (previous == null) {
+            return mine;
+        }
+        if (previous.expired(System.nanoTime()) && locks.replace(lockKey, previous, mine)) {
+            previous.signal();
+            return mine;
+        }
+        return previous;
+    }
+
+
+    /***************************** 过期清理 ******************************/
+
+    private void scheduleSweep() {
+        if (closed) {
+            return;
+        }
+        sweepTimeout = timer.newTimeout(() -> {
+            // 定时器线程只做调度，遍历锁表交给公共线程池
+            ForkJoinPool.commonPool().execute(this::sweep);
+            scheduleSweep();
+        }, SWEEP_INTERVAL_MS);
+    }
+
+    /**
+     * 清理已过期且没有再被访问的锁，唤醒其等待者
+     */
+    private void sweep() {
+        long now = System.nanoTime();
+        locks.forEach((lockKey, holder) -> {
+            if (holder.expired(now) && locks.remove(lockKey, holder)) {
+                holder.signal();
+            }
+        });
+    }
+
+    /**
+     * 停止过期清理
+     */
+    @Override
+    public void close() {
+        closed = true;
+        HashedWheelTimer.Timeout timeout = sweepTimeout;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+
+
+    /***************************** 监控统计 ******************************/
+
+    /**
+     * 设置监控指标
+     * @param metrics
+     */
+    public void setMetrics(LockMetrics metrics) {
+        this.metrics = metrics != null ? metrics : LockMetrics.NOOP;
+    }
+
+    private void recordAcquire(long startNanos, int attempts, String result) {
+        if (metrics != LockMetrics.NOOP) {
+            metrics.recordAcquire(BACKEND, LockContext.name(), System.nanoTime() - startNanos, attempts, result);
+        }
+    }
+
+    private void recordHold(long startNanos) {
+        if (metrics != LockMetrics.NOOP) {
+            metrics.recordHold(BACKEND, LockContext.name(), System.nanoTime() - startNanos);
+        }
+    }
+
+
+    /**
+     * 锁持有者，等待者在持有者对象上等待
+     */
+    private static final class Holder {
+        /** 持有者lockValue */
+        private final String lockValue;
+        /** 过期时间，System.nanoTime */
+        private final long expireNanos;
+        /** 等待者数量，没有等待者时释放不需要加锁唤醒 */
+        private volatile int waiters;
+
+        private Holder(String lockValue, long expireNanos) {
+            this.lockValue = lockValue;
+            this.expireNanos = expireNanos;
+        }
+
+        private boolean expired(long now) {
+            return expireNanos != Long.MAX_VALUE && now - expireNanos >= 0;
+        }
+
+        /**
+         * 等待持有者释放或过期，最多等待remainNanos
+         */
+        private void await(ConcurrentHashMap<String, Holder> locks, String lockKey, long remainNanos) throws InterruptedException {
+            synchronized (this) {
+                waiters++;
+                try {
+                    // 登记等待者后再检查，避免错过登记前的释放
+                    if (locks.get(lockKey) != this) {
+                        return;
+                    }
+                    long waitNanos = expireNanos == Long.MAX_VALUE ? remainNanos : Math.min(remainNanos, expireNanos - System.nanoTime());
+                    if (waitNanos > 0) {
+                        TimeUnit.NANOSECONDS.timedWait(this, waitNanos);
+                    }
+                } finally {
+                    waiters--;
+                }
+            }
+        }
+
+        /**
+         * 已从锁表移除，唤醒等待者
+         */
+        private void signal() {
+            if (waiters > 0) {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+}
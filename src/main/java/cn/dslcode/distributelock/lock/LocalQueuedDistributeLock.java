@@ -0,0 +1,368 @@
+package cn.dslcode.distributelock.lock;
+
+import cn.dslcode.distributelock.CallBackExecutor;
+import cn.dslcode.distributelock.LockMode;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author dongsilin
+ * @version 2018/11/5.
+ * 本地排队分布式锁，包装任意DistributeLock实现。
+ * 同一个JVM内相同lockKey的线程先在本地公平排队，只有排在队首的线程去请求redis/zookeeper，
+ * 释放锁后按顺序交给下一个本地等待者，后端请求量降低为每个节点一个竞争者
+ */
+@Slf4j
+public class LocalQueuedDistributeLock<R> implements DistributeLock<R>, DistributeSemaphore, LockBackendHealth, Closeable {
+
+    /** 被包装的分布式锁 */
+    private final DistributeLock<R> delegate;
+    /** 本地锁表，lockKey -> 本地锁，无引用时移除 */
+    private final ConcurrentHashMap<String, LocalLock> localLocks = new ConcurrentHashMap<>();
+    /** tryLock/tryMultiLock获取成功后持有的本地锁，lockKey@lockValue -> 本地锁，释放时只释放自己持有的 */
+    private final ConcurrentHashMap<String, LocalLock> localHolders = new ConcurrentHashMap<>();
+
+    public LocalQueuedDistributeLock(DistributeLock<R> delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * 尝试加锁并回调业务逻辑，自动释放锁
+     * @param lockKey 锁key,每个业务一个key
+     * @param waitTimeMs 等待时间/ms
+     * @param timeoutMs 锁过期时间/ms，只对redis有效，zookeeper断开连接会自动删除
+     * @param successExecutor 获取锁成功回调业务逻辑
+     * @param failExecutor 获取锁失败回调业务逻辑
+     * @return R 回调业务逻辑泛型
+     * @throws Throwable
+     */
+    @Override
+    public R tryLockAndCallBack(String lockKey, int waitTimeMs, int timeoutMs, CallBackExecutor<R> successExecutor, CallBackExecutor<R> failExecutor) throws Throwable {
+        long deadline = System.currentTimeMillis() + waitTimeMs;
+        LocalLock localLock = acquireLocal(lockKey, waitTimeMs);
+        if (localLock == null) {
+            if (log.isDebugEnabled()) log.debug("ThreadName = {}, tryLock = {}", Thread.currentThread().getName(), "本地排队获取锁失败");
+            return failExecutor.execute();
+        }
+        try {
+            // 本地排队已消耗的时间从等待时间中扣除
+            int remainMs = (int) Math.max(0, deadline - System.currentTimeMillis());
+            return delegate.tryLockAndCallBack(lockKey, remainMs, timeoutMs, successExecutor, failExecutor);
+        } finally {
+            releaseLocal(lockKey, localLock);
+        }
+    }
+
+    /**
+     * 尝试加锁，先本地排队，再请求后端
+     * @param lockKey 锁key,每个业务一个key
+     * @param lockValue 对应该锁的value，删除锁的时候会比对该value，只对redis有效
+     * @param waitTimeMs 等待时间/ms
+     * @param timeoutMs 锁过期时间/ms，只对redis有效，zookeeper断开连接会自动删除
+     * @return boolean 是否获取成功
+     * @throws Exception
+     */
+    @Override
+    public boolean tryLock(String lockKey, String lockValue, int waitTimeMs, int timeoutMs) throws Exception {
+        long deadline = System.currentTimeMillis() + waitTimeMs;
+        LocalLock localLock = acquireLocal(lockKey, waitTimeMs);
+        if (localLock == null) {
+            return false;
+        }
+        boolean getLock = false;
+        try {
+            int remainMs = (int) Math.max(0, deadline - System.currentTimeMillis());
+            getLock = delegate.tryLock(lockKey, lockValue, remainMs, timeoutMs);
+            if (getLock) {
+                localHolders.put(holderKey(lockKey, lockValue), localLock);
+            }
+            return getLock;
+        } finally {
+            // 后端加锁失败，让出本地锁
+            if (!getLock) {
+                releaseLocal(lockKey, localLock);
+            }
+        }
+    }
+
+    /**
+     * 释放锁，先释放后端锁，再交给下一个本地等待者；
+     * 只释放lockKey + lockValue获取的本地锁，重复释放或lockValue不匹配时不影响其他持有者
+     * @param lockKey 锁key,每个业务一个key
+     * @param lockValue 对应该锁的value，删除锁的时候会比对该value，只对redis有效
+     */
+    @Override
+    public void releaseLock(String lockKey, String lockValue) throws Exception {
+        try {
+            delegate.releaseLock(lockKey, lockValue);
+        } finally {
+            LocalLock localLock = localHolders.remove(holderKey(lockKey, lockValue));
+            if (localLock != null) {
+                releaseLocal(lockKey, localLock);
+            }
+        }
+    }
+
+    /**
+     * 按锁模式尝试加锁并回调业务逻辑，读写锁不本地排队，直接交给后端，避免读锁在本地串行
+     * @param mode 锁模式
+     * @param lockKey 锁key,每个业务一个key
+     * @param waitTimeMs 等待时间/ms
+     * @param timeoutMs 锁过期时间/ms，只对redis有效，zookeeper断开连接会自动删除
+     * @param successExecutor 获取锁成功回调业务逻辑
+     * @param failExecutor 获取锁失败回调业务逻辑
+     * @return R 回调业务逻辑泛型
+     * @throws Throwable
+     */
+    @Override
+    public R tryLockAndCallBack(LockMode mode, String lockKey, int waitTimeMs, int timeoutMs, CallBackExecutor<R> successExecutor, CallBackExecutor<R> failExecutor) throws Throwable {
+        if (mode == LockMode.EXCLUSIVE) {
+            return tryLockAndCallBack(lockKey, waitTimeMs, timeoutMs, successExecutor, failExecutor);
+        }
+        return delegate.tryLockAndCallBack(mode, lockKey, waitTimeMs, timeoutMs, successExecutor, failExecutor);
+    }
+
+    @Override
+    public boolean tryLock(LockMode mode, String lockKey, String lockValue, int waitTimeMs, int timeoutMs) throws Exception {
+        if (mode == LockMode.EXCLUSIVE) {
+            return tryLock(lockKey, lockValue, waitTimeMs, timeoutMs);
+        }
+        return delegate.tryLock(mode, lockKey, lockValue, waitTimeMs, timeoutMs);
+    }
+
+    @Override
+    public void releaseLock(LockMode mode, String lockKey, String lockValue) throws Exception {
+        if (mode == LockMode.EXCLUSIVE) {
+            releaseLock(lockKey, lockValue);
+            return;
+        }
+        delegate.releaseLock(mode, lockKey, lockValue);
+    }
+
+
+    /**
+     * 尝试获取许可，信号量允许多个持有者，不本地排队，直接交给后端
+     * @param semaphoreKey 信号量key
+     * @param permitId 许可标识
+     * @param permits 许可总数
+     * @param waitTimeMs 等待时间/ms
+     * @param leaseMs 许可过期时间/ms
+     * @return boolean 是否获取成功
+     * @throws Exception
+     */
+    @Override
+    public boolean tryAcquire(String semaphoreKey, String permitId, int permits, int waitTimeMs, int leaseMs) throws Exception {
+        return semaphore().tryAcquire(semaphoreKey, permitId, permits, waitTimeMs, leaseMs);
+    }
+
+    @Override
+    public void release(String semaphoreKey, String permitId) throws Exception {
+        semaphore().release(semaphoreKey, permitId);
+    }
+
+    private DistributeSemaphore semaphore() {
+        if (delegate instanceof DistributeSemaphore) {
+            return (DistributeSemaphore) delegate;
+        }
+        throw new UnsupportedOperationException("不支持信号量：" + delegate.getClass().getName());
+    }
+
+
+    /**
+     * 同时对多个key尝试加锁并回调业务逻辑，先按key排序本地排队，再由后端一次请求加锁
+     * @param lockKeys 锁key集合
+     * @param waitTimeMs 等待时间/ms
+     * @param timeoutMs 锁过期时间/ms，只对redis有效，zookeeper断开连接会自动删除
+     * @param successExecutor 获取锁成功回调业务逻辑
+     * @param failExecutor 获取锁失败回调业务逻辑
+     * @return R 回调业务逻辑泛型
+     * @throws Throwable
+     */
+    @Override
+    public R tryMultiLockAndCallBack(Collection<String> lockKeys, int waitTimeMs, int timeoutMs, CallBackExecutor<R> successExecutor, CallBackExecutor<R> failExecutor) throws Throwable {
+        long deadline = System.currentTimeMillis() + waitTimeMs;
+        TreeSet<String> sortedKeys = new TreeSet<>(lockKeys);
+        List<String> localKeys = acquireLocal(sortedKeys, deadline);
+        try {
+            if (localKeys == null) {
+                return failExecutor.execute();
+            }
+            int remainMs = (int) Math.max(0, deadline - System.currentTimeMillis());
+            return delegate.tryMultiLockAndCallBack(sortedKeys, remainMs, timeoutMs, successExecutor, failExecutor);
+        } finally {
+            if (localKeys != null) {
+                releaseLocal(localKeys);
+            }
+        }
+    }
+
+    /**
+     * 同时对多个key尝试加锁，先按key排序本地排队，再由后端一次请求加锁
+     * @param lockKeys 锁key集合
+     * @param lockValue 对应该锁的value，删除锁的时候会比对该value，只对redis有效
+     * @param waitTimeMs 等待时间/ms
+     * @param timeoutMs 锁过期时间/ms，只对redis有效，zookeeper断开连接会自动删除
+     * @return boolean 是否全部获取成功
+     * @throws Exception
+     */
+    @Override
+    public boolean tryMultiLock(Collection<String> lockKeys, String lockValue, int waitTimeMs, int timeoutMs) throws Exception {
+        long deadline = System.currentTimeMillis() + waitTimeMs;
+        TreeSet<String> sortedKeys = new TreeSet<>(lockKeys);
+        List<String> localKeys = acquireLocal(sortedKeys, deadline);
+        if (localKeys == null) {
+            return false;
+        }
+        boolean getLock = false;
+        try {
+            int remainMs = (int) Math.max(0, deadline - System.currentTimeMillis());
+            getLock = delegate.tryMultiLock(sortedKeys, lockValue, remainMs, timeoutMs);
+            if (getLock) {
+                for (String lockKey : localKeys) {
+                    localHolders.put(holderKey(lockKey, lockValue), localLocks.get(lockKey));
+                }
+            }
+            return getLock;
+        } finally {
+            if (!getLock) {
+                releaseLocal(localKeys);
+            }
+        }
+    }
+
+    /**
+     * 释放多个key的锁
+     * @param lockKeys 锁key集合
+     * @param lockValue 对应该锁的value，删除锁的时候会比对该value，只对redis有效
+     */
+    @Override
+    public void releaseMultiLock(Collection<String> lockKeys, String lockValue) throws Exception {
+        TreeSet<String> sortedKeys = new TreeSet<>(lockKeys);
+        try {
+            delegate.releaseMultiLock(sortedKeys, lockValue);
+        } finally {
+            for (String lockKey : sortedKeys) {
+                LocalLock localLock = localHolders.remove(holderKey(lockKey, lockValue));
+                if (localLock != null) {
+                    releaseLocal(lockKey, localLock);
+                }
+            }
+        }
+    }
+
+
+    /******************************* 本地锁表操作逻辑 ******************************/
+
+    /**
+     * 按排序后的顺序本地排队获取多个key的锁，任一失败则释放已获取的本地锁
+     * @param sortedKeys 排序后的锁key
+     * @param deadline 截止时间
+     * @return 获取成功返回已获取的key，失败返回null
+     * @throws InterruptedException
+     */
+    private List<String> acquireLocal(TreeSet<String> sortedKeys, long deadline) throws InterruptedException {
+        List<String> acquired = new ArrayList<>(sortedKeys.size());
+        try {
+            for (String lockKey : sortedKeys) {
+                if (acquireLocal(lockKey, (int) Math.max(0, deadline - System.currentTimeMillis())) == null) {
+                    return null;
+                }
+                acquired.add(lockKey);
+            }
+            List<String> result = acquired;
+            acquired = null;
+            return result;
+        } finally {
+            if (acquired != null) {
+                releaseLocal(acquired);
+            }
+        }
+    }
+
+    /**
+     * 释放多个key的本地锁
+     * @param lockKeys
+     */
+    private void releaseLocal(List<String> lockKeys) {
+        for (String lockKey : lockKeys) {
+            releaseLocal(lockKey, localLocks.get(lockKey));
+        }
+    }
+
+    /**
+     * 本地排队获取锁
+     * @param lockKey
+     * @param waitTimeMs 等待时间/ms
+     * @return 获取成功返回本地锁，失败返回null
+     * @throws InterruptedException
+     */
+    private LocalLock acquireLocal(String lockKey, int waitTimeMs) throws InterruptedException {
+        LocalLock localLock = localLocks.compute(lockKey, (k, v) -> {
+            if (v == null) {
+                v = new LocalLock();
+            }
+            v.refs++;
+            return v;
+        });
+        boolean acquired = false;
+        try {
+            acquired = waitTimeMs > 0
+                ? localLock.permit.tryAcquire(waitTimeMs, TimeUnit.MILLISECONDS)
+                : localLock.permit.tryAcquire();
+        } finally {
+            if (!acquired) {
+                unref(lockKey);
+            }
+        }
+        return acquired ? localLock : null;
+    }
+
+    /**
+     * 释放本地锁，交给下一个本地等待者
+     * @param lockKey
+     * @param localLock
+     */
+    private void releaseLocal(String lockKey, LocalLock localLock) {
+        localLock.permit.release();
+        unref(lockKey);
+    }
+
+    private static String holderKey(String lockKey, String lockValue) {
+        return lockKey + '@' + lockValue;
+    }
+
+    private void unref(String lockKey) {
+        localLocks.computeIfPresent(lockKey, (k, v) -> --v.refs > 0 ? v : null);
+    }
+
+    @Override
+    public Status health() {
+        return LockBackendHealth.of(delegate);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (delegate instanceof Closeable) {
+            ((Closeable) delegate).close();
+        }
+    }
+
+
+    /**
+     * 本地锁，公平信号量保证本地等待者按顺序交接，不绑定线程，可跨线程释放
+     */
+    private static class LocalLock {
+        private final Semaphore permit = new Semaphore(1, true);
+        /** 引用数（持有者 + 等待者），只在localLocks.compute中修改 */
+        private int refs;
+    }
+
+}
@@ -0,0 +1,39 @@
+package cn.dslcode.distributelock.lock;
+
+/**
+ * @author dongsilin
+ * @version 2018/12/7.
+ * 分布式锁后端健康状态，后端连接在后台建立，启动时不阻塞也不因后端不可用退出，
+ * 可通过此接口接入健康检查（如包装为spring boot actuator的HealthIndicator）
+ */
+public interface LockBackendHealth {
+
+    /**
+     * 后端状态
+     */
+    enum Status {
+        /** 可用 */
+        UP,
+        /** 正在连接（启动中或断线重连中） */
+        CONNECTING,
+        /** 部分可用：主备切换中使用备后端，或分片中部分master不可用 */
+        DEGRADED,
+        /** 不可用 */
+        DOWN
+    }
+
+    /**
+     * 当前状态
+     * @return Status
+     */
+    Status health();
+
+    /**
+     * 后端状态，没有实现此接口的后端（如进程内锁）视为可用
+     * @param backend 分布式锁实现
+     * @return Status
+     */
+    static Status of(Object backend) {
+        return backend instanceof LockBackendHealth ? ((LockBackendHealth) backend).health() : Status.UP;
+    }
+}
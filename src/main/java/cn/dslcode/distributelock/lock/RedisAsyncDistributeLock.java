@@ -0,0 +1,118 @@
+package cn.dslcode.distributelock.lock;
+
+import cn.dslcode.distributelock.support.HashedWheelTimer;
+import cn.dslcode.distributelock.support.RedisSlots;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+
+/**
+ * @author dongsilin
+ * @version 2018/11/16.
+ * redis异步分布式锁，基于spring-data-redis的reactive（lettuce异步）命令，
+ * 加锁失败后由共享时间轮定时重试，等待期间不占用线程。
+ * key、Lua脚本与RedisDistributeLock一致，两者可以互斥同一个锁
+ */
+@Slf4j
+public class RedisAsyncDistributeLock implements AsyncDistributeLock {
+
+    /** redis reactive连接 */
+    private ReactiveRedisTemplate<String, String> redisTemplate;
+    /** 重试定时器 */
+    private HashedWheelTimer timer;
+    /** 分布式锁前缀 */
+    private String lockPrefix = "lock:";
+    /** 锁释放通知channel前缀 */
+    private String channelPrefix = "lock:channel:";
+    /** 是否redis cluster模式，与RedisDistributeLock使用相同的hash tag规则 */
+    private boolean cluster;
+
+    /** 加锁Lua脚本，加锁成功返回nil，失败返回当前持有者剩余过期时间/ms */
+    private String luaLockScript = "if redis.call('SET', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then return nil end " +
+        "return redis.call('PTTL', KEYS[1])";
+    /** 加锁脚本对象 */
+    private RedisScript<Long> redisLockScript = new DefaultRedisScript<>(luaLockScript, Long.class);
+    /** 解锁脚本对象 */
+    private RedisScript<Long> redisDelLockScript = new DefaultRedisScript<>(RedisScriptRunner.UNLOCK_SCRIPT, Long.class);
+
+    public RedisAsyncDistributeLock(ReactiveRedisConnectionFactory connectionFactory) {
+        this(connectionFactory, HashedWheelTimer.getDefault());
+    }
+
+    public RedisAsyncDistributeLock(ReactiveRedisConnectionFactory connectionFactory, HashedWheelTimer timer) {
+        this.redisTemplate = new ReactiveRedisTemplate<>(connectionFactory, RedisSerializationContext.string());
+        this.timer = timer;
+        this.cluster = connectionFactory instanceof RedisConnectionFactory && RedisSlots.isCluster((RedisConnectionFactory) connectionFactory);
+    }
+
+    /**
+     * 异步尝试加锁
+     * @param lockKey 锁key,每个业务一个key
+     * @param lockValue 对应该锁的value，删除锁的时候会比对该value
+     * @param waitTimeMs 等待时间/ms
+     * @param timeoutMs 锁过期时间/ms
+     * @return CompletableFuture 是否获取成功
+     */
+    @Override
+    public CompletableFuture<Boolean> tryLockAsync(String lockKey, String lockValue, int waitTimeMs, int timeoutMs) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        attempt(RedisSlots.redisKey(lockPrefix, lockKey, cluster), lockValue, String.valueOf(timeoutMs), System.currentTimeMillis() + waitTimeMs, 0, result);
+        return result;
+    }
+
+    /**
+     * 异步释放锁
+     * @param lockKey 锁key,每个业务一个key
+     * @param lockValue 对应该锁的value，删除锁的时候会比对该value
+     * @return CompletableFuture
+     */
+    @Override
+    public CompletableFuture<Void> releaseLockAsync(String lockKey, String lockValue) {
+        return redisTemplate.execute(redisDelLockScript, Collections.singletonList(RedisSlots.redisKey(lockPrefix, lockKey, cluster)),
+            Arrays.asList(lockValue, channelPrefix + lockKey)).then().toFuture();
+    }
+
+    /**
+     * 尝试加锁一次，失败则在时间轮上安排下一次重试，不超过持有者剩余过期时间
+     * @param redisKey 锁在redis中的key
+     * @param lockValue
+     * @param timeoutMs 锁过期时间/ms
+     * @param deadline 等待截止时间
+     * @param retryTimes 已重试次数
+     * @param result 加锁结果
+     */
+    private void attempt(String redisKey, String lockValue, String timeoutMs, long deadline, int retryTimes, CompletableFuture<Boolean> result) {
+        redisTemplate.execute(redisLockScript, Collections.singletonList(redisKey), Arrays.asList(lockValue, timeoutMs))
+            .next()
+            .toFuture()
+            .whenComplete((ttl, e) -> {
+                if (e != null) {
+                    result.completeExceptionally(e);
+                    return;
+                }
+                if (ttl == null) {
+                    result.complete(true);
+                    return;
+                }
+                long remainMs = deadline - System.currentTimeMillis();
+                if (remainMs <= 0) {
+                    result.complete(false);
+                    return;
+                }
+                if (log.isDebugEnabled()) log.debug("tryLockAsync = {}, retryTimes = {}", "等待获取.............", retryTimes);
+                long delayMs = Math.min(remainMs, 20 + 10 * retryTimes);
+                if (ttl > 0) {
+                    delayMs = Math.min(delayMs, ttl);
+                }
+                timer.newTimeout(() -> attempt(redisKey, lockValue, timeoutMs, deadline, retryTimes + 1, result), delayMs);
+            });
+    }
+
+}
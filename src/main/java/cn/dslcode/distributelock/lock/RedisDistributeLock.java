@@ -1,10 +1,31 @@
 package cn.dslcode.distributelock.lock;
 
 import cn.dslcode.distributelock.CallBackExecutor;
+import cn.dslcode.distributelock.LockContext;
+import cn.dslcode.distributelock.LockMode;
+import cn.dslcode.distributelock.metrics.LockMetrics;
+import cn.dslcode.distributelock.support.HeldKeyCache;
+import cn.dslcode.distributelock.support.LockTokens;
+import cn.dslcode.distributelock.support.RedisSlots;
+import cn.dslcode.distributelock.wait.DecorrelatedJitterWaitStrategy;
+import cn.dslcode.distributelock.wait.WaitStrategy;
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-import java.util.UUID;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.data.redis.core.script.RedisScript;
@@ -15,35 +36,180 @@ import org.springframework.data.redis.core.script.RedisScript;
  * redis分布式锁
  */
 @Slf4j
-public class RedisDistributeLock<R> implements DistributeLock<R> {
+public class RedisDistributeLock<R> implements DistributeLock<R>, DistributeSemaphore, LockBackendHealth, Closeable {
+
+    /** 监控统计后端名称 */
+    private static final String BACKEND = "redis";
 
     /** redis连接 */
     private StringRedisTemplate redisTemplate;
     /** 分布式锁前缀 */
     private String lockPrefix = "lock:";
+    /** 锁释放通知channel前缀 */
+    private String channelPrefix = "lock:channel:";
+    /** 读写锁前缀，与互斥锁分开，读写锁为hash结构 */
+    private String rwLockPrefix = "lock:rw:";
+    /** 信号量前缀，信号量为sorted set结构 */
+    private String semaphorePrefix = "lock:semaphore:";
+    /** 锁释放通知，为null时轮询等待 */
+    private RedisLockNotifier notifier;
+    /** 锁续期看门狗，为null时不续期 */
+    private RedisLockWatchdog watchdog;
+    /** 锁异步释放，为null时同步释放 */
+    private RedisLockReleaser releaser;
+    /** 监控指标 */
+    private LockMetrics metrics = LockMetrics.NOOP;
+    /** 后端请求结果观察者，为null时不回调 */
+    private volatile BackendCallObserver callObserver;
+    /** 是否redis cluster模式 */
+    private boolean cluster;
+    /** 锁占用缓存，为null时不缓存 */
+    private HeldKeyCache heldCache;
+    /** 等待策略 */
+    private WaitStrategy waitStrategy = new DecorrelatedJitterWaitStrategy();
 
-    /** 加锁Lua脚本 */
-    private String luaLockScript = "return redis.call('SET', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2])";
-    /** 解锁Lua脚本 */
-    private String luaDelLockScript = "if redis.call('GET', KEYS[1]) == ARGV[1] then redis.call('DEL', KEYS[1]) end";
-    /** 加锁脚本对象 */
-    private RedisScript<String> redisLockScript = new DefaultRedisScript<>(luaLockScript, String.class);
-    /** 解锁脚本对象 */
-    private RedisScript<Void> redisDelLockScript = new DefaultRedisScript<>(luaDelLockScript, Void.class);
+    /** 加锁Lua脚本，加锁成功返回nil，失败返回当前持有者剩余过期时间/ms */
+    private String luaLockScript = "if redis.call('SET', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then return nil end " +
+        "return redis.call('PTTL', KEYS[1])";
+    /** 多key加锁Lua脚本，任一key已被持有则全部不加锁并返回其剩余过期时间/ms，否则全部加锁返回nil */
+    private String luaMultiLockScript = "for i = 1, #KEYS do if redis.call('EXISTS', KEYS[i]) == 1 then " +
+        "return redis.call('PTTL', KEYS[i]) end end " +
+        "for i = 1, #KEYS do redis.call('SET', KEYS[i], ARGV[1], 'PX', ARGV[2]) end return nil";
+    /** 多key解锁Lua脚本，ARGV[i + 1]为KEYS[i]的释放通知channel */
+    private String luaMultiDelLockScript = "for i = 1, #KEYS do if redis.call('GET', KEYS[i]) == ARGV[1] then " +
+        "redis.call('DEL', KEYS[i]) redis.call('PUBLISH', ARGV[i + 1], ARGV[1]) end end";
+    /**
+     * 读锁Lua脚本，hash中 r:token 为读者过期时间，w/wt 为写者及其过期时间，i/it 为等待中的写者及其等待截止时间。
+     * 没有有效的写者和等待中的写者才能加读锁，加锁成功返回nil，失败返回需要等待的时间/ms
+     */
+    private String luaReadLockScript = "redis.replicate_commands() " +
+        "local t = redis.call('TIME') local now = t[1] * 1000 + math.floor(t[2] / 1000) " +
+        "local wt = tonumber(redis.call('HGET', KEYS[1], 'wt')) if wt and wt > now then return wt - now end " +
+        "local it = tonumber(redis.call('HGET', KEYS[1], 'it')) if it and it > now then return it - now end " +
+        "redis.call('HSET', KEYS[1], 'r:' .. ARGV[1], now + ARGV[2]) " +
+        "if redis.call('PTTL', KEYS[1]) < tonumber(ARGV[2]) then redis.call('PEXPIRE', KEYS[1], ARGV[2]) end return nil";
+    /**
+     * 写锁Lua脚本，清理过期读者，没有有效读者、写者且没有其他等待中的写者时加写锁；
+     * 否则登记为等待中的写者（ARGV[3]为等待截止时间/ms，大于0才登记），阻止新的读锁，避免写锁饥饿
+     */
+    private String luaWriteLockScript = "redis.replicate_commands() " +
+        "local t = redis.call('TIME') local now = t[1] * 1000 + math.floor(t[2] / 1000) " +
+        "local h = redis.call('HGETALL', KEYS[1]) local wait, i, it = 0, nil, 0 " +
+        "for n = 1, #h, 2 do local f, v = h[n], h[n + 1] " +
+        "if string.sub(f, 1, 2) == 'r:' then local e = tonumber(v) " +
+        "if e <= now then redis.call('HDEL', KEYS[1], f) elseif e - now > wait then wait = e - now end " +
+        "elseif f == 'wt' then if tonumber(v) - now > wait then wait = tonumber(v) - now end " +
+        "elseif f == 'i' then i = v elseif f == 'it' then it = tonumber(v) end end " +
+        "local other = it > now and i ~= ARGV[1] " +
+        "if wait == 0 and not other then redis.call('HMSET', KEYS[1], 'w', ARGV[1], 'wt', now + ARGV[2]) " +
+        "redis.call('HDEL', KEYS[1], 'i', 'it') " +
+        "if redis.call('PTTL', KEYS[1]) < tonumber(ARGV[2]) then redis.call('PEXPIRE', KEYS[1], ARGV[2]) end return nil end " +
+        "if other then return math.max(wait, it - now) end " +
+        "if tonumber(ARGV[3]) > 0 then redis.call('HMSET', KEYS[1], 'i', ARGV[1], 'it', now + ARGV[3]) " +
+        "if redis.call('PTTL', KEYS[1]) < tonumber(ARGV[3]) then redis.call('PEXPIRE', KEYS[1], ARGV[3]) end end return wait";
+    /** 读写锁解锁Lua脚本，删除自己的读者、写者、等待中的写者记录，全部为空时删除key，并发布释放通知 */
+    private String luaRwUnlockScript = "local n = redis.call('HDEL', KEYS[1], 'r:' .. ARGV[1]) " +
+        "if redis.call('HGET', KEYS[1], 'w') == ARGV[1] then redis.call('HDEL', KEYS[1], 'w', 'wt') n = 1 end " +
+        "if redis.call('HGET', KEYS[1], 'i') == ARGV[1] then redis.call('HDEL', KEYS[1], 'i', 'it') n = 1 end " +
+        "if n > 0 then if redis.call('HLEN', KEYS[1]) == 0 then redis.call('DEL', KEYS[1]) end " +
+        "redis.call('PUBLISH', ARGV[2], ARGV[1]) end";
+    /**
+     * 获取许可Lua脚本，sorted set中member为许可标识，score为许可过期时间，先清理过期许可，
+     * 未满permits则获取成功返回nil，否则返回最早过期许可的剩余时间/ms
+     */
+    private String luaAcquireScript = "redis.replicate_commands() " +
+        "local t = redis.call('TIME') local now = t[1] * 1000 + math.floor(t[2] / 1000) " +
+        "redis.call('ZREMRANGEBYSCORE', KEYS[1], '-inf', now) " +
+        "if redis.call('ZCARD', KEYS[1]) < tonumber(ARGV[2]) then redis.call('ZADD', KEYS[1], now + ARGV[3], ARGV[1]) " +
+        "if redis.call('PTTL', KEYS[1]) < tonumber(ARGV[3]) then redis.call('PEXPIRE', KEYS[1], ARGV[3]) end return nil end " +
+        "local first = redis.call('ZRANGE', KEYS[1], 0, 0, 'WITHSCORES') return tonumber(first[2]) - now";
+    /** 释放许可Lua脚本，删除许可后发布释放通知 */
+    private String luaReleaseScript = "if redis.call('ZREM', KEYS[1], ARGV[1]) == 1 then " +
+        "redis.call('PUBLISH', ARGV[2], ARGV[1]) end";
+    /** 加锁脚本，热路径直接使用byte[]参数执行EVALSHA */
+    private RedisScriptRunner lockRunner = new RedisScriptRunner(luaLockScript, ReturnType.INTEGER);
+    /** 解锁脚本，与异步释放共用，热路径直接使用byte[]参数执行EVALSHA */
+    private RedisScriptRunner delLockRunner = RedisScriptRunner.UNLOCK;
+    /** 预编码的锁前缀 */
+    private byte[] lockPrefixBytes = lockPrefix.getBytes(StandardCharsets.UTF_8);
+    /** 预编码的释放通知channel前缀 */
+    private byte[] channelPrefixBytes = channelPrefix.getBytes(StandardCharsets.UTF_8);
+    /** 锁过期时间参数编码缓存，过期时间通常只有少数几种 */
+    private Map<Integer, byte[]> timeoutBytes = new ConcurrentHashMap<>();
+    /** 多key加锁脚本对象 */
+    private RedisScript<Long> redisMultiLockScript = new DefaultRedisScript<>(luaMultiLockScript, Long.class);
+    /** 多key解锁脚本对象 */
+    private RedisScript<Void> redisMultiDelLockScript = new DefaultRedisScript<>(luaMultiDelLockScript, Void.class);
+    /** 读锁脚本对象 */
+    private RedisScript<Long> redisReadLockScript = new DefaultRedisScript<>(luaReadLockScript, Long.class);
+    /** 写锁脚本对象 */
+    private RedisScript<Long> redisWriteLockScript = new DefaultRedisScript<>(luaWriteLockScript, Long.class);
+    /** 读写锁解锁脚本对象 */
+    private RedisScript<Void> redisRwUnlockScript = new DefaultRedisScript<>(luaRwUnlockScript, Void.class);
+    /** 获取许可脚本对象 */
+    private RedisScript<Long> redisAcquireScript = new DefaultRedisScript<>(luaAcquireScript, Long.class);
+    /** 释放许可脚本对象 */
+    private RedisScript<Void> redisReleaseScript = new DefaultRedisScript<>(luaReleaseScript, Void.class);
 
     /**
      * 创建zookeeper 连接并初始化分布式锁根节点
      * @param redisTemplate list of server address: ip:port, ip:port, ip:port
      */
     public RedisDistributeLock(StringRedisTemplate redisTemplate) {
+        this(redisTemplate, null);
+    }
+
+    /**
+     * @param redisTemplate redis连接
+     * @param notifier 锁释放通知，不为null时等待锁改为订阅释放通知，为null时轮询等待
+     */
+    public RedisDistributeLock(StringRedisTemplate redisTemplate, RedisLockNotifier notifier) {
+        this(redisTemplate, notifier, null);
+    }
+
+    /**
+     * @param redisTemplate redis连接
+     * @param notifier 锁释放通知，不为null时等待锁改为订阅释放通知，为null时轮询等待
+     * @param watchdog 锁续期看门狗，不为null时tryLockAndCallBack回调执行期间自动续期
+     */
+    public RedisDistributeLock(StringRedisTemplate redisTemplate, RedisLockNotifier notifier, RedisLockWatchdog watchdog) {
         this.redisTemplate = redisTemplate;
+        this.notifier = notifier;
+        this.watchdog = watchdog;
+        // cluster模式下lockKey作为hash tag，多key锁按slot分组执行
+        this.cluster = RedisSlots.isCluster(redisTemplate.getConnectionFactory());
+        log.info("-------------- redis 分布式锁运行在{}模式下 ............", cluster ? "cluster" : "非cluster");
+        // 连接在首次使用时建立，脚本在后台预加载，不阻塞启动
+        ForkJoinPool.commonPool().execute(this::loadScripts);
+    }
+
+    /**
+     * 预加载加锁/解锁脚本，redis不可用时只打印日志，首次加锁时EVAL照常加载
+     */
+    private void loadScripts() {
+        try {
+            redisTemplate.execute((RedisCallback<Object>) connection -> {
+                lockRunner.load(connection);
+                delLockRunner.load(connection);
+                return null;
+            });
+            log.info("-------------- redis分布式锁脚本预加载完成 ............");
+        } catch (Exception e) {
+            log.warn("-------------- redis分布式锁脚本预加载失败，首次加锁时加载：{}", e.getMessage());
+        }
+    }
+
+    /**
+     * PING redis判断是否可用
+     * @return Status
+     */
+    @Override
+    public Status health() {
         try {
-            redisTemplate.getConnectionFactory().getClusterConnection();
-            log.warn("-------------- 请勿在redis cluster模式下运行分布式锁 ............");
-            // 不支持cluster模式，有风险
-            System.exit(1);
+            String pong = redisTemplate.execute(RedisConnection::ping);
+            return "PONG".equalsIgnoreCase(pong) ? Status.UP : Status.DOWN;
         } catch (Exception e) {
-            log.info("-------------- redis 分布式锁运行在非cluster模式下，非常安全高效 ............");
+            return Status.DOWN;
         }
     }
 
@@ -60,18 +226,37 @@ public class RedisDistributeLock<R> implements DistributeLock<R> {
      */
     @Override
     public R tryLockAndCallBack(String lockKey, int waitTimeMs, int timeoutMs, CallBackExecutor<R> successExecutor, CallBackExecutor<R> failExecutor) throws Throwable {
-        String lockValue = UUID.randomUUID().toString();
+        String lockValue = LockTokens.next();
         boolean getLock = false;
+        RedisLockWatchdog.Lease lease = null;
         try {
             if (getLock = tryLock(lockKey, lockValue, waitTimeMs, timeoutMs)) {
                 if (log.isDebugEnabled()) log.debug("ThreadName = {}, tryLock = {}", Thread.currentThread().getName(), "获取锁成功");
+                // 业务逻辑执行期间自动续期
+                if (watchdog != null) {
+                    lease = watchdog.watch(redisKey(lockKey), lockValue, timeoutMs);
+                }
                 // 获取锁成功，执行成功业务逻辑
-                return successExecutor.execute();
+                long holdStartNanos = System.nanoTime();
+                R result;
+                try {
+                    result = successExecutor.execute();
+                } finally {
+                    recordHold(holdStartNanos);
+                }
+                checkLost(lockKey, lease);
+                return result;
             }
         } finally {
+            if (lease != null) {
+                watchdog.unwatch(lease);
+                if (lease.isLost()) {
+                    recordLost();
+                }
+            }
             // 释放锁
             if (getLock) {
-                releaseLock(lockKey, lockValue);
+                releaseLockAsync(lockKey, lockValue);
             }
         }
         // 获取锁失败，执行失败业务逻辑
@@ -90,27 +275,162 @@ public class RedisDistributeLock<R> implements DistributeLock<R> {
      */
     @Override
     public boolean tryLock(String lockKey, String lockValue, int waitTimeMs, int timeoutMs) throws Exception {
-        lockKey = lockPrefix + lockKey;
-        boolean getLock;
-        // 尝试获取锁
-        // 没有获得锁并且等待时间大于0，进入等待时间循环获取锁
-        if (!(getLock = redisTryLock(lockKey, lockValue, timeoutMs)) && waitTimeMs > 0) {
-            long startTime = System.currentTimeMillis();
-            int yieldTimes = 0;// 让出CPU次数
-            do {
-                if (log.isDebugEnabled()) log.debug("ThreadName = {}, tryLock = {}", Thread.currentThread().getName(), "等待获取.............");
-                Thread.yield();// 让出CPU
-                // 如果抢到锁，直接跳出循环
-                if (getLock = redisTryLock(lockKey, lockValue, timeoutMs)) {
+        // 不等待且确定锁仍被占用，直接本地失败
+        if (heldCache != null && waitTimeMs <= 0 && heldCache.isHeld(lockKey)) {
+            recordAcquire(System.nanoTime(), 0, LockMetrics.FAIL);
+            return false;
+        }
+        // 参数只编码一次，重试时复用
+        byte[] key = redisKeyBytes(lockKey);
+        byte[] value = lockValue.getBytes(StandardCharsets.UTF_8);
+        byte[] timeout = timeoutBytes(timeoutMs);
+        Supplier<Long> attempt = heldCache == null ? () -> redisTryLock(key, value, timeout) : () -> {
+            long version = heldCache.version(lockKey);
+            Long ttl = redisTryLock(key, value, timeout);
+            if (ttl != null) {
+                heldCache.put(lockKey, ttl, version);
+            }
+            return ttl;
+        };
+        if (notifier != null) {
+            return tryLockWithNotify(attempt, channelPrefix + lockKey, waitTimeMs);
+        }
+        return pollLock(attempt, waitTimeMs);
+    }
+
+    /**
+     * 按锁模式尝试加锁，读写锁为hash结构：读者各自一个field，并发读锁互不影响，每次加锁一次请求；
+     * 写锁等待期间登记为等待中的写者，新的读锁需等待该写者，避免写锁饥饿。读写锁需要redis 3.2+
+     * @param mode 锁模式
+     * @param lockKey 锁key,每个业务一个key
+     * @param lockValue 对应该锁的value，释放锁时用于标识持有者
+     * @param waitTimeMs 等待时间/ms
+     * @param timeoutMs 锁过期时间/ms
+     * @return boolean 是否获取成功
+     * @throws Exception
+     */
+    @Override
+    public boolean tryLock(LockMode mode, String lockKey, String lockValue, int waitTimeMs, int timeoutMs) throws Exception {
+        if (mode == LockMode.EXCLUSIVE) {
+            return tryLock(lockKey, lockValue, waitTimeMs, timeoutMs);
+        }
+        String rwKey = RedisSlots.redisKey(rwLockPrefix, lockKey, cluster);
+        String channel = channelPrefix + "rw:" + lockKey;
+        String timeout = String.valueOf(timeoutMs);
+        long deadline = System.currentTimeMillis() + waitTimeMs;
+        Supplier<Long> attempt = mode == LockMode.READ
+            ? () -> redisEval(redisReadLockScript, "readLock", rwKey, lockValue, timeout)
+            : () -> redisEval(redisWriteLockScript, "writeLock", rwKey, lockValue, timeout,
+                String.valueOf(Math.max(0, deadline - System.currentTimeMillis())));
+        boolean getLock = false;
+        try {
+            return getLock = notifier != null ? tryLockWithNotify(attempt, channel, waitTimeMs) : pollLock(attempt, waitTimeMs);
+        } finally {
+            // 写锁等待超时，撤销等待登记，不再阻止读锁
+            if (!getLock && mode == LockMode.WRITE && waitTimeMs > 0) {
+                redisRwUnlock(rwKey, lockValue, channel);
+            }
+        }
+    }
+
+    /**
+     * 按锁模式释放锁
+     * @param mode 锁模式
+     * @param lockKey 锁key,每个业务一个key
+     * @param lockValue 对应该锁的value
+     */
+    @Override
+    public void releaseLock(LockMode mode, String lockKey, String lockValue) {
+        if (mode == LockMode.EXCLUSIVE) {
+            releaseLock(lockKey, lockValue);
+            return;
+        }
+        redisRwUnlock(RedisSlots.redisKey(rwLockPrefix, lockKey, cluster), lockValue, channelPrefix + "rw:" + lockKey);
+    }
+
+    /**
+     * 轮询获取锁
+     * @param attempt 加锁操作，返回null表示加锁成功
+     * @param waitTimeMs 等待时间/ms
+     * @return boolean 是否获取成功
+     * @throws InterruptedException
+     */
+    private boolean pollLock(Supplier<Long> attempt, int waitTimeMs) throws InterruptedException {
+        long startNanos = System.nanoTime();
+        int attempts = 1;
+        boolean getLock = false;
+        String result = LockMetrics.ERROR;
+        try {
+            // 尝试获取锁
+            if (!(getLock = attempt.get() == null) && waitTimeMs > 0) {
+                // 按等待策略重试，等待时间不超过剩余时间，最后一次重试在等待时间到期时进行
+                WaitStrategy strategy = LockContext.waitStrategy(waitStrategy);
+                long deadline = startNanos + TimeUnit.MILLISECONDS.toNanos(waitTimeMs);
+                long waitNanos = 0;
+                long remainNanos;
+                while ((remainNanos = deadline - System.nanoTime()) > 0) {
+                    if (log.isDebugEnabled()) log.debug("ThreadName = {}, tryLock = {}", Thread.currentThread().getName(), "等待获取.............");
+                    waitNanos = strategy.nextWaitNanos(attempts, waitNanos, remainNanos);
+                    WaitStrategy.park(Math.min(waitNanos, remainNanos));
+                    attempts++;
+                    if (getLock = attempt.get() == null) {
+                        break;
+                    }
+                }
+            }
+            result = LockMetrics.result(getLock, waitTimeMs);
+            return getLock;
+        } finally {
+            recordAcquire(startNanos, attempts, result);
+        }
+    }
+
+    /**
+     * 订阅锁释放通知等待获取锁，持有者释放锁后立即被唤醒，等待期间不再请求redis
+     * @param attempt 加锁操作，返回null表示加锁成功，否则返回需要等待的时间/ms
+     * @param channel 锁释放通知channel
+     * @param waitTimeMs 等待时间/ms
+     * @return boolean 是否获取成功
+     * @throws InterruptedException
+     */
+    private boolean tryLockWithNotify(Supplier<Long> attempt, String channel, int waitTimeMs) throws InterruptedException {
+        long startNanos = System.nanoTime();
+        long deadline = System.currentTimeMillis() + waitTimeMs;
+        int attempts = 0;
+        boolean getLock = false;
+        String result = LockMetrics.ERROR;
+        RedisLockNotifier.Waiters waiters = null;
+        try {
+            Long ttl;
+            while (true) {
+                attempts++;
+                if ((ttl = attempt.get()) == null) {
+                    getLock = true;
+                    break;
+                }
+                long remainMs = deadline - System.currentTimeMillis();
+                if (remainMs <= 0) {
                     break;
                 }
-                // 还是抢不到，睡一会
-                if(yieldTimes++ >= 2 ) {
-                    Thread.sleep(20 + 10*yieldTimes);
+                if (waiters == null) {
+                    // 先订阅再重试，避免错过订阅前的释放通知
+                    waiters = notifier.subscribe(channel);
+                    continue;
+                }
+                if (log.isDebugEnabled()) log.debug("ThreadName = {}, tryLock = {}", Thread.currentThread().getName(), "等待释放通知.............");
+                // ttl = -2：锁刚好被释放，立即重试；否则最多等到锁过期（释放通知丢失时兜底）
+                if (ttl != -2) {
+                    waiters.await(ttl > 0 ? Math.min(ttl, remainMs) : remainMs);
                 }
-            } while (System.currentTimeMillis() - startTime < waitTimeMs);
+            }
+            result = LockMetrics.result(getLock, waitTimeMs);
+            return getLock;
+        } finally {
+            if (waiters != null) {
+                notifier.unsubscribe(waiters);
+            }
+            recordAcquire(startNanos, attempts, result);
         }
-        return getLock;
     }
 
     /**
@@ -121,7 +441,211 @@ public class RedisDistributeLock<R> implements DistributeLock<R> {
     @Override
     public void releaseLock(String lockKey, String lockValue) {
         // 直接删除锁
-        redisDelLock(lockPrefix + lockKey, lockValue);
+        redisDelLock(redisKeyBytes(lockKey), lockValue.getBytes(StandardCharsets.UTF_8),
+            RedisScriptRunner.concat(channelPrefixBytes, lockKey));
+        if (heldCache != null) {
+            heldCache.invalidate(lockKey);
+        }
+    }
+
+
+    /**
+     * 回调业务逻辑执行完后释放锁，配置了异步释放时提交给后台批量释放，否则同步释放
+     */
+    private void releaseLockAsync(String lockKey, String lockValue) {
+        if (releaser == null || !releaser.release(lockKey, redisKeyBytes(lockKey),
+            lockValue.getBytes(StandardCharsets.UTF_8), RedisScriptRunner.concat(channelPrefixBytes, lockKey))) {
+            releaseLock(lockKey, lockValue);
+        }
+    }
+
+
+    /**
+     * 尝试获取许可，一次Lua脚本完成清理过期许可、判断和占用许可，需要redis 3.2+
+     * @param semaphoreKey 信号量key
+     * @param permitId 许可标识，释放许可时使用
+     * @param permits 许可总数
+     * @param waitTimeMs 等待时间/ms
+     * @param leaseMs 许可过期时间/ms
+     * @return boolean 是否获取成功
+     * @throws Exception
+     */
+    @Override
+    public boolean tryAcquire(String semaphoreKey, String permitId, int permits, int waitTimeMs, int leaseMs) throws Exception {
+        String redisKey = RedisSlots.redisKey(semaphorePrefix, semaphoreKey, cluster);
+        String permitsArg = String.valueOf(permits);
+        String leaseArg = String.valueOf(leaseMs);
+        Supplier<Long> attempt = () -> redisEval(redisAcquireScript, "acquire", redisKey, permitId, permitsArg, leaseArg);
+        if (notifier != null) {
+            return tryLockWithNotify(attempt, channelPrefix + "semaphore:" + semaphoreKey, waitTimeMs);
+        }
+        return pollLock(attempt, waitTimeMs);
+    }
+
+    /**
+     * 释放许可，一次Lua脚本完成
+     * @param semaphoreKey 信号量key
+     * @param permitId 许可标识
+     */
+    @Override
+    public void release(String semaphoreKey, String permitId) {
+        List<String> keys = new ArrayList<>(1);
+        keys.add(RedisSlots.redisKey(semaphorePrefix, semaphoreKey, cluster));
+        long startNanos = System.nanoTime();
+        boolean error = true;
+        try {
+            redisTemplate.execute(redisReleaseScript, keys, permitId, channelPrefix + "semaphore:" + semaphoreKey);
+            error = false;
+        } finally {
+            recordRoundTrip("release", startNanos, error);
+        }
+    }
+
+
+    /**
+     * 同时对多个key尝试加锁并回调业务逻辑，自动释放锁
+     * @param lockKeys 锁key集合
+     * @param waitTimeMs 等待时间/ms
+     * @param timeoutMs 锁过期时间/ms
+     * @param successExecutor 获取锁成功回调业务逻辑
+     * @param failExecutor 获取锁失败回调业务逻辑
+     * @return R 回调业务逻辑泛型
+     * @throws Throwable
+     */
+    @Override
+    public R tryMultiLockAndCallBack(Collection<String> lockKeys, int waitTimeMs, int timeoutMs, CallBackExecutor<R> successExecutor, CallBackExecutor<R> failExecutor) throws Throwable {
+        String lockValue = LockTokens.next();
+        boolean getLock = false;
+        List<RedisLockWatchdog.Lease> leases = null;
+        try {
+            if (getLock = tryMultiLock(lockKeys, lockValue, waitTimeMs, timeoutMs)) {
+                // 业务逻辑执行期间自动续期
+                if (watchdog != null) {
+                    leases = new ArrayList<>(lockKeys.size());
+                    for (String lockKey : new TreeSet<>(lockKeys)) {
+                        leases.add(watchdog.watch(redisKey(lockKey), lockValue, timeoutMs));
+                    }
+                }
+                long holdStartNanos = System.nanoTime();
+                R result;
+                try {
+                    result = successExecutor.execute();
+                } finally {
+                    recordHold(holdStartNanos);
+                }
+                if (leases != null) {
+                    for (RedisLockWatchdog.Lease lease : leases) {
+                        checkLost(lockKeys.toString(), lease);
+                    }
+                }
+                return result;
+            }
+        } finally {
+            if (leases != null) {
+                leases.forEach(watchdog::unwatch);
+                if (leases.stream().anyMatch(RedisLockWatchdog.Lease::isLost)) {
+                    recordLost();
+                }
+            }
+            if (getLock) {
+                releaseMultiLock(lockKeys, lockValue);
+            }
+        }
+        return failExecutor.execute();
+    }
+
+    /**
+     * 同时对多个key尝试加锁，一次Lua脚本原子完成，要么全部获取成功，要么全部失败。
+     * cluster模式下Lua脚本只能操作同一slot的key，按slot分组后依次执行，某组失败时释放已获取的组
+     * @param lockKeys 锁key集合
+     * @param lockValue 对应该锁的value，删除锁的时候会比对该value
+     * @param waitTimeMs 等待时间/ms
+     * @param timeoutMs 锁过期时间/ms
+     * @return boolean 是否全部获取成功
+     * @throws Exception
+     */
+    @Override
+    public boolean tryMultiLock(Collection<String> lockKeys, String lockValue, int waitTimeMs, int timeoutMs) throws Exception {
+        List<List<String>> groups = groupBySlot(lockKeys);
+        String timeout = String.valueOf(timeoutMs);
+        return pollLock(() -> {
+            for (int i = 0; i < groups.size(); i++) {
+                Long ttl = redisMultiLock(groups.get(i), lockValue, timeout);
+                if (ttl != null) {
+                    // 按slot顺序加锁，释放之前已获取的组
+                    for (int j = i - 1; j >= 0; j--) {
+                        redisMultiDelLock(groups.get(j), lockValue);
+                    }
+                    return ttl;
+                }
+            }
+            return null;
+        }, waitTimeMs);
+    }
+
+    /**
+     * 释放多个key的锁，一次Lua脚本完成，cluster模式下每个slot一次
+     * @param lockKeys 锁key集合
+     * @param lockValue 对应该锁的value，删除锁的时候会比对该value
+     */
+    @Override
+    public void releaseMultiLock(Collection<String> lockKeys, String lockValue) {
+        for (List<String> group : groupBySlot(lockKeys)) {
+            redisMultiDelLock(group, lockValue);
+        }
+        if (heldCache != null) {
+            lockKeys.forEach(heldCache::invalidate);
+        }
+    }
+
+    /**
+     * 多key按slot分组，非cluster模式只有一组；组内lockKey有序，组按slot有序，保证加锁顺序一致
+     * @param lockKeys 锁key集合
+     * @return 每组的lockKey
+     */
+    private List<List<String>> groupBySlot(Collection<String> lockKeys) {
+        TreeSet<String> sortedKeys = new TreeSet<>(lockKeys);
+        if (!cluster) {
+            return Collections.singletonList(new ArrayList<>(sortedKeys));
+        }
+        Map<Integer, List<String>> groups = new TreeMap<>();
+        for (String lockKey : sortedKeys) {
+            groups.computeIfAbsent(RedisSlots.slot(redisKey(lockKey)), k -> new ArrayList<>()).add(lockKey);
+        }
+        return new ArrayList<>(groups.values());
+    }
+
+    /**
+     * 锁在redis中的key
+     * @param lockKey 锁key
+     * @return redis key
+     */
+    private String redisKey(String lockKey) {
+        return RedisSlots.redisKey(lockPrefix, lockKey, cluster);
+    }
+
+    /**
+     * 锁在redis中的key，编码为byte[]，非cluster模式直接拼接预编码的前缀
+     */
+    private byte[] redisKeyBytes(String lockKey) {
+        if (cluster) {
+            return redisKey(lockKey).getBytes(StandardCharsets.UTF_8);
+        }
+        return RedisScriptRunner.concat(lockPrefixBytes, lockKey);
+    }
+
+    /**
+     * 锁过期时间参数编码，缓存常用值
+     */
+    private byte[] timeoutBytes(int timeoutMs) {
+        byte[] bytes = timeoutBytes.get(timeoutMs);
+        if (bytes == null) {
+            bytes = Integer.toString(timeoutMs).getBytes(StandardCharsets.UTF_8);
+            if (timeoutBytes.size() < 256) {
+                timeoutBytes.put(timeoutMs, bytes);
+            }
+        }
+        return bytes;
     }
 
 
@@ -133,24 +657,239 @@ public class RedisDistributeLock<R> implements DistributeLock<R> {
      * @param lockKey
      * @param lockValue
      * @param timeoutMs 锁过期时间/毫秒
-     * @return true：加锁成功 fasle：加锁失败
+     * @return null：加锁成功 否则：加锁失败，返回当前持有者剩余过期时间/ms
      */
-    private boolean redisTryLock(String lockKey, String lockValue, int timeoutMs) {
+    private Long redisTryLock(byte[] key, byte[] value, byte[] timeout) {
+        long startNanos = System.nanoTime();
+        boolean error = true;
+        try {
+            Long result = redisTemplate.execute((RedisCallback<Long>) connection -> lockRunner.eval(connection, 1, key, value, timeout));
+            error = false;
+            return result;
+        } finally {
+            recordRoundTrip("lock", startNanos, error);
+        }
+    }
+
+    /**
+     * 执行返回等待时间的加锁脚本
+     * @param script 加锁脚本
+     * @param operation 监控统计操作名称
+     * @param key redis key
+     * @param args 脚本参数
+     * @return null：加锁成功 否则：加锁失败，返回需要等待的时间/ms
+     */
+    private Long redisEval(RedisScript<Long> script, String operation, String key, Object... args) {
         List<String> keys = new ArrayList<>(1);
-        keys.add(lockKey);
-        String tryLock = redisTemplate.execute(redisLockScript, keys, lockValue, String.valueOf(timeoutMs));
-        return "OK".equals(tryLock);
+        keys.add(key);
+        long startNanos = System.nanoTime();
+        boolean error = true;
+        try {
+            Long result = redisTemplate.execute(script, keys, args);
+            error = false;
+            return result;
+        } finally {
+            recordRoundTrip(operation, startNanos, error);
+        }
+    }
+
+    /**
+     * redis释放读写锁
+     * @param rwKey 读写锁key
+     * @param lockValue
+     * @param channel 锁释放通知channel
+     */
+    private void redisRwUnlock(String rwKey, String lockValue, String channel) {
+        List<String> keys = new ArrayList<>(1);
+        keys.add(rwKey);
+        long startNanos = System.nanoTime();
+        boolean error = true;
+        try {
+            redisTemplate.execute(redisRwUnlockScript, keys, lockValue, channel);
+            error = false;
+        } finally {
+            recordRoundTrip("rwUnlock", startNanos, error);
+        }
+    }
+
+    /**
+     * redis多key加锁，所有key在同一slot
+     * @param lockKeys 有序的锁key
+     * @param lockValue
+     * @param timeoutMs 锁过期时间/毫秒
+     * @return null：加锁成功 否则：加锁失败，返回其中一个持有者剩余过期时间/ms
+     */
+    private Long redisMultiLock(List<String> lockKeys, String lockValue, String timeoutMs) {
+        List<String> keys = new ArrayList<>(lockKeys.size());
+        for (String lockKey : lockKeys) {
+            keys.add(redisKey(lockKey));
+        }
+        long startNanos = System.nanoTime();
+        boolean error = true;
+        try {
+            Long result = redisTemplate.execute(redisMultiLockScript, keys, lockValue, timeoutMs);
+            error = false;
+            return result;
+        } finally {
+            recordRoundTrip("multiLock", startNanos, error);
+        }
+    }
+
+    /**
+     * redis多key删除锁，所有key在同一slot
+     * @param lockKeys 有序的锁key
+     * @param lockValue
+     */
+    private void redisMultiDelLock(List<String> lockKeys, String lockValue) {
+        List<String> keys = new ArrayList<>(lockKeys.size());
+        Object[] args = new Object[lockKeys.size() + 1];
+        args[0] = lockValue;
+        for (String lockKey : lockKeys) {
+            keys.add(redisKey(lockKey));
+            args[keys.size()] = channelPrefix + lockKey;
+        }
+        long startNanos = System.nanoTime();
+        boolean error = true;
+        try {
+            redisTemplate.execute(redisMultiDelLockScript, keys, args);
+            error = false;
+        } finally {
+            recordRoundTrip("multiUnlock", startNanos, error);
+        }
     }
 
     /**
      * redis删除锁
      * @param lockKey
      * @param lockValue
+     * @param channel 锁释放通知channel
      */
-    private void redisDelLock(String lockKey, String lockValue) {
-        List<String> keys = new ArrayList<>(1);
-        keys.add(lockKey);
-        redisTemplate.execute(redisDelLockScript, keys, lockValue);
+    private void redisDelLock(byte[] key, byte[] value, byte[] channel) {
+        long startNanos = System.nanoTime();
+        boolean error = true;
+        try {
+            redisTemplate.execute((RedisCallback<Object>) connection -> delLockRunner.eval(connection, 1, key, value, channel));
+            error = false;
+        } finally {
+            recordRoundTrip("unlock", startNanos, error);
+        }
+    }
+
+
+    /**
+     * 设置锁占用缓存：不等待的加锁失败后，在持有者剩余过期时间内相同key直接本地失败
+     * @param heldCache 为null时不缓存
+     */
+    public void setHeldCache(HeldKeyCache heldCache) {
+        this.heldCache = heldCache;
+    }
+
+
+    /**
+     * 设置锁异步释放：tryLockAndCallBack回调业务逻辑执行完直接返回，释放请求由后台批量发送
+     * @param releaser 为null时同步释放
+     */
+    public void setReleaser(RedisLockReleaser releaser) {
+        this.releaser = releaser;
+        if (releaser != null) {
+            // 异步释放完成后才失效锁占用缓存，避免释放前缓存被重新写入
+            releaser.setReleasedListener(lockKey -> {
+                HeldKeyCache cache = heldCache;
+                if (cache != null) {
+                    cache.invalidate(lockKey);
+                }
+            });
+        }
+    }
+
+    /**
+     * 设置全局等待策略，@Lockable.waitStrategy指定时以方法为准
+     * @param waitStrategy 为null时使用默认的DecorrelatedJitterWaitStrategy
+     */
+    public void setWaitStrategy(WaitStrategy waitStrategy) {
+        this.waitStrategy = waitStrategy != null ? waitStrategy : new DecorrelatedJitterWaitStrategy();
+    }
+
+
+    /***************************** 监控统计 ******************************/
+
+    /**
+     * 设置监控指标
+     * @param metrics
+     */
+    public void setMetrics(LockMetrics metrics) {
+        this.metrics = metrics != null ? metrics : LockMetrics.NOOP;
+    }
+
+    /**
+     * 设置后端请求结果观察者，每次redis请求结束后回调一次耗时和是否异常
+     * @param callObserver 为null时不回调
+     */
+    public void setCallObserver(BackendCallObserver callObserver) {
+        this.callObserver = callObserver;
+    }
+
+    private void recordAcquire(long startNanos, int attempts, String result) {
+        if (metrics != LockMetrics.NOOP) {
+            metrics.recordAcquire(BACKEND, LockContext.name(), System.nanoTime() - startNanos, attempts, result);
+        }
+    }
+
+    private void recordLost() {
+        if (metrics != LockMetrics.NOOP) {
+            metrics.recordLost(BACKEND, LockContext.name());
+        }
+    }
+
+    /**
+     * 业务逻辑正常返回后检查续期期间锁是否丢失，丢失时业务逻辑执行期间不再互斥，抛出异常而不是返回成功
+     * @param lockKey 锁key，用于异常信息
+     * @param lease 为null时没有续期
+     */
+    private static void checkLost(String lockKey, RedisLockWatchdog.Lease lease) {
+        if (lease != null && lease.isLost()) {
+            throw new IllegalStateException("锁续期失败，业务逻辑执行期间锁已过期或被其他持有者获取：" + lockKey);
+        }
+    }
+
+    private void recordHold(long startNanos) {
+        if (metrics != LockMetrics.NOOP) {
+            metrics.recordHold(BACKEND, LockContext.name(), System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * 记录一次redis请求，每次请求只记录一次
+     * @param operation 操作名称
+     * @param startNanos 开始时间
+     * @param error 是否异常
+     */
+    private void recordRoundTrip(String operation, long startNanos, boolean error) {
+        BackendCallObserver observer = callObserver;
+        if (metrics == LockMetrics.NOOP && observer == null) {
+            return;
+        }
+        long nanos = System.nanoTime() - startNanos;
+        metrics.recordRoundTrip(BACKEND, operation, nanos);
+        if (observer != null) {
+            observer.onCall(nanos, error);
+        }
+    }
+
+    /**
+     * 关闭锁释放通知订阅和续期看门狗
+     */
+    @Override
+    public void close() {
+        if (releaser != null) {
+            releaser.close();
+        }
+        if (notifier != null) {
+            notifier.close();
+        }
+        if (watchdog != null) {
+            watchdog.close();
+        }
     }
 
 }
@@ -0,0 +1,129 @@
+package cn.dslcode.distributelock.lock;
+
+import java.io.Closeable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+/**
+ * @author dongsilin
+ * @version 2018/11/2.
+ * redis锁释放通知，每个JVM共享一个订阅连接，按锁channel引用计数订阅/退订。
+ * 解锁脚本释放锁后PUBLISH到该锁的channel，等待者收到通知立即重新抢锁，不再轮询redis
+ */
+@Slf4j
+public class RedisLockNotifier implements Closeable {
+
+    /** 订阅容器，所有锁channel共用一个订阅连接 */
+    private final RedisMessageListenerContainer container;
+    /** channel -> 等待者 */
+    private final ConcurrentHashMap<String, Waiters> waitersMap = new ConcurrentHashMap<>();
+
+    public RedisLockNotifier(RedisConnectionFactory connectionFactory) {
+        this.container = new RedisMessageListenerContainer();
+        this.container.setConnectionFactory(connectionFactory);
+        // 订阅线程单独一个，消息分发直接在订阅线程执行（只是释放信号量，无需额外线程）
+        this.container.setSubscriptionExecutor(new SimpleAsyncTaskExecutor("redis-lock-subscription-"));
+        this.container.setTaskExecutor(Runnable::run);
+        this.container.afterPropertiesSet();
+        this.container.start();
+    }
+
+    /**
+     * 注册等待者，该channel第一个等待者负责订阅。
+     * compute中只修改引用计数，SUBSCRIBE在compute之外发送，不在持有map桶锁时做网络请求；
+     * 同一channel的订阅、退订在该channel的Waiters上串行
+     * @param channel 锁channel
+     * @return Waiters
+     */
+    Waiters subscribe(String channel) {
+        Waiters waiters = waitersMap.compute(channel, (k, v) -> {
+            if (v == null) {
+                v = new Waiters(k);
+            }
+            v.count++;
+            return v;
+        });
+        synchronized (waiters) {
+            if (!waiters.subscribed) {
+                container.addMessageListener(waiters, new ChannelTopic(channel));
+                waiters.subscribed = true;
+            }
+        }
+        return waiters;
+    }
+
+    /**
+     * 注销等待者，该channel最后一个等待者负责退订，UNSUBSCRIBE同样在compute之外发送。
+     * 退订完成且期间没有新的等待者时才从map中移除，之后的等待者创建新的Waiters重新订阅
+     * @param waiters
+     */
+    void unsubscribe(Waiters waiters) {
+        waitersMap.computeIfPresent(waiters.channel, (k, v) -> {
+            v.count--;
+            return v;
+        });
+        synchronized (waiters) {
+            if (waiters.count > 0 || !waiters.subscribed) {
+                return;
+            }
+            container.removeMessageListener(waiters, new ChannelTopic(waiters.channel));
+            waiters.subscribed = false;
+        }
+        waitersMap.computeIfPresent(waiters.channel, (k, v) -> v.count == 0 && !v.subscribed ? null : v);
+    }
+
+    @Override
+    public void close() {
+        try {
+            container.destroy();
+        } catch (Exception e) {
+            log.error("", e);
+        }
+    }
+
+
+    /**
+     * 同一个锁channel的等待者，收到一次释放通知唤醒一个等待者
+     */
+    static class Waiters implements MessageListener {
+
+        private final String channel;
+        private final Semaphore semaphore = new Semaphore(0);
+        /** 等待者数量，只在waitersMap.compute中修改 */
+        private volatile int count;
+        /** 是否已添加到订阅容器，只在synchronized(this)中修改 */
+        private volatile boolean subscribed;
+
+        Waiters(String channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * 通知最多保留1个：没有等待者在await时的通知不累积，避免之后的await全部立即返回变成连续重试
+         */
+        @Override
+        public void onMessage(Message message, byte[] pattern) {
+            if (semaphore.availablePermits() == 0) {
+                semaphore.release();
+            }
+        }
+
+        /**
+         * 等待释放通知
+         * @param timeoutMs 最长等待时间/ms
+         * @return 是否收到通知
+         */
+        boolean await(long timeoutMs) throws InterruptedException {
+            return semaphore.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+}
@@ -0,0 +1,281 @@
+package cn.dslcode.distributelock.lock;
+
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.cluster.api.async.RedisClusterAsyncCommands;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.util.ClassUtils;
+
+/**
+ * @author dongsilin
+ * @version 2018/12/3.
+ * redis锁异步释放，tryLockAndCallBack回调业务逻辑执行完直接返回，不再同步等待解锁请求，每次调用少一次网络往返。
+ * 释放请求由后台线程合并，一批解锁脚本一次pipeline请求：队列中已有的请求立即一起发送，
+ * 配置了maxDelayMs时最多再等待maxDelayMs凑批。释放时发现锁已丢失（已过期或被其他持有者获取）打印告警日志。
+ * 队列满时由调用线程同步释放；释放请求失败不重试，锁到期自动过期。
+ * 注意：同一lockKey在异步释放完成前再次加锁会失败或等待
+ */
+@Slf4j
+public class RedisLockReleaser implements Closeable {
+
+    /** 解锁脚本，与同步释放共用，批量发送EVALSHA */
+    private static final RedisScriptRunner RELEASE_RUNNER = RedisScriptRunner.UNLOCK;
+    /** 等待一批释放结果的超时时间/s */
+    private static final long RESULT_TIMEOUT_SECONDS = 10;
+    /** 是否使用lettuce客户端，使用jedis时没有lettuce的类 */
+    private static final boolean LETTUCE_PRESENT = ClassUtils.isPresent(
+        "io.lettuce.core.cluster.api.async.RedisClusterAsyncCommands", RedisLockReleaser.class.getClassLoader());
+    /** 每批最多释放数量 */
+    private static final int MAX_BATCH = 512;
+
+    private final StringRedisTemplate redisTemplate;
+    /** 凑批最大等待时间/ns */
+    private final long maxDelayNanos;
+    /** 待释放的锁 */
+    private final BlockingQueue<Release> releaseQueue;
+    /** 连接是否支持pipeline */
+    private volatile boolean pipelined = true;
+    private volatile boolean running = true;
+    /** 释放完成回调，参数为lockKey */
+    private volatile Consumer<String> releasedListener;
+    /** 释放线程 */
+    private final Thread worker;
+
+    public RedisLockReleaser(StringRedisTemplate redisTemplate) {
+        this(redisTemplate, 0, 10000);
+    }
+
+    /**
+     * @param redisTemplate redis连接
+     * @param maxDelayMs 凑批最大等待时间/ms，0表示不等待，只合并已在队列中的请求
+     * @param capacity 队列容量，队列满时同步释放
+     */
+    public RedisLockReleaser(StringRedisTemplate redisTemplate, long maxDelayMs, int capacity) {
+        this.redisTemplate = redisTemplate;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMs);
+        this.releaseQueue = new LinkedBlockingQueue<>(capacity);
+        this.worker = new Thread(this::work, "redis-lock-releaser");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * 提交释放请求
+     * @param lockKey 锁key，释放完成回调使用
+     * @param redisKey 锁在redis中的key
+     * @param lockValue 锁value
+     * @param channel 释放通知channel
+     * @return boolean 是否已提交，队列满或已关闭时返回false，由调用方同步释放
+     */
+    boolean release(String lockKey, byte[] redisKey, byte[] lockValue, byte[] channel) {
+        return running && releaseQueue.offer(new Release(lockKey, redisKey, lockValue, channel));
+    }
+
+    /**
+     * 设置释放完成回调
+     * @param releasedListener 参数为lockKey
+     */
+    void setReleasedListener(Consumer<String> releasedListener) {
+        this.releasedListener = releasedListener;
+    }
+
+    private void work() {
+        List<Release> batch = new ArrayList<>();
+        while (running || !releaseQueue.isEmpty()) {
+            try {
+                Release first = releaseQueue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                releaseQueue.drainTo(batch, MAX_BATCH - batch.size());
+                // 凑批等待
+                if (maxDelayNanos > 0 && running) {
+                    long deadline = System.nanoTime() + maxDelayNanos;
+                    long remainNanos;
+                    while (batch.size() < MAX_BATCH && (remainNanos = deadline - System.nanoTime()) > 0) {
+                        Release next = releaseQueue.poll(remainNanos, TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                        releaseQueue.drainTo(batch, MAX_BATCH - batch.size());
+                    }
+                }
+                flush(batch);
+            } catch (Exception e) {
+                // 释放失败，锁到期自动过期
+                log.error("", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 批量释放，一次pipeline请求
+     */
+    private void flush(List<Release> batch) {
+        List<Object> results = delete(batch);
+        Consumer<String> listener = releasedListener;
+        for (int i = 0; i < batch.size(); i++) {
+            Release release = batch.get(i);
+            if (!Long.valueOf(1L).equals(results.get(i))) {
+                log.warn("-------------- 释放锁时锁已丢失，已过期或被其他持有者获取：{}", release.lockKey);
+            }
+            if (listener != null) {
+                listener.accept(release.lockKey);
+            }
+        }
+    }
+
+    /**
+     * 释放一批锁
+     * @param batch
+     * @return 每个锁的释放结果，1表示成功
+     */
+    @SuppressWarnings("unchecked")
+    private List<Object> delete(List<Release> batch) {
+        // lettuce：共享连接本身就是pipeline，异步发送整批脚本再统一等待结果，一次往返；
+        // spring的executePipelined在lettuce下每次都会新建独占连接，开销反而更大
+        List<Object> asyncResults = redisTemplate.execute((RedisCallback<List<Object>>) connection ->
+            LETTUCE_PRESENT && connection.getNativeConnection() instanceof RedisClusterAsyncCommands
+                ? deleteAsync((RedisClusterAsyncCommands<byte[], byte[]>) connection.getNativeConnection(), batch) : null);
+        if (asyncResults != null) {
+            return asyncResults;
+        }
+        if (pipelined) {
+            try {
+                return deletePipelined(batch);
+            } catch (UnsupportedOperationException e) {
+                log.info("-------------- redis连接不支持pipeline，锁异步释放改为逐个请求 ............");
+                pipelined = false;
+            } catch (RuntimeException e) {
+                if (!RedisScriptRunner.isNoScript(e)) {
+                    throw e;
+                }
+                // redis重启或主从切换后脚本缓存丢失，加载后整批重新执行，解锁脚本重复执行结果不变
+                redisTemplate.execute((RedisCallback<Object>) connection -> {
+                    RELEASE_RUNNER.load(connection);
+                    return null;
+                });
+                return deletePipelined(batch);
+            }
+        }
+        return redisTemplate.execute((RedisCallback<List<Object>>) connection -> {
+            List<Object> results = new ArrayList<>(batch.size());
+            for (Release r : batch) {
+                results.add(RELEASE_RUNNER.eval(connection, 1, r.redisKey, r.lockValue, r.channel));
+            }
+            return results;
+        });
+    }
+
+    private List<Object> deletePipelined(List<Release> batch) {
+        return redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Release r : batch) {
+                RELEASE_RUNNER.evalShaPipelined(connection, 1, r.redisKey, r.lockValue, r.channel);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * lettuce共享连接异步发送一批EVALSHA解锁，返回NOSCRIPT的再用EVAL发送一次（同时加载脚本）
+     * @return 每个锁的释放结果，单个失败为null
+     */
+    private List<Object> deleteAsync(RedisClusterAsyncCommands<byte[], byte[]> commands, List<Release> batch) {
+        String sha1 = RELEASE_RUNNER.sha1();
+        List<RedisFuture<Long>> futures = new ArrayList<>(batch.size());
+        for (Release r : batch) {
+            futures.add(commands.evalsha(sha1, ScriptOutputType.INTEGER, new byte[][]{r.redisKey}, r.lockValue, r.channel));
+        }
+        List<Object> results = new ArrayList<>(batch.size());
+        List<RedisFuture<Long>> retries = null;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results.add(futures.get(i).get(RESULT_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+                continue;
+            } catch (ExecutionException e) {
+                if (RedisScriptRunner.isNoScript(e)) {
+                    if (retries == null) {
+                        retries = new ArrayList<>(Collections.nCopies(batch.size(), null));
+                    }
+                    Release r = batch.get(i);
+                    retries.set(i, commands.eval(RELEASE_RUNNER.script(), ScriptOutputType.INTEGER, new byte[][]{r.redisKey}, r.lockValue, r.channel));
+                } else {
+                    log.error("-------------- 异步释放锁失败：" + batch.get(i).lockKey, e);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (TimeoutException e) {
+                log.error("-------------- 异步释放锁失败：" + batch.get(i).lockKey, e);
+            }
+            results.add(null);
+        }
+        if (retries != null) {
+            for (int i = 0; i < retries.size(); i++) {
+                if (retries.get(i) != null) {
+                    results.set(i, await(retries.get(i), batch.get(i)));
+                }
+            }
+        }
+        return results;
+    }
+
+    private Object await(RedisFuture<Long> future, Release release) {
+        try {
+            return future.get(RESULT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            log.error("-------------- 异步释放锁失败：" + release.lockKey, e);
+        }
+        return null;
+    }
+
+    /**
+     * 停止接收释放请求，已提交的请求释放完再退出
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            worker.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * 待释放的锁
+     */
+    private static class Release {
+
+        private final String lockKey;
+        private final byte[] redisKey;
+        private final byte[] lockValue;
+        private final byte[] channel;
+
+        private Release(String lockKey, byte[] redisKey, byte[] lockValue, byte[] channel) {
+            this.lockKey = lockKey;
+            this.redisKey = redisKey;
+            this.lockValue = lockValue;
+            this.channel = channel;
+        }
+    }
+
+}
@@ -0,0 +1,213 @@
+package cn.dslcode.distributelock.lock;
+
+import cn.dslcode.distributelock.support.HashedWheelTimer;
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+/**
+ * @author dongsilin
+ * @version 2018/11/8.
+ * redis锁续期看门狗，回调业务逻辑执行期间自动延长锁过期时间。
+ * 所有锁的续期时间由共享时间轮驱动，同一时刻到期的续期合并为一次pipeline请求，
+ * 连接不支持pipeline时（如jedis cluster）逐个续期
+ */
+@Slf4j
+public class RedisLockWatchdog implements Closeable {
+
+    /** 续期Lua脚本，value一致才延长过期时间，批量发送EVALSHA */
+    private static final RedisScriptRunner RENEW_RUNNER = new RedisScriptRunner("if redis.call('GET', KEYS[1]) == ARGV[1] then " +
+        "return redis.call('PEXPIRE', KEYS[1], ARGV[2]) end return 0", ReturnType.INTEGER);
+
+    /** 续期请求失败后的重试间隔上限/ms */
+    private static final long RETRY_DELAY_MS = 200;
+
+    private final StringRedisTemplate redisTemplate;
+    private final HashedWheelTimer timer;
+    /** 待续期的锁 */
+    private final Queue<Lease> renewQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    /** 连接是否支持pipeline */
+    private volatile boolean pipelined = true;
+    /** 续期线程，时间轮线程只负责入队，不执行网络请求 */
+    private final ExecutorService renewExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "redis-lock-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public RedisLockWatchdog(StringRedisTemplate redisTemplate) {
+        this(redisTemplate, HashedWheelTimer.getDefault());
+    }
+
+    public RedisLockWatchdog(StringRedisTemplate redisTemplate, HashedWheelTimer timer) {
+        this.redisTemplate = redisTemplate;
+        this.timer = timer;
+    }
+
+    /**
+     * 开始续期，每过1/3过期时间续期一次
+     * @param redisKey 锁在redis中的key
+     * @param lockValue 锁value
+     * @param timeoutMs 锁过期时间/ms
+     * @return Lease
+     */
+    public Lease watch(String redisKey, String lockValue, int timeoutMs) {
+        Lease lease = new Lease(redisKey, lockValue, timeoutMs);
+        schedule(lease);
+        return lease;
+    }
+
+    /**
+     * 停止续期
+     * @param lease
+     */
+    public void unwatch(Lease lease) {
+        lease.active = false;
+        HashedWheelTimer.Timeout timeout = lease.timeout;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+
+    private void schedule(Lease lease) {
+        schedule(lease, Math.max(1, lease.timeoutMs / 3));
+    }
+
+    /**
+     * @param delayMs 多久后续期/ms
+     */
+    private void schedule(Lease lease, long delayMs) {
+        lease.timeout = timer.newTimeout(() -> {
+            if (lease.active) {
+                renewQueue.add(lease);
+                if (flushScheduled.compareAndSet(false, true)) {
+                    renewExecutor.execute(this::flush);
+                }
+            }
+        }, delayMs);
+    }
+
+    /**
+     * 批量续期，一次pipeline请求
+     */
+    private void flush() {
+        flushScheduled.set(false);
+        List<Lease> batch = new ArrayList<>();
+        Lease lease;
+        while ((lease = renewQueue.poll()) != null) {
+            if (lease.active) {
+                batch.add(lease);
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<Object> results;
+        try {
+            results = renew(batch);
+        } catch (Exception e) {
+            // 续期请求失败，尽快重试，不等下一个1/3过期时间，避免一次抖动用掉两次续期机会
+            log.error("", e);
+            batch.forEach(l -> schedule(l, Math.max(1, Math.min(RETRY_DELAY_MS, l.timeoutMs / 12))));
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            Lease l = batch.get(i);
+            if (Long.valueOf(1L).equals(results.get(i))) {
+                if (l.active) {
+                    schedule(l);
+                }
+            } else if (l.active) {
+                l.active = false;
+                l.lost = true;
+                log.warn("-------------- 锁续期失败，锁已过期或被其他持有者获取：{}", new String(l.redisKey, StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    /**
+     * 续期一批锁
+     * @param batch
+     * @return 每个锁的续期结果，1表示成功
+     */
+    private List<Object> renew(List<Lease> batch) {
+        if (pipelined) {
+            try {
+                return renewPipelined(batch);
+            } catch (UnsupportedOperationException e) {
+                log.info("-------------- redis连接不支持pipeline，锁续期改为逐个请求 ............");
+                pipelined = false;
+            } catch (RuntimeException e) {
+                if (!RedisScriptRunner.isNoScript(e)) {
+                    throw e;
+                }
+                // 脚本缓存丢失，加载后整批重新续期
+                redisTemplate.execute((RedisCallback<Object>) connection -> {
+                    RENEW_RUNNER.load(connection);
+                    return null;
+                });
+                return renewPipelined(batch);
+            }
+        }
+        return redisTemplate.execute((RedisCallback<List<Object>>) connection -> {
+            List<Object> results = new ArrayList<>(batch.size());
+            for (Lease l : batch) {
+                results.add(RENEW_RUNNER.eval(connection, 1, l.redisKey, l.lockValue, l.timeoutBytes));
+            }
+            return results;
+        });
+    }
+
+    private List<Object> renewPipelined(List<Lease> batch) {
+        return redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Lease l : batch) {
+                RENEW_RUNNER.evalShaPipelined(connection, 1, l.redisKey, l.lockValue, l.timeoutBytes);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void close() {
+        renewExecutor.shutdownNow();
+    }
+
+
+    /**
+     * 续期中的锁
+     */
+    public static class Lease {
+
+        private final byte[] redisKey;
+        private final byte[] lockValue;
+        private final int timeoutMs;
+        private final byte[] timeoutBytes;
+        private volatile boolean active = true;
+        /** 续期时发现锁已丢失 */
+        private volatile boolean lost;
+        private volatile HashedWheelTimer.Timeout timeout;
+
+        private Lease(String redisKey, String lockValue, int timeoutMs) {
+            this.redisKey = redisKey.getBytes(StandardCharsets.UTF_8);
+            this.lockValue = lockValue.getBytes(StandardCharsets.UTF_8);
+            this.timeoutMs = timeoutMs;
+            this.timeoutBytes = String.valueOf(timeoutMs).getBytes(StandardCharsets.UTF_8);
+        }
+
+        public boolean isLost() {
+            return lost;
+        }
+    }
+
+}
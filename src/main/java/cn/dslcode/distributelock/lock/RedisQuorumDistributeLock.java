@@ -0,0 +1,351 @@
+package cn.dslcode.distributelock.lock;
+
+import cn.dslcode.distributelock.CallBackExecutor;
+import cn.dslcode.distributelock.LockContext;
+import cn.dslcode.distributelock.metrics.LockMetrics;
+import cn.dslcode.distributelock.support.LockTokens;
+import cn.dslcode.distributelock.wait.DecorrelatedJitterWaitStrategy;
+import cn.dslcode.distributelock.wait.WaitStrategy;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisPassword;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+/**
+ * @author dongsilin
+ * @version 2018/11/24.
+ * redis多master仲裁分布式锁：N个相互独立的redis master上并行加锁，超过半数成功并且
+ * 加锁耗时未超过锁有效期才算获取成功，否则在所有master上释放后重试。
+ * 单个master宕机不影响加锁，每个master上的key、Lua脚本与RedisDistributeLock一致
+ */
+@Slf4j
+public class RedisQuorumDistributeLock<R> implements DistributeLock<R>, LockBackendHealth, Closeable {
+
+    /** 监控统计后端名称 */
+    private static final String BACKEND = "redis";
+    /** 释放锁最多等待时间/ms */
+    private static final int RELEASE_WAIT_MS = 1000;
+
+    /** 每个master一个锁 */
+    private final List<RedisDistributeLock<R>> nodes;
+    /** 获取锁需要成功的master数量 */
+    private final int quorum;
+    /** 由本类创建的连接，关闭时一并关闭 */
+    private final List<LettuceConnectionFactory> connectionFactories = new ArrayList<>();
+    /** 并行请求各master */
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "redis-lock-quorum");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /** 等待策略 */
+    private WaitStrategy waitStrategy = new DecorrelatedJitterWaitStrategy();
+    /** 监控指标 */
+    private LockMetrics metrics = LockMetrics.NOOP;
+
+    /**
+     * 创建各master连接
+     * @param addresses master地址：host:port,host:port,host:port
+     * @param password redis密码，没有密码为空
+     */
+    public RedisQuorumDistributeLock(String addresses, String password) {
+        this.nodes = new ArrayList<>();
+        for (String address : addresses.split(",")) {
+            String[] hostPort = address.trim().split(":");
+            RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration(hostPort[0],
+                hostPort.length > 1 ? Integer.parseInt(hostPort[1]) : 6379);
+            if (password != null && password.length() > 0) {
+                configuration.setPassword(RedisPassword.of(password));
+            }
+            LettuceConnectionFactory connectionFactory = new LettuceConnectionFactory(configuration);
+            connectionFactory.afterPropertiesSet();
+            connectionFactories.add(connectionFactory);
+            nodes.add(new RedisDistributeLock<>(new StringRedisTemplate(connectionFactory)));
+        }
+        this.quorum = nodes.size() / 2 + 1;
+    }
+
+    /**
+     * @param redisTemplates 各master连接
+     */
+    public RedisQuorumDistributeLock(List<StringRedisTemplate> redisTemplates) {
+        this.nodes = new ArrayList<>(redisTemplates.size());
+        for (StringRedisTemplate redisTemplate : redisTemplates) {
+            nodes.add(new RedisDistributeLock<>(redisTemplate));
+        }
+        this.quorum = nodes.size() / 2 + 1;
+    }
+
+
+    /**
+     * 尝试加锁并回调业务逻辑，自动释放锁
+     * @param lockKey 锁key,每个业务一个key
+     * @param waitTimeMs 等待时间/ms
+     * @param timeoutMs 锁过期时间/ms
+     * @param successExecutor 获取锁成功回调业务逻辑
+     * @param failExecutor 获取锁失败回调业务逻辑
+     * @return R 回调业务逻辑泛型
+     * @throws Throwable
+     */
+    @Override
+    public R tryLockAndCallBack(String lockKey, int waitTimeMs, int timeoutMs, CallBackExecutor<R> successExecutor, CallBackExecutor<R> failExecutor) throws Throwable {
+        String lockValue = LockTokens.next();
+        boolean getLock = false;
+        try {
+            if (getLock = tryLock(lockKey, lockValue, waitTimeMs, timeoutMs)) {
+                // 获取锁成功，执行成功业务逻辑
+                long holdStartNanos = System.nanoTime();
+                try {
+                    return successExecutor.execute();
+                } finally {
+                    recordHold(holdStartNanos);
+                }
+            }
+        } finally {
+            // 释放锁
+            if (getLock) {
+                releaseLock(lockKey, lockValue);
+            }
+        }
+        // 获取锁失败，执行失败业务逻辑
+        return failExecutor.execute();
+    }
+
+    /**
+     * 尝试加锁
+     * @param lockKey 锁key,每个业务一个key
+     * @param lockValue 对应该锁的value，删除锁的时候会比对该value
+     * @param waitTimeMs 等待时间/ms
+     * @param timeoutMs 锁过期时间/ms
+     * @return boolean 是否获取成功
+     * @throws Exception
+     */
+    @Override
+    public boolean tryLock(String lockKey, String lockValue, int waitTimeMs, int timeoutMs) throws Exception {
+        return retry(node -> node.tryLock(lockKey, lockValue, 0, timeoutMs),
+            node -> node.releaseLock(lockKey, lockValue), waitTimeMs, timeoutMs);
+    }
+
+    /**
+     * 释放锁，所有master都释放，包括加锁失败的master
+     * @param lockKey 锁key,每个业务一个key
+     * @param lockValue 对应该锁的value，删除锁的时候会比对该value
+     */
+    @Override
+    public void releaseLock(String lockKey, String lockValue) throws Exception {
+        release(node -> node.releaseLock(lockKey, lockValue));
+    }
+
+    /**
+     * 同时对多个key尝试加锁，每个master上一次Lua脚本原子完成
+     * @param lockKeys 锁key集合
+     * @param lockValue 对应该锁的value，删除锁的时候会比对该value
+     * @param waitTimeMs 等待时间/ms
+     * @param timeoutMs 锁过期时间/ms
+     * @return boolean 是否全部获取成功
+     * @throws Exception
+     */
+    @Override
+    public boolean tryMultiLock(Collection<String> lockKeys, String lockValue, int waitTimeMs, int timeoutMs) throws Exception {
+        return retry(node -> node.tryMultiLock(lockKeys, lockValue, 0, timeoutMs),
+            node -> node.releaseMultiLock(lockKeys, lockValue), waitTimeMs, timeoutMs);
+    }
+
+    /**
+     * 释放多个key的锁
+     * @param lockKeys 锁key集合
+     * @param lockValue 对应该锁的value，删除锁的时候会比对该value
+     */
+    @Override
+    public void releaseMultiLock(Collection<String> lockKeys, String lockValue) throws Exception {
+        release(node -> node.releaseMultiLock(lockKeys, lockValue));
+    }
+
+
+    /***************************** 仲裁逻辑 ******************************/
+
+    /**
+     * 仲裁加锁，失败后释放已加的锁并随机退避重试，直到等待时间结束
+     * @param lock 单个master加锁
+     * @param unlock 单个master释放锁
+     * @param waitTimeMs 等待时间/ms
+     * @param timeoutMs 锁过期时间/ms
+     * @return boolean 是否获取成功
+     * @throws InterruptedException
+     */
+    private boolean retry(NodeLock<R> lock, NodeUnlock<R> unlock, int waitTimeMs, int timeoutMs) throws InterruptedException {
+        long startNanos = System.nanoTime();
+        long deadline = startNanos + TimeUnit.MILLISECONDS.toNanos(waitTimeMs);
+        WaitStrategy strategy = LockContext.waitStrategy(waitStrategy);
+        long waitNanos = 0;
+        int attempts = 0;
+        boolean getLock = false;
+        String result = LockMetrics.ERROR;
+        try {
+            while (true) {
+                attempts++;
+                if (getLock = acquire(lock, timeoutMs)) {
+                    break;
+                }
+                // 未达到半数，释放已获取的master，避免其他竞争者都达不到半数
+                release(unlock);
+                long remainNanos = deadline - System.nanoTime();
+                if (remainNanos <= 0) {
+                    break;
+                }
+                if (log.isDebugEnabled()) log.debug("ThreadName = {}, tryLock = {}", Thread.currentThread().getName(), "等待获取.............");
+                // 按等待策略随机退避，错开竞争者同时重试
+                waitNanos = strategy.nextWaitNanos(attempts, waitNanos, remainNanos);
+                WaitStrategy.park(Math.min(waitNanos, remainNanos));
+            }
+            result = LockMetrics.result(getLock, waitTimeMs);
+            return getLock;
+        } finally {
+            recordAcquire(startNanos, attempts, result);
+        }
+    }
+
+    /**
+     * 并行在所有master上加锁一次，半数以上成功即返回，不等待慢节点
+     * @param lock 单个master加锁
+     * @param timeoutMs 锁过期时间/ms
+     * @return boolean 超过半数成功并且锁仍在有效期内
+     * @throws InterruptedException
+     */
+    private boolean acquire(NodeLock<R> lock, int timeoutMs) throws InterruptedException {
+        long startNanos = System.nanoTime();
+        CompletableFuture<Boolean> decision = new CompletableFuture<>();
+        AtomicInteger success = new AtomicInteger();
+        AtomicInteger fail = new AtomicInteger();
+        for (RedisDistributeLock<R> node : nodes) {
+            executor.execute(() -> {
+                boolean getLock = false;
+                try {
+                    getLock = lock.apply(node);
+                } catch (Exception e) {
+                    log.warn("-------------- redis master 加锁失败：{}", e.getMessage());
+                }
+                if (getLock ? success.incrementAndGet() == quorum : fail.incrementAndGet() == nodes.size() - quorum + 1) {
+                    decision.complete(getLock);
+                }
+            });
+        }
+        boolean getLock;
+        try {
+            getLock = decision.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            getLock = false;
+        } finally {
+            recordRoundTrip("quorumLock", startNanos);
+        }
+        // 扣除加锁耗时和各master时钟漂移后锁仍然有效
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        long driftMs = timeoutMs / 100 + 2;
+        return getLock && timeoutMs - elapsedMs - driftMs > 0;
+    }
+
+    /**
+     * 并行在所有master上释放锁
+     * @param unlock 单个master释放锁
+     * @throws InterruptedException
+     */
+    private void release(NodeUnlock<R> unlock) throws InterruptedException {
+        long startNanos = System.nanoTime();
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[nodes.size()];
+        for (int i = 0; i < futures.length; i++) {
+            RedisDistributeLock<R> node = nodes.get(i);
+            futures[i] = CompletableFuture.runAsync(() -> {
+                try {
+                    unlock.apply(node);
+                } catch (Exception e) {
+                    log.warn("-------------- redis master 释放锁失败：{}", e.getMessage());
+                }
+            }, executor);
+        }
+        try {
+            CompletableFuture.allOf(futures).get(RELEASE_WAIT_MS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            // 未释放成功的master等待锁过期
+        } finally {
+            recordRoundTrip("quorumUnlock", startNanos);
+        }
+    }
+
+    @FunctionalInterface
+    private interface NodeLock<R> {
+        boolean apply(RedisDistributeLock<R> node) throws Exception;
+    }
+
+    @FunctionalInterface
+    private interface NodeUnlock<R> {
+        void apply(RedisDistributeLock<R> node) throws Exception;
+    }
+
+    /**
+     * 全部master可用时UP，超过半数可用时DEGRADED
+     * @return Status
+     */
+    @Override
+    public Status health() {
+        long up = nodes.stream().filter(node -> node.health() == Status.UP).count();
+        return up == nodes.size() ? Status.UP : up >= quorum ? Status.DEGRADED : Status.DOWN;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        nodes.forEach(RedisDistributeLock::close);
+        connectionFactories.forEach(LettuceConnectionFactory::destroy);
+    }
+
+
+    /**
+     * 设置全局等待策略，@Lockable.waitStrategy指定时以方法为准
+     * @param waitStrategy 为null时使用默认的DecorrelatedJitterWaitStrategy
+     */
+    public void setWaitStrategy(WaitStrategy waitStrategy) {
+        this.waitStrategy = waitStrategy != null ? waitStrategy : new DecorrelatedJitterWaitStrategy();
+    }
+
+
+    /***************************** 监控统计 ******************************/
+
+    /**
+     * 设置监控指标，按整体仲裁统计，不统计单个master
+     * @param metrics
+     */
+    public void setMetrics(LockMetrics metrics) {
+        this.metrics = metrics != null ? metrics : LockMetrics.NOOP;
+    }
+
+    private void recordAcquire(long startNanos, int attempts, String result) {
+        if (metrics != LockMetrics.NOOP) {
+            metrics.recordAcquire(BACKEND, LockContext.name(), System.nanoTime() - startNanos, attempts, result);
+        }
+    }
+
+    private void recordHold(long startNanos) {
+        if (metrics != LockMetrics.NOOP) {
+            metrics.recordHold(BACKEND, LockContext.name(), System.nanoTime() - startNanos);
+        }
+    }
+
+    private void recordRoundTrip(String operation, long startNanos) {
+        if (metrics != LockMetrics.NOOP) {
+            metrics.recordRoundTrip(BACKEND, operation, System.nanoTime() - startNanos);
+        }
+    }
+
+}
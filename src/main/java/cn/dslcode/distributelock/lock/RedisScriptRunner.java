@@ -0,0 +1,146 @@
+package cn.dslcode.distributelock.lock;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.ReturnType;
+
+/**
+ * @author dongsilin
+ * @version 2018/11/28.
+ * Lua脚本执行器，脚本和SHA1预先编码为byte[]，优先EVALSHA，redis返回NOSCRIPT时改用EVAL（同时加载脚本）。
+ * 参数直接使用byte[]，不经过RedisTemplate序列化，用于加锁/解锁热路径
+ */
+class RedisScriptRunner {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /** 解锁Lua脚本，value一致才删除锁并发布释放通知，返回1；锁已不属于自己返回0。同步、异步、批量释放共用 */
+    static final String UNLOCK_SCRIPT = "if redis.call('GET', KEYS[1]) == ARGV[1] then redis.call('DEL', KEYS[1]) " +
+        "redis.call('PUBLISH', ARGV[2], ARGV[1]) return 1 end return 0";
+    /** 解锁脚本执行器 */
+    static final RedisScriptRunner UNLOCK = new RedisScriptRunner(UNLOCK_SCRIPT, ReturnType.INTEGER);
+
+    /** 脚本 */
+    private final byte[] script;
+    /** 脚本SHA1 */
+    private final byte[] sha1;
+    /** 返回值类型 */
+    private final ReturnType returnType;
+
+    RedisScriptRunner(String script, ReturnType returnType) {
+        this.script = script.getBytes(StandardCharsets.UTF_8);
+        this.sha1 = sha1(this.script);
+        this.returnType = returnType;
+    }
+
+    /**
+     * 执行脚本
+     * @param connection redis连接
+     * @param numKeys key数量
+     * @param keysAndArgs key和参数
+     * @return 脚本返回值
+     */
+    <T> T eval(RedisConnection connection, int numKeys, byte[]... keysAndArgs) {
+        try {
+            return connection.scriptingCommands().evalSha(sha1, returnType, numKeys, keysAndArgs);
+        } catch (RuntimeException e) {
+            if (!isNoScript(e)) {
+                throw e;
+            }
+            // redis重启或主从切换后脚本缓存丢失，EVAL执行并重新缓存
+            return connection.scriptingCommands().eval(script, returnType, numKeys, keysAndArgs);
+        }
+    }
+
+    /**
+     * pipeline中执行脚本，只发送EVALSHA，结果在pipeline关闭时返回；
+     * pipeline返回NOSCRIPT时由调用方{@link #load(RedisConnection)}后重新执行整批
+     * @param connection 已开启pipeline的redis连接
+     * @param numKeys key数量
+     * @param keysAndArgs key和参数
+     */
+    void evalShaPipelined(RedisConnection connection, int numKeys, byte[]... keysAndArgs) {
+        connection.scriptingCommands().evalSha(sha1, returnType, numKeys, keysAndArgs);
+    }
+
+    /**
+     * 脚本内容，lettuce异步命令使用
+     * @return String
+     */
+    String script() {
+        return new String(script, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 脚本SHA1，lettuce异步命令使用
+     * @return String
+     */
+    String sha1() {
+        return new String(sha1, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * 预先加载脚本到redis脚本缓存，之后的EVALSHA不再返回NOSCRIPT
+     * @param connection redis连接
+     */
+    void load(RedisConnection connection) {
+        connection.scriptingCommands().scriptLoad(script);
+    }
+
+    /**
+     * 前缀与字符串拼接并编码，ASCII字符串直接按字节拷贝，只分配一个byte[]
+     * @param prefix 已编码的前缀
+     * @param value 字符串
+     * @return byte[]
+     */
+    static byte[] concat(byte[] prefix, String value) {
+        int length = value.length();
+        byte[] bytes = new byte[prefix.length + length];
+        System.arraycopy(prefix, 0, bytes, 0, prefix.length);
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                // 非ASCII字符，按UTF-8编码
+                byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+                bytes = new byte[prefix.length + encoded.length];
+                System.arraycopy(prefix, 0, bytes, 0, prefix.length);
+                System.arraycopy(encoded, 0, bytes, prefix.length, encoded.length);
+                return bytes;
+            }
+            bytes[prefix.length + i] = (byte) c;
+        }
+        return bytes;
+    }
+
+    /**
+     * 异常是否redis返回的NOSCRIPT（脚本缓存中没有该脚本）
+     * @param e
+     * @return boolean
+     */
+    static boolean isNoScript(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            String message = cause.getMessage();
+            if (message != null && message.contains("NOSCRIPT")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] sha1(byte[] script) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(script);
+            byte[] hex = new byte[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                hex[i * 2] = (byte) HEX[(digest[i] >> 4) & 0xF];
+                hex[i * 2 + 1] = (byte) HEX[digest[i] & 0xF];
+            }
+            return hex;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,235 @@
+package cn.dslcode.distributelock.lock;
+
+import cn.dslcode.distributelock.CallBackExecutor;
+import cn.dslcode.distributelock.LockMode;
+import cn.dslcode.distributelock.metrics.LockMetrics;
+import cn.dslcode.distributelock.support.ConsistentHashRing;
+import cn.dslcode.distributelock.wait.WaitStrategy;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisPassword;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+/**
+ * @author dongsilin
+ * @version 2018/12/5.
+ * redis分片分布式锁：多个相互独立的redis master，lockKey按一致性hash（虚拟节点）分布到各master，
+ * 每个master一个RedisDistributeLock，各自的连接池和Lua脚本缓存，加锁吞吐随master数量增加。
+ * 增加master只有约1/N的key换master，换master的key在切换期间可能被新旧master上的持有者同时持有，
+ * 扩容时需要等旧master上的锁到期后再放量。
+ * 多key锁的key在同一个master上时一次Lua脚本原子加锁；分布在多个master上时按master名称顺序逐个master原子加锁，
+ * 全局一致的加锁顺序避免死锁，失败时释放已获取的master上的锁
+ */
+@Slf4j
+public class ShardedRedisDistributeLock<R> implements DistributeLock<R>, DistributeSemaphore, LockBackendHealth, Closeable {
+
+    /** 每个master的虚拟节点数量 */
+    private static final int VIRTUAL_NODES = 160;
+
+    /** 一致性hash环 */
+    private final ConsistentHashRing<RedisDistributeLock<R>> ring;
+    /** 各master的锁，按master名称排序，多key锁按此顺序加锁 */
+    private final List<RedisDistributeLock<R>> shards;
+    /** 由本类创建的连接，关闭时一并关闭 */
+    private final List<LettuceConnectionFactory> connectionFactories = new ArrayList<>();
+
+    /**
+     * 创建各master连接
+     * @param addresses master地址：host:port,host:port,host:port，地址即节点名称
+     * @param password redis密码，没有密码为空
+     * @param shardFactory 按连接创建单个master的锁，可设置等待方式、看门狗等
+     */
+    public ShardedRedisDistributeLock(String addresses, String password, Function<StringRedisTemplate, RedisDistributeLock<R>> shardFactory) {
+        Map<String, RedisConnectionFactory> factories = new LinkedHashMap<>();
+        for (String address : addresses.split(",")) {
+            String[] hostPort = address.trim().split(":");
+            RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration(hostPort[0],
+                hostPort.length > 1 ? Integer.parseInt(hostPort[1]) : 6379);
+            if (password != null && password.length() > 0) {
+                configuration.setPassword(RedisPassword.of(password));
+            }
+            LettuceConnectionFactory connectionFactory = new LettuceConnectionFactory(configuration);
+            connectionFactory.afterPropertiesSet();
+            connectionFactories.add(connectionFactory);
+            factories.put(configuration.getHostName() + ":" + configuration.getPort(), connectionFactory);
+        }
+        this.shards = new ArrayList<>();
+        this.ring = createRing(factories, shardFactory);
+    }
+
+    /**
+     * @param connectionFactories 节点名称 -> master连接，名称决定key分布，扩容时已有master名称不能改变
+     * @param shardFactory 按连接创建单个master的锁，可设置等待方式、看门狗等
+     */
+    public ShardedRedisDistributeLock(Map<String, RedisConnectionFactory> connectionFactories, Function<StringRedisTemplate, RedisDistributeLock<R>> shardFactory) {
+        this.shards = new ArrayList<>();
+        this.ring = createRing(connectionFactories, shardFactory);
+    }
+
+    private ConsistentHashRing<RedisDistributeLock<R>> createRing(Map<String, RedisConnectionFactory> factories,
+                                                                  Function<StringRedisTemplate, RedisDistributeLock<R>> shardFactory) {
+        TreeMap<String, RedisDistributeLock<R>> sorted = new TreeMap<>();
+        factories.forEach((name, factory) -> sorted.put(name, shardFactory.apply(new StringRedisTemplate(factory))));
+        shards.addAll(sorted.values());
+        log.info("-------------- redis分片分布式锁初始化完成，master：{} ............", sorted.keySet());
+        return new ConsistentHashRing<>(new ArrayList<>(sorted.keySet()), shards, VIRTUAL_NODES);
+    }
+
+    /**
+     * lockKey所在master的锁
+     * @param lockKey
+     * @return RedisDistributeLock
+     */
+    public RedisDistributeLock<R> shard(String lockKey) {
+        return ring.get(lockKey);
+    }
+
+
+    @Override
+    public R tryLockAndCallBack(String lockKey, int waitTimeMs, int timeoutMs, CallBackExecutor<R> successExecutor, CallBackExecutor<R> failExecutor) throws Throwable {
+        return shard(lockKey).tryLockAndCallBack(lockKey, waitTimeMs, timeoutMs, successExecutor, failExecutor);
+    }
+
+    @Override
+    public boolean tryLock(String lockKey, String lockValue, int waitTimeMs, int timeoutMs) throws Exception {
+        return shard(lockKey).tryLock(lockKey, lockValue, waitTimeMs, timeoutMs);
+    }
+
+    @Override
+    public void releaseLock(String lockKey, String lockValue) {
+        shard(lockKey).releaseLock(lockKey, lockValue);
+    }
+
+    @Override
+    public boolean tryLock(LockMode mode, String lockKey, String lockValue, int waitTimeMs, int timeoutMs) throws Exception {
+        return shard(lockKey).tryLock(mode, lockKey, lockValue, waitTimeMs, timeoutMs);
+    }
+
+    @Override
+    public void releaseLock(LockMode mode, String lockKey, String lockValue) {
+        shard(lockKey).releaseLock(mode, lockKey, lockValue);
+    }
+
+    @Override
+    public boolean tryAcquire(String semaphoreKey, String permitId, int permits, int waitTimeMs, int leaseMs) throws Exception {
+        return shard(semaphoreKey).tryAcquire(semaphoreKey, permitId, permits, waitTimeMs, leaseMs);
+    }
+
+    @Override
+    public void release(String semaphoreKey, String permitId) {
+        shard(semaphoreKey).release(semaphoreKey, permitId);
+    }
+
+    @Override
+    public R tryMultiLockAndCallBack(Collection<String> lockKeys, int waitTimeMs, int timeoutMs, CallBackExecutor<R> successExecutor, CallBackExecutor<R> failExecutor) throws Throwable {
+        Map<RedisDistributeLock<R>, List<String>> groups = group(lockKeys);
+        if (groups.size() == 1) {
+            return groups.keySet().iterator().next().tryMultiLockAndCallBack(lockKeys, waitTimeMs, timeoutMs, successExecutor, failExecutor);
+        }
+        return DistributeLock.super.tryMultiLockAndCallBack(lockKeys, waitTimeMs, timeoutMs, successExecutor, failExecutor);
+    }
+
+    /**
+     * 同时对多个key尝试加锁，按master名称顺序逐个master原子加锁，失败时释放已获取的master上的锁
+     * @param lockKeys 锁key集合
+     * @param lockValue 对应该锁的value，删除锁的时候会比对该value
+     * @param waitTimeMs 等待时间/ms，所有master共用
+     * @param timeoutMs 锁过期时间/ms
+     * @return boolean 是否全部获取成功
+     * @throws Exception
+     */
+    @Override
+    public boolean tryMultiLock(Collection<String> lockKeys, String lockValue, int waitTimeMs, int timeoutMs) throws Exception {
+        long deadline = System.currentTimeMillis() + waitTimeMs;
+        List<Map.Entry<RedisDistributeLock<R>, List<String>>> acquired = new ArrayList<>();
+        try {
+            for (Map.Entry<RedisDistributeLock<R>, List<String>> group : group(lockKeys).entrySet()) {
+                int remainMs = (int) Math.max(0, deadline - System.currentTimeMillis());
+                if (!group.getKey().tryMultiLock(group.getValue(), lockValue, remainMs, timeoutMs)) {
+                    return false;
+                }
+                acquired.add(group);
+            }
+            acquired.clear();
+            return true;
+        } finally {
+            // 未全部获取成功，释放已获取的锁
+            for (int i = acquired.size() - 1; i >= 0; i--) {
+                acquired.get(i).getKey().releaseMultiLock(acquired.get(i).getValue(), lockValue);
+            }
+        }
+    }
+
+    @Override
+    public void releaseMultiLock(Collection<String> lockKeys, String lockValue) {
+        group(lockKeys).forEach((shard, keys) -> shard.releaseMultiLock(keys, lockValue));
+    }
+
+    /**
+     * 按所在master分组，按master名称排序
+     */
+    private Map<RedisDistributeLock<R>, List<String>> group(Collection<String> lockKeys) {
+        List<List<String>> byShard = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            byShard.add(null);
+        }
+        for (String lockKey : lockKeys) {
+            int i = ring.indexOf(lockKey);
+            if (byShard.get(i) == null) {
+                byShard.set(i, new ArrayList<>());
+            }
+            byShard.get(i).add(lockKey);
+        }
+        Map<RedisDistributeLock<R>, List<String>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < shards.size(); i++) {
+            if (byShard.get(i) != null) {
+                groups.put(shards.get(i), byShard.get(i));
+            }
+        }
+        return groups;
+    }
+
+
+    /**
+     * 设置全局等待策略，各master共用
+     * @param waitStrategy
+     */
+    public void setWaitStrategy(WaitStrategy waitStrategy) {
+        shards.forEach(shard -> shard.setWaitStrategy(waitStrategy));
+    }
+
+    /**
+     * 设置监控指标，各master共用，按后端redis统计
+     * @param metrics
+     */
+    public void setMetrics(LockMetrics metrics) {
+        shards.forEach(shard -> shard.setMetrics(metrics));
+    }
+
+    /**
+     * 全部master可用时UP，部分可用时DEGRADED
+     * @return Status
+     */
+    @Override
+    public Status health() {
+        long up = shards.stream().filter(shard -> shard.health() == Status.UP).count();
+        return up == shards.size() ? Status.UP : up > 0 ? Status.DEGRADED : Status.DOWN;
+    }
+
+    @Override
+    public void close() {
+        shards.forEach(RedisDistributeLock::close);
+        connectionFactories.forEach(LettuceConnectionFactory::destroy);
+    }
+
+}
@@ -1,10 +1,39 @@
 package cn.dslcode.distributelock.lock;
 
 import cn.dslcode.distributelock.CallBackExecutor;
+import cn.dslcode.distributelock.LockContext;
+import cn.dslcode.distributelock.LockMode;
+import cn.dslcode.distributelock.metrics.LockMetrics;
+import cn.dslcode.distributelock.support.HashedWheelTimer;
+import cn.dslcode.distributelock.support.ZookeeperPaths;
+import cn.dslcode.distributelock.wait.DecorrelatedJitterWaitStrategy;
+import cn.dslcode.distributelock.wait.WaitStrategy;
 import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZooDefs;
 import org.apache.zookeeper.ZooKeeper;
 
@@ -14,32 +43,84 @@ import org.apache.zookeeper.ZooKeeper;
  * zookeeper分布式锁
  */
 @Slf4j
-public class ZookeeperDistributeLock<R> implements DistributeLock<R>, Closeable {
+public class ZookeeperDistributeLock<R> implements DistributeLock<R>, AsyncDistributeLock, DistributeSemaphore, LockBackendHealth, Closeable {
 
-    /** zookeeper连接 */
-    private ZooKeeper zooKeeperClient;
+    /** 监控统计后端名称 */
+    private static final String BACKEND = "zookeeper";
+
+    /** zookeeper连接，session过期后重建 */
+    private volatile ZooKeeper zooKeeperClient;
+    /** zookeeper地址 */
+    private final String connectString;
     /** session超时时间 */
     private int SESSION_TIMEOUT_MS = 10000;
-    /** 分布式锁根节点 */
+    /** 创建连接失败后的重试间隔/ms */
+    private int RECONNECT_DELAY_MS = 2000;
+    /** 同步操作等待连接就绪的最长时间/ms */
+    private long connectTimeoutMs = 2000;
+    /** 连接就绪：已连接且根节点已存在 */
+    private volatile boolean ready;
+    /** 等待连接就绪 */
+    private final Object readyLock = new Object();
+    /** 是否已关闭 */
+    private volatile boolean closed;
+    /** 分布式锁根节点，锁节点按lockKey的hash分布在两级目录下，见ZookeeperPaths */
     private String ROOT_LOCK = "/locks";
-    private String ROOT_LOCK_ = "/locks/";
+    /** zookeeper客户端支持的容器节点类型（3.5+），不支持时为null */
+    private static final CreateMode CONTAINER = containerMode();
+    /** 公平锁顺序节点前缀 */
+    private String SEQ_NODE_PREFIX = "lock-";
+    /** 读写锁节点后缀，读写锁节点与互斥锁节点分开 */
+    private String RW_NODE_SUFFIX = ".rw";
+    /** 读锁顺序节点前缀 */
+    private String READ_NODE_PREFIX = "read-";
+    /** 写锁顺序节点前缀 */
+    private String WRITE_NODE_PREFIX = "write-";
+    /** 信号量节点后缀 */
+    private String SEMAPHORE_NODE_SUFFIX = ".semaphore";
+    /** 信号量许可顺序节点前缀 */
+    private String PERMIT_NODE_PREFIX = "permit-";
+
+    /** 是否公平锁：每个等待者创建临时顺序节点并只监听前一个节点，按顺序获取锁 */
+    private boolean fair;
+    /** 公平锁当前持有的顺序节点，持有者 -> 节点路径 */
+    private ConcurrentHashMap<String, String> heldNodes = new ConcurrentHashMap<>();
+    /** 异步等待超时定时器 */
+    private HashedWheelTimer timer = HashedWheelTimer.getDefault();
+    /** 等待策略 */
+    private WaitStrategy waitStrategy = new DecorrelatedJitterWaitStrategy();
+    /** 监控指标 */
+    private LockMetrics metrics = LockMetrics.NOOP;
+    /** 公平锁、读写锁、信号量的父节点类型，容器节点没有子节点后由服务端删除 */
+    private CreateMode parentNodeMode = CreateMode.PERSISTENT;
+    /** 空父节点清理周期/ms，每个周期扫描一遍全部目录，节点创建超过一个周期且没有子节点才删除，0不清理 */
+    private long reapIntervalMs = 600000;
+    /** 空父节点清理线程 */
+    private ScheduledExecutorService reaper;
+    /** 空父节点清理任务 */
+    private ScheduledFuture<?> reapTask;
+    /** 下次清理的第一级目录 */
+    private int reapCursor = ThreadLocalRandom.current().nextInt(ZookeeperPaths.FAN_OUT);
 
     /**
-     * 创建zookeeper连接并初始化分布式锁根节点
+     * 后台创建zookeeper连接并初始化分布式锁根节点，不阻塞
      * @param connectString list of server address: ip:port, ip:port, ip:port
      */
     public ZookeeperDistributeLock(String connectString) {
-        try {
-            // 初始化zookeeper连接
-            this.zooKeeperClient = new ZooKeeper(connectString, SESSION_TIMEOUT_MS,null);
-            // 如果分布式锁根节点，则创建根节点
-            if (this.zooKeeperClient.exists(ROOT_LOCK, false) == null) {
-                this.zooKeeperClient.create(ROOT_LOCK, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
-            }
-        } catch (Exception e) {
-            log.error("", e);
-            System.exit(1);
-        }
+        this(connectString, false);
+    }
+
+    /**
+     * 后台创建zookeeper连接并初始化分布式锁根节点，不阻塞。
+     * 连接就绪前的同步加锁最多等待connectTimeoutMs，超时按连接丢失处理
+     * @param connectString list of server address: ip:port, ip:port, ip:port
+     * @param fair 是否公平锁
+     */
+    public ZookeeperDistributeLock(String connectString, boolean fair) {
+        this.connectString = connectString;
+        this.fair = fair;
+        connect();
+        scheduleReaper();
     }
 
     /**
@@ -59,7 +140,12 @@ public class ZookeeperDistributeLock<R> implements DistributeLock<R>, Closeable
             if (getLock = tryLock(lockKey, null, waitTimeMs, 0)) {
                 if (log.isDebugEnabled()) log.debug("ThreadName = {}, tryLock = {}", Thread.currentThread().getName(), "获取锁成功");
                 // 获取锁成功，执行成功业务逻辑
-                return successExecutor.execute();
+                long holdStartNanos = System.nanoTime();
+                try {
+                    return successExecutor.execute();
+                } finally {
+                    recordHold(holdStartNanos);
+                }
             }
         } finally {
             if (getLock) {
@@ -81,26 +167,49 @@ public class ZookeeperDistributeLock<R> implements DistributeLock<R>, Closeable
      */
     @Override
     public boolean tryLock(String lockKey, String lockValue, int waitTimeMs, int timeoutMs) throws Exception {
-        lockKey = ROOT_LOCK_ + lockKey;
-        boolean getLock;
-        // 尝试获取锁
+        if (fair) {
+            return tryFairLock(lockKey, lockValue, waitTimeMs);
+        }
+        String nodeName = lockNode(lockKey);
         // 创建临时节点，如果节点已经存在，会抛出 KeeperException.NodeExistsException
-        if (!(getLock = createTempNode(lockKey)) && waitTimeMs > 0) {
-            long startTime = System.currentTimeMillis();
-            int yieldTimes = 0;// 让出CPU次数
-            do {
-                if (log.isDebugEnabled()) log.debug("ThreadName = {}, tryLock = {}", Thread.currentThread().getName(), "等待获取.............");
-                Thread.yield();// 让出CPU
-                if (getLock = createTempNode(lockKey)) {
-                    break;
-                }
-                // 还是抢不到，睡一会
-                if(yieldTimes++ >= 2 ) {
-                    Thread.sleep(20 + 10*yieldTimes);
+        return pollLock(() -> createTempNode(nodeName), waitTimeMs);
+    }
+
+    /**
+     * 轮询获取锁
+     * @param attempt 加锁操作
+     * @param waitTimeMs 等待时间/ms
+     * @return boolean 是否获取成功
+     * @throws Exception
+     */
+    private boolean pollLock(Callable<Boolean> attempt, int waitTimeMs) throws Exception {
+        long startNanos = System.nanoTime();
+        int attempts = 1;
+        boolean getLock = false;
+        String result = LockMetrics.ERROR;
+        try {
+            // 尝试获取锁
+            if (!(getLock = attempt.call()) && waitTimeMs > 0) {
+                // 按等待策略重试，等待时间不超过剩余时间，最后一次重试在等待时间到期时进行
+                WaitStrategy strategy = LockContext.waitStrategy(waitStrategy);
+                long deadline = startNanos + TimeUnit.MILLISECONDS.toNanos(waitTimeMs);
+                long waitNanos = 0;
+                long remainNanos;
+                while ((remainNanos = deadline - System.nanoTime()) > 0) {
+                    if (log.isDebugEnabled()) log.debug("ThreadName = {}, tryLock = {}", Thread.currentThread().getName(), "等待获取.............");
+                    waitNanos = strategy.nextWaitNanos(attempts, waitNanos, remainNanos);
+                    WaitStrategy.park(Math.min(waitNanos, remainNanos));
+                    attempts++;
+                    if (getLock = attempt.call()) {
+                        break;
+                    }
                 }
-            } while (System.currentTimeMillis() - startTime < waitTimeMs);
+            }
+            result = LockMetrics.result(getLock, waitTimeMs);
+            return getLock;
+        } finally {
+            recordAcquire(startNanos, attempts, result);
         }
-        return getLock;
     }
 
     /**
@@ -109,8 +218,512 @@ public class ZookeeperDistributeLock<R> implements DistributeLock<R>, Closeable
      */
     @Override
     public void releaseLock(String lockKey, String lockValue) throws Exception {
+        if (fair) {
+            // 释放公平锁，删除自己的顺序节点，唤醒下一个等待者
+            String node = heldNodes.remove(holder(lockKey, lockValue));
+            if (node != null) {
+                deleteSeqNode(node);
+            }
+            return;
+        }
         // 释放锁，删除节点
-        deleteNode(ROOT_LOCK_ + lockKey);
+        long startNanos = System.nanoTime();
+        try {
+            deleteNode(lockNode(lockKey));
+        } finally {
+            recordRoundTrip("unlock", startNanos);
+        }
+    }
+
+    /**
+     * 按锁模式尝试加锁，读写锁使用顺序节点排队：读锁只需排在它前面的写锁都释放，写锁需排在最前面，
+     * 按序号先后获取，写锁不会饥饿；每次加锁一次写操作，读锁之间并行
+     * @param mode 锁模式
+     * @param lockKey 锁key,每个业务一个key
+     * @param lockValue 对应该锁的value，与lockKey一起标识持有者，为null时以当前线程标识
+     * @param waitTimeMs 等待时间/ms
+     * @param timeoutMs 对zookeeper无效
+     * @return boolean 是否获取成功
+     * @throws Exception
+     */
+    @Override
+    public boolean tryLock(LockMode mode, String lockKey, String lockValue, int waitTimeMs, int timeoutMs) throws Exception {
+        if (mode == LockMode.EXCLUSIVE) {
+            return tryLock(lockKey, lockValue, waitTimeMs, timeoutMs);
+        }
+        long startNanos = System.nanoTime();
+        String result = LockMetrics.ERROR;
+        try {
+            boolean getLock = queueLock(lockNode(lockKey + RW_NODE_SUFFIX),
+                mode == LockMode.READ ? READ_NODE_PREFIX : WRITE_NODE_PREFIX,
+                holder(lockKey + RW_NODE_SUFFIX, lockValue), waitTimeMs);
+            result = LockMetrics.result(getLock, waitTimeMs);
+            return getLock;
+        } finally {
+            recordAcquire(startNanos, 1, result);
+        }
+    }
+
+    /**
+     * 按锁模式释放锁
+     * @param mode 锁模式
+     * @param lockKey 锁key,每个业务一个key
+     * @param lockValue 对应该锁的value
+     * @throws Exception
+     */
+    @Override
+    public void releaseLock(LockMode mode, String lockKey, String lockValue) throws Exception {
+        if (mode == LockMode.EXCLUSIVE) {
+            releaseLock(lockKey, lockValue);
+            return;
+        }
+        String node = heldNodes.remove(holder(lockKey + RW_NODE_SUFFIX, lockValue));
+        if (node != null) {
+            deleteSeqNode(node);
+        }
+    }
+
+    /**
+     * 尝试获取许可：在信号量节点下创建临时顺序节点，序号排在前permits个即获取成功，
+     * 否则监听子节点变化，任一许可释放后重新判断；session断开时许可自动释放
+     * @param semaphoreKey 信号量key
+     * @param permitId 许可标识，释放许可时使用
+     * @param permits 许可总数
+     * @param waitTimeMs 等待时间/ms
+     * @param leaseMs 对zookeeper无效
+     * @return boolean 是否获取成功
+     * @throws Exception
+     */
+    @Override
+    public boolean tryAcquire(String semaphoreKey, String permitId, int permits, int waitTimeMs, int leaseMs) throws Exception {
+        long startNanos = System.nanoTime();
+        String result = LockMetrics.ERROR;
+        try {
+            boolean acquired = acquirePermit(lockNode(semaphoreKey + SEMAPHORE_NODE_SUFFIX),
+                holder(semaphoreKey + SEMAPHORE_NODE_SUFFIX, permitId), permits, waitTimeMs);
+            result = LockMetrics.result(acquired, waitTimeMs);
+            return acquired;
+        } finally {
+            recordAcquire(startNanos, 1, result);
+        }
+    }
+
+    /**
+     * 释放许可，删除自己的顺序节点
+     * @param semaphoreKey 信号量key
+     * @param permitId 许可标识
+     * @throws Exception
+     */
+    @Override
+    public void release(String semaphoreKey, String permitId) throws Exception {
+        String node = heldNodes.remove(holder(semaphoreKey + SEMAPHORE_NODE_SUFFIX, permitId));
+        if (node != null) {
+            deleteSeqNode(node);
+        }
+    }
+
+    private boolean acquirePermit(String semaphoreNode, String holder, int permits, int waitTimeMs) throws Exception {
+        String node = createSeqNode(semaphoreNode, PERMIT_NODE_PREFIX);
+        String nodeName = node.substring(semaphoreNode.length() + 1);
+        long deadline = System.currentTimeMillis() + waitTimeMs;
+        boolean acquired = false;
+        try {
+            while (true) {
+                // 等待时监听子节点变化，任一许可释放都可能轮到自己
+                CountDownLatch latch = new CountDownLatch(1);
+                List<String> children = client().getChildren(semaphoreNode, waitTimeMs > 0 ? event -> latch.countDown() : null);
+                Collections.sort(children);
+                int idx = children.indexOf(nodeName);
+                if (idx < 0) {
+                    // 节点已不存在（session过期），获取许可失败
+                    log.warn("-------------- 信号量节点已丢失：{}", node);
+                    return false;
+                }
+                if (idx < permits) {
+                    return acquired = true;
+                }
+                long remainMs = deadline - System.currentTimeMillis();
+                if (remainMs <= 0) {
+                    return false;
+                }
+                if (log.isDebugEnabled()) log.debug("ThreadName = {}, tryAcquire = {}", Thread.currentThread().getName(), "等待许可释放.............");
+                latch.await(remainMs, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            if (acquired) {
+                heldNodes.put(holder, node);
+            } else {
+                deleteSeqNode(node);
+            }
+        }
+    }
+
+    /**
+     * 同时对多个key尝试加锁，按key排序后通过一次multi请求原子创建所有临时节点，要么全部成功，要么全部失败。
+     * 公平锁的顺序节点无法原子排队，按排序后逐个加锁
+     * @param lockKeys 锁key集合
+     * @param lockValue 对应该锁的value
+     * @param waitTimeMs 等待时间/ms
+     * @param timeoutMs 对zookeeper无效
+     * @return boolean 是否全部获取成功
+     * @throws Exception
+     */
+    @Override
+    public boolean tryMultiLock(Collection<String> lockKeys, String lockValue, int waitTimeMs, int timeoutMs) throws Exception {
+        if (fair) {
+            return DistributeLock.super.tryMultiLock(lockKeys, lockValue, waitTimeMs, timeoutMs);
+        }
+        List<Op> ops = new ArrayList<>(lockKeys.size());
+        for (String lockKey : new TreeSet<>(lockKeys)) {
+            ops.add(Op.create(lockNode(lockKey), null, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL));
+        }
+        return pollLock(() -> createTempNodes(ops), waitTimeMs);
+    }
+
+    /**
+     * 释放多个key的锁，通过一次multi请求删除所有节点
+     * @param lockKeys 锁key集合
+     * @param lockValue 对应该锁的value
+     * @throws Exception
+     */
+    @Override
+    public void releaseMultiLock(Collection<String> lockKeys, String lockValue) throws Exception {
+        if (fair) {
+            DistributeLock.super.releaseMultiLock(lockKeys, lockValue);
+            return;
+        }
+        List<Op> ops = new ArrayList<>(lockKeys.size());
+        for (String lockKey : new TreeSet<>(lockKeys)) {
+            ops.add(Op.delete(lockNode(lockKey), -1));
+        }
+        try {
+            client().multi(ops);
+        } catch (KeeperException e) {
+            // 部分节点已不存在或有子节点，逐个删除
+            DistributeLock.super.releaseMultiLock(lockKeys, lockValue);
+        }
+    }
+
+    /**
+     * 尝试加公平锁：在锁节点下创建临时顺序节点，序号最小者获得锁，
+     * 其余等待者只监听前一个节点的删除事件，避免惊群，且每次加锁只有一次写操作
+     * @param lockKey 锁key,每个业务一个key
+     * @param lockValue 对应该锁的value，与lockKey一起标识持有者，为null时以当前线程标识
+     * @param waitTimeMs 等待时间/ms
+     * @return boolean 是否获取成功
+     * @throws Exception
+     */
+    private boolean tryFairLock(String lockKey, String lockValue, int waitTimeMs) throws Exception {
+        long startNanos = System.nanoTime();
+        String result = LockMetrics.ERROR;
+        try {
+            boolean getLock = fairLock(lockKey, lockValue, waitTimeMs);
+            result = LockMetrics.result(getLock, waitTimeMs);
+            return getLock;
+        } finally {
+            // 公平锁排队只创建一次顺序节点
+            recordAcquire(startNanos, 1, result);
+        }
+    }
+
+    private boolean fairLock(String lockKey, String lockValue, int waitTimeMs) throws Exception {
+        return queueLock(lockNode(lockKey), SEQ_NODE_PREFIX, holder(lockKey, lockValue), waitTimeMs);
+    }
+
+    /**
+     * 顺序节点排队加锁，只监听阻塞自己的最近一个节点
+     * @param lockNode 锁节点
+     * @param seqPrefix 顺序节点前缀，读锁只被排在前面的写锁阻塞，其他前缀被排在前面的所有节点阻塞
+     * @param holder 持有者标识
+     * @param waitTimeMs 等待时间/ms
+     * @return boolean 是否获取成功
+     * @throws Exception
+     */
+    private boolean queueLock(String lockNode, String seqPrefix, String holder, int waitTimeMs) throws Exception {
+        String node = createSeqNode(lockNode, seqPrefix);
+        String nodeName = node.substring(lockNode.length() + 1);
+        boolean shared = READ_NODE_PREFIX.equals(seqPrefix);
+        long deadline = System.currentTimeMillis() + waitTimeMs;
+        boolean getLock = false;
+        try {
+            while (true) {
+                List<String> children = client().getChildren(lockNode, false);
+                // 读写节点前缀不同，按序号排序
+                children.sort(Comparator.comparing(ZookeeperDistributeLock::sequence));
+                int idx = children.indexOf(nodeName);
+                if (idx < 0) {
+                    // 节点已不存在（session过期），获取锁失败
+                    log.warn("-------------- 公平锁节点已丢失：{}", node);
+                    return false;
+                }
+                int blocker = idx - 1;
+                while (shared && blocker >= 0 && !children.get(blocker).startsWith(WRITE_NODE_PREFIX)) {
+                    blocker--;
+                }
+                if (blocker < 0) {
+                    return getLock = true;
+                }
+                long remainMs = deadline - System.currentTimeMillis();
+                if (remainMs <= 0) {
+                    return false;
+                }
+                if (log.isDebugEnabled()) log.debug("ThreadName = {}, tryLock = {}", Thread.currentThread().getName(), "等待前一个节点释放.............");
+                // 只监听阻塞自己的节点，该节点已删除则立即重新判断
+                CountDownLatch latch = new CountDownLatch(1);
+                if (client().exists(lockNode + "/" + children.get(blocker), event -> latch.countDown()) != null) {
+                    latch.await(remainMs, TimeUnit.MILLISECONDS);
+                }
+            }
+        } finally {
+            if (getLock) {
+                heldNodes.put(holder, node);
+            } else {
+                deleteSeqNode(node);
+            }
+        }
+    }
+
+    /**
+     * 顺序节点序号，zookeeper顺序节点以10位序号结尾
+     * @param nodeName 节点名称
+     * @return 序号
+     */
+    private static String sequence(String nodeName) {
+        return nodeName.substring(nodeName.length() - 10);
+    }
+
+    /**
+     * 公平锁持有者标识
+     * @param lockKey
+     * @param lockValue
+     * @return String
+     */
+    private String holder(String lockKey, String lockValue) {
+        return lockKey + "#" + (lockValue != null ? lockValue : String.valueOf(Thread.currentThread().getId()));
+    }
+
+    /**
+     * 锁节点路径：根节点/两级hash目录/转义后的lockKey
+     * @param lockKey
+     * @return String
+     */
+    private String lockNode(String lockKey) {
+        return ZookeeperPaths.lockNode(ROOT_LOCK, lockKey);
+    }
+
+
+    /******************************* 异步加锁逻辑 ******************************/
+
+    /**
+     * 异步尝试加锁，基于zookeeper AsyncCallback，等待期间监听节点删除事件，超时由时间轮触发，不占用线程
+     * @param lockKey 锁key,每个业务一个key
+     * @param lockValue 对应该锁的value，公平锁以lockKey + lockValue标识持有者，异步调用时不能为null
+     * @param waitTimeMs 等待时间/ms
+     * @param timeoutMs 对zookeeper无效
+     * @return CompletableFuture 是否获取成功
+     */
+    @Override
+    public CompletableFuture<Boolean> tryLockAsync(String lockKey, String lockValue, int waitTimeMs, int timeoutMs) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        long deadline = System.currentTimeMillis() + waitTimeMs;
+        ZooKeeper client;
+        try {
+            client = asyncClient();
+        } catch (KeeperException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+        if (fair) {
+            createSeqNodeAsync(client, lockKey, lockValue, deadline, result, true);
+        } else {
+            createTempNodeAsync(client, lockNode(lockKey), deadline, result, true);
+        }
+        return result;
+    }
+
+    /**
+     * 异步释放锁
+     * @param lockKey 锁key,每个业务一个key
+     * @param lockValue 对应该锁的value
+     * @return CompletableFuture
+     */
+    @Override
+    public CompletableFuture<Void> releaseLockAsync(String lockKey, String lockValue) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        String node = fair ? heldNodes.remove(holder(lockKey, lockValue)) : lockNode(lockKey);
+        if (node == null) {
+            result.complete(null);
+            return result;
+        }
+        ZooKeeper client;
+        try {
+            client = asyncClient();
+        } catch (KeeperException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+        client.delete(node, -1, (rc, path, ctx) -> {
+            Code code = Code.get(rc);
+            if (code == Code.OK || code == Code.NONODE) {
+                result.complete(null);
+            } else {
+                result.completeExceptionally(KeeperException.create(code, path));
+            }
+        }, null);
+        return result;
+    }
+
+    /**
+     * 异步创建临时节点，节点已存在则监听其删除事件后重试
+     * @param client 本次操作使用的连接
+     * @param nodeName 锁节点
+     * @param deadline 等待截止时间
+     * @param result 加锁结果
+     * @param createParent 目录节点不存在时是否创建
+     */
+    private void createTempNodeAsync(ZooKeeper client, String nodeName, long deadline, CompletableFuture<Boolean> result, boolean createParent) {
+        client.create(nodeName, null, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL, (rc, path, ctx, name) -> {
+            Code code = Code.get(rc);
+            if (code == Code.OK) {
+                result.complete(true);
+            } else if (code == Code.NONODE && createParent) {
+                createNodeAsync(client, ZookeeperPaths.parent(nodeName), CreateMode.PERSISTENT, result,
+                    () -> createTempNodeAsync(client, nodeName, deadline, result, false));
+            } else if (code != Code.NODEEXISTS) {
+                result.completeExceptionally(KeeperException.create(code, path));
+            } else {
+                awaitDeleteAsync(client, nodeName, deadline,
+                    () -> createTempNodeAsync(client, nodeName, deadline, result, true),
+                    () -> result.complete(false));
+            }
+        }, null);
+    }
+
+    /**
+     * 异步创建公平锁顺序节点，锁节点不存在则先创建（目录节点不存在时一并创建）
+     * @param client 本次操作使用的连接
+     * @param lockKey 锁key
+     * @param lockValue 对应该锁的value
+     * @param deadline 等待截止时间
+     * @param result 加锁结果
+     * @param createParent 锁节点不存在时是否创建
+     */
+    private void createSeqNodeAsync(ZooKeeper client, String lockKey, String lockValue, long deadline, CompletableFuture<Boolean> result, boolean createParent) {
+        String lockNode = lockNode(lockKey);
+        client.create(lockNode + "/" + SEQ_NODE_PREFIX, null, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL_SEQUENTIAL, (rc, path, ctx, node) -> {
+            Code code = Code.get(rc);
+            if (code == Code.OK) {
+                checkSeqNodeAsync(client, lockKey, lockValue, node, deadline, result);
+            } else if (code == Code.NONODE && createParent) {
+                createNodeAsync(client, lockNode, parentNodeMode, result,
+                    () -> createSeqNodeAsync(client, lockKey, lockValue, deadline, result, false));
+            } else {
+                result.completeExceptionally(KeeperException.create(code, path));
+            }
+        }, null);
+    }
+
+    /**
+     * 异步判断顺序节点是否序号最小，否则监听前一个节点
+     * @param client 本次操作使用的连接
+     * @param lockKey 锁key
+     * @param lockValue 对应该锁的value
+     * @param node 自己的顺序节点
+     * @param deadline 等待截止时间
+     * @param result 加锁结果
+     */
+    private void checkSeqNodeAsync(ZooKeeper client, String lockKey, String lockValue, String node, long deadline, CompletableFuture<Boolean> result) {
+        String lockNode = lockNode(lockKey);
+        client.getChildren(lockNode, false, (rc, path, ctx, children) -> {
+            Code code = Code.get(rc);
+            if (code != Code.OK) {
+                deleteSeqNodeAsync(client, node);
+                result.completeExceptionally(KeeperException.create(code, path));
+                return;
+            }
+            Collections.sort(children);
+            int idx = children.indexOf(node.substring(lockNode.length() + 1));
+            if (idx < 0) {
+                // 节点已不存在（session过期），获取锁失败
+                result.complete(false);
+            } else if (idx == 0) {
+                heldNodes.put(holder(lockKey, lockValue), node);
+                result.complete(true);
+            } else {
+                awaitDeleteAsync(client, lockNode + "/" + children.get(idx - 1), deadline,
+                    () -> checkSeqNodeAsync(client, lockKey, lockValue, node, deadline, result),
+                    () -> {
+                        deleteSeqNodeAsync(client, node);
+                        result.complete(false);
+                    });
+            }
+        }, null);
+    }
+
+    /**
+     * 异步等待节点被删除，节点删除后执行retry，超过截止时间执行timeout，二者只会执行一个
+     * @param client 本次操作使用的连接
+     * @param nodeName 监听的节点
+     * @param deadline 等待截止时间
+     * @param retry 节点已删除
+     * @param timeout 等待超时
+     */
+    private void awaitDeleteAsync(ZooKeeper client, String nodeName, long deadline, Runnable retry, Runnable timeout) {
+        long remainMs = deadline - System.currentTimeMillis();
+        if (remainMs <= 0) {
+            timeout.run();
+            return;
+        }
+        AtomicBoolean fired = new AtomicBoolean();
+        HashedWheelTimer.Timeout timeoutTask = timer.newTimeout(() -> {
+            if (fired.compareAndSet(false, true)) {
+                timeout.run();
+            }
+        }, remainMs);
+        client.exists(nodeName, event -> {
+            if (fired.compareAndSet(false, true)) {
+                timeoutTask.cancel();
+                retry.run();
+            }
+        }, (rc, path, ctx, stat) -> {
+            // 节点在监听前已被删除，立即重试
+            if (stat == null && fired.compareAndSet(false, true)) {
+                timeoutTask.cancel();
+                retry.run();
+            }
+        }, null);
+    }
+
+    /**
+     * 异步创建节点，父节点不存在则先创建持久父节点，节点已存在视为成功
+     * @param client 本次操作使用的连接
+     * @param node 节点路径
+     * @param mode 节点类型
+     * @param result 创建失败时以异常完成
+     * @param then 创建成功后执行
+     */
+    private void createNodeAsync(ZooKeeper client, String node, CreateMode mode, CompletableFuture<?> result, Runnable then) {
+        client.create(node, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, mode, (rc, path, ctx, name) -> {
+            Code code = Code.get(rc);
+            if (code == Code.OK || code == Code.NODEEXISTS) {
+                then.run();
+            } else if (code == Code.NONODE && node.lastIndexOf('/') > 0) {
+                createNodeAsync(client, ZookeeperPaths.parent(node), CreateMode.PERSISTENT, result,
+                    () -> createNodeAsync(client, node, mode, result, then));
+            } else {
+                result.completeExceptionally(KeeperException.create(code, path));
+            }
+        }, null);
+    }
+
+    /**
+     * 异步删除顺序节点，忽略结果
+     * @param client 本次操作使用的连接
+     * @param node 节点路径
+     */
+    private void deleteSeqNodeAsync(ZooKeeper client, String node) {
+        client.delete(node, -1, (rc, path, ctx) -> {
+        }, null);
     }
 
 
@@ -123,9 +736,16 @@ public class ZookeeperDistributeLock<R> implements DistributeLock<R>, Closeable
      * @throws InterruptedException
      */
     private boolean createTempNode(String nodeName) throws InterruptedException {
+        long startNanos = System.nanoTime();
         try {
             // 创建临时节点，添加锁，如果节点已经存在，会抛出 KeeperException.NodeExistsException
-            zooKeeperClient.create(nodeName, null, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
+            try {
+                client().create(nodeName, null, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
+            } catch (KeeperException.NoNodeException e) {
+                // 目录节点不存在，创建后重试
+                createNode(ZookeeperPaths.parent(nodeName), CreateMode.PERSISTENT);
+                client().create(nodeName, null, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
+            }
             return true;
         } catch (KeeperException e) {
             // 非节点已存在异常则打印日志
@@ -134,41 +754,420 @@ public class ZookeeperDistributeLock<R> implements DistributeLock<R>, Closeable
             }
             // 获取锁失败
             return false;
+        } finally {
+            recordRoundTrip("lock", startNanos);
         }
     }
 
     /**
-     * 删除节点
+     * 一次multi请求原子创建多个临时节点，任一节点已存在则全部不创建
+     * @param ops 创建节点操作
+     * @return boolean
+     * @throws InterruptedException
+     */
+    private boolean createTempNodes(List<Op> ops) throws InterruptedException {
+        long startNanos = System.nanoTime();
+        try {
+            try {
+                client().multi(ops);
+            } catch (KeeperException.NoNodeException e) {
+                // 目录节点不存在，创建后重试
+                for (Op op : ops) {
+                    createNode(ZookeeperPaths.parent(op.getPath()), CreateMode.PERSISTENT);
+                }
+                client().multi(ops);
+            }
+            return true;
+        } catch (KeeperException e) {
+            if (!(e instanceof KeeperException.NodeExistsException)) {
+                log.error("", e);
+            }
+            return false;
+        } finally {
+            recordRoundTrip("multiLock", startNanos);
+        }
+    }
+
+    /**
+     * 在锁节点下创建临时顺序节点，锁节点不存在则先创建锁节点（持久节点或容器节点）
+     * @param lockNode 锁节点
+     * @param seqPrefix 顺序节点前缀
+     * @return 顺序节点路径
+     * @throws KeeperException
+     * @throws InterruptedException
+     */
+    private String createSeqNode(String lockNode, String seqPrefix) throws KeeperException, InterruptedException {
+        String seqNode = lockNode + "/" + seqPrefix;
+        long startNanos = System.nanoTime();
+        try {
+            for (int i = 0; ; i++) {
+                try {
+                    return client().create(seqNode, null, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL_SEQUENTIAL);
+                } catch (KeeperException.NoNodeException e) {
+                    // 锁节点不存在，或刚被清理（容器节点被服务端删除），创建后重试
+                    if (i >= 2) {
+                        throw e;
+                    }
+                    createNode(lockNode, parentNodeMode);
+                }
+            }
+        } finally {
+            recordRoundTrip("lock", startNanos);
+        }
+    }
+
+    /**
+     * 创建节点，父节点不存在则先创建持久父节点，节点已存在则忽略
+     * @param node 节点路径
+     * @param mode 节点类型
+     * @throws KeeperException
+     * @throws InterruptedException
+     */
+    private void createNode(String node, CreateMode mode) throws KeeperException, InterruptedException {
+        try {
+            client().create(node, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, mode);
+        } catch (KeeperException.NodeExistsException ignored) {
+            // 其他客户端已创建
+        } catch (KeeperException.NoNodeException e) {
+            if (node.lastIndexOf('/') <= 0) {
+                throw e;
+            }
+            createNode(ZookeeperPaths.parent(node), CreateMode.PERSISTENT);
+            createNode(node, mode);
+        }
+    }
+
+    /**
+     * 删除顺序节点，节点已不存在则忽略
+     * @param node 节点路径
+     * @throws InterruptedException
+     */
+    private void deleteSeqNode(String node) throws InterruptedException {
+        long startNanos = System.nanoTime();
+        try {
+            client().delete(node, -1);
+        } catch (KeeperException.NoNodeException ignored) {
+            // session过期，节点已被删除
+        } catch (KeeperException e) {
+            log.error("", e);
+        } finally {
+            recordRoundTrip("unlock", startNanos);
+        }
+    }
+
+    /**
+     * 删除锁节点，lockKey已转义，锁节点是没有子节点的临时节点；节点已不存在（session过期）则忽略
      * @param nodeName 节点名称
      * @throws KeeperException
      * @throws InterruptedException
      */
     private void deleteNode(String nodeName) throws KeeperException, InterruptedException {
         try {
-            zooKeeperClient.delete(nodeName, 0);
-        } catch (KeeperException.NotEmptyException e) {
-            // 有子节点，递归删除
-            zooKeeperClient.getChildren(nodeName, false).parallelStream().forEach(child -> {
+            client().delete(nodeName, -1);
+        } catch (KeeperException.NoNodeException ignored) {
+            // session过期，节点已被删除
+        }
+    }
+
+
+    /**
+     * 设置全局等待策略，@Lockable.waitStrategy指定时以方法为准
+     * @param waitStrategy 为null时使用默认的DecorrelatedJitterWaitStrategy
+     */
+    public void setWaitStrategy(WaitStrategy waitStrategy) {
+        this.waitStrategy = waitStrategy != null ? waitStrategy : new DecorrelatedJitterWaitStrategy();
+    }
+
+
+    /******************************* 监控统计 ******************************/
+
+    /**
+     * 设置监控指标
+     * @param metrics
+     */
+    public void setMetrics(LockMetrics metrics) {
+        this.metrics = metrics != null ? metrics : LockMetrics.NOOP;
+    }
+
+    private void recordAcquire(long startNanos, int attempts, String result) {
+        if (metrics != LockMetrics.NOOP) {
+            metrics.recordAcquire(BACKEND, LockContext.name(), System.nanoTime() - startNanos, attempts, result);
+        }
+    }
+
+    private void recordHold(long startNanos) {
+        if (metrics != LockMetrics.NOOP) {
+            metrics.recordHold(BACKEND, LockContext.name(), System.nanoTime() - startNanos);
+        }
+    }
+
+    private void recordRoundTrip(String operation, long startNanos) {
+        if (metrics != LockMetrics.NOOP) {
+            metrics.recordRoundTrip(BACKEND, operation, System.nanoTime() - startNanos);
+        }
+    }
+
+
+    /***************************** 空父节点清理 ******************************/
+
+    /**
+     * 公平锁、读写锁、信号量的父节点使用容器节点，没有子节点后由zookeeper服务端删除，不再后台清理。
+     * 需要zookeeper客户端和服务端都是3.5+，客户端不支持时仍使用持久节点和后台清理
+     * @param containerNodes
+     */
+    public void setContainerNodes(boolean containerNodes) {
+        if (!containerNodes) {
+            parentNodeMode = CreateMode.PERSISTENT;
+        } else if (CONTAINER != null) {
+            parentNodeMode = CONTAINER;
+        } else {
+            log.warn("-------------- zookeeper客户端不支持容器节点（需要3.5+），使用持久节点和后台清理 ............");
+        }
+        scheduleReaper();
+    }
+
+    /**
+     * 设置空父节点清理周期
+     * @param reapIntervalMs 每个周期扫描一遍全部目录，0不清理
+     */
+    public void setReapIntervalMs(long reapIntervalMs) {
+        this.reapIntervalMs = reapIntervalMs;
+        scheduleReaper();
+    }
+
+    private static CreateMode containerMode() {
+        for (CreateMode mode : CreateMode.values()) {
+            if ("CONTAINER".equals(mode.name())) {
+                return mode;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 按当前配置启动或停止清理，使用容器节点时不清理；每次清理一个第一级目录，一个周期扫描完全部目录
+     */
+    private synchronized void scheduleReaper() {
+        if (reapTask != null) {
+            reapTask.cancel(false);
+            reapTask = null;
+        }
+        if (closed || reapIntervalMs <= 0 || parentNodeMode != CreateMode.PERSISTENT) {
+            return;
+        }
+        if (reaper == null) {
+            reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "distributelock-zookeeper-reaper");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        long periodMs = Math.max(100, reapIntervalMs / ZookeeperPaths.FAN_OUT);
+        reapTask = reaper.scheduleWithFixedDelay(this::reap, periodMs, periodMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 清理一个第一级目录下创建超过一个周期且没有子节点的持久节点。
+     * 删除与加锁并发时：删除前已有子节点则删除失败；删除后加锁的客户端重新创建父节点
+     */
+    private void reap() {
+        if (!ready) {
+            return;
+        }
+        String first = ZookeeperPaths.bucket(ROOT_LOCK, reapCursor);
+        reapCursor = (reapCursor + 1) % ZookeeperPaths.FAN_OUT;
+        long createdBefore = System.currentTimeMillis() - reapIntervalMs;
+        AtomicInteger reaped = new AtomicInteger();
+        try {
+            ZooKeeper client = zooKeeperClient;
+            for (String second : children(client, first)) {
+                String bucket = first + "/" + second;
+                List<String> nodes = children(client, bucket);
+                // 批量异步查询节点状态，一次网络往返
+                CountDownLatch latch = new CountDownLatch(nodes.size());
+                for (String node : nodes) {
+                    client.exists(bucket + "/" + node, false, (rc, path, ctx, stat) -> {
+                        if (stat != null && stat.getEphemeralOwner() == 0 && stat.getNumChildren() == 0 && stat.getCtime() < createdBefore) {
+                            client.delete(path, stat.getVersion(), (rc2, path2, ctx2) -> {
+                                if (rc2 == Code.OK.intValue()) {
+                                    reaped.incrementAndGet();
+                                }
+                            }, null);
+                        }
+                        latch.countDown();
+                    }, null);
+                }
+                latch.await(SESSION_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            }
+        } catch (Exception e) {
+            if (log.isDebugEnabled()) log.debug("zookeeper空父节点清理失败：" + first, e);
+        }
+        if (reaped.get() > 0 && log.isDebugEnabled()) log.debug("zookeeper空父节点清理：{}，删除{}个", first, reaped.get());
+    }
+
+    private static List<String> children(ZooKeeper client, String node) throws KeeperException, InterruptedException {
+        try {
+            return client.getChildren(node, false);
+        } catch (KeeperException.NoNodeException e) {
+            return Collections.emptyList();
+        }
+    }
+
+
+    /***************************** 连接管理 ******************************/
+
+    /**
+     * 创建zookeeper连接，连接在后台建立，连接成功后由watcher初始化根节点
+     */
+    private void connect() {
+        if (closed) {
+            return;
+        }
+        try {
+            // 持有readyLock创建，watcher收到事件时zooKeeperClient已是本连接
+            synchronized (readyLock) {
+                ZooKeeper[] client = new ZooKeeper[1];
+                client[0] = new ZooKeeper(connectString, SESSION_TIMEOUT_MS, event -> onConnectionEvent(client[0], event));
+                this.zooKeeperClient = client[0];
+            }
+        } catch (Exception e) {
+            // 地址无法解析等，稍后重试
+            log.error("-------------- zookeeper连接创建失败，" + RECONNECT_DELAY_MS + "ms后重试：" + connectString, e);
+            timer.newTimeout(() -> ForkJoinPool.commonPool().execute(this::connect), RECONNECT_DELAY_MS);
+        }
+    }
+
+    /**
+     * 连接状态变化：连接成功后初始化根节点；断开时等待自动重连；session过期后重建连接
+     * @param client 产生事件的连接，已被替换的旧连接的事件忽略
+     * @param event
+     */
+    private void onConnectionEvent(ZooKeeper client, WatchedEvent event) {
+        if (event.getType() != Watcher.Event.EventType.None) {
+            return;
+        }
+        synchronized (readyLock) {
+            if (client != zooKeeperClient) {
+                return;
+            }
+        }
+        switch (event.getState()) {
+            case SyncConnected:
+                initRootNode(client);
+                break;
+            case Disconnected:
+                setReady(false);
+                log.warn("-------------- zookeeper连接断开，等待重连 ............");
+                break;
+            case Expired:
+                setReady(false);
+                log.warn("-------------- zookeeper session过期，持有的锁已失效，重建连接 ............");
+                // 临时顺序节点已随session删除
+                heldNodes.clear();
                 try {
-                    deleteNode(nodeName.concat("/").concat(child));
-                } catch (Exception e1) {
-                    log.error("", e1);
+                    client.close();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 }
-            });
-            // 子节点删除完成后，再删除自身
-            zooKeeperClient.delete(nodeName, 0);
+                connect();
+                break;
+            default:
+                break;
         }
     }
 
+    /**
+     * 异步创建根节点，已存在或创建成功后连接就绪
+     * @param client
+     */
+    private void initRootNode(ZooKeeper client) {
+        client.create(ROOT_LOCK, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT, (rc, path, ctx, name) -> {
+            Code code = Code.get(rc);
+            if (code == Code.OK || code == Code.NODEEXISTS) {
+                setReady(true);
+                log.info("-------------- zookeeper分布式锁连接就绪 ............");
+            } else {
+                // 下次连接成功时重试
+                log.error("-------------- zookeeper分布式锁根节点初始化失败：{}", code);
+            }
+        }, null);
+    }
+
+    private void setReady(boolean ready) {
+        synchronized (readyLock) {
+            this.ready = ready;
+            readyLock.notifyAll();
+        }
+    }
+
+    /**
+     * 异步操作使用的连接，不等待：连接未创建或未就绪时立即抛出ConnectionLossException，由调用方以异常完成结果
+     * @return ZooKeeper
+     * @throws KeeperException.ConnectionLossException 连接未就绪
+     */
+    private ZooKeeper asyncClient() throws KeeperException.ConnectionLossException {
+        ZooKeeper client = zooKeeperClient;
+        if (client == null || !ready) {
+            throw new KeeperException.ConnectionLossException();
+        }
+        return client;
+    }
+
+    /**
+     * 同步操作使用的连接，连接未就绪时最多等待connectTimeoutMs
+     * @return ZooKeeper
+     * @throws KeeperException.ConnectionLossException 等待超时
+     * @throws InterruptedException
+     */
+    private ZooKeeper client() throws KeeperException, InterruptedException {
+        if (!ready) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(connectTimeoutMs);
+            synchronized (readyLock) {
+                long remainNanos;
+                while (!ready && (remainNanos = deadline - System.nanoTime()) > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(readyLock, remainNanos);
+                }
+            }
+            if (!ready) {
+                throw new KeeperException.ConnectionLossException();
+            }
+        }
+        return zooKeeperClient;
+    }
+
+    /**
+     * 设置同步操作等待连接就绪的最长时间
+     * @param connectTimeoutMs
+     */
+    public void setConnectTimeoutMs(long connectTimeoutMs) {
+        this.connectTimeoutMs = connectTimeoutMs;
+    }
+
+    @Override
+    public Status health() {
+        if (ready) {
+            return Status.UP;
+        }
+        ZooKeeper client = zooKeeperClient;
+        return !closed && client != null && client.getState().isAlive() ? Status.CONNECTING : Status.DOWN;
+    }
 
     /**
      * 关闭zooKeeper连接
      */
     @Override
     public void close() {
-        if (zooKeeperClient != null) {
+        closed = true;
+        synchronized (this) {
+            if (reaper != null) {
+                reaper.shutdownNow();
+            }
+        }
+        setReady(false);
+        ZooKeeper client = zooKeeperClient;
+        if (client != null) {
             try {
-                zooKeeperClient.close();
+                client.close();
             } catch (InterruptedException e) {
                 log.error("", e);
             }
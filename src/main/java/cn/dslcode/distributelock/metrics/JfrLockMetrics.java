@@ -0,0 +1,124 @@
+package cn.dslcode.distributelock.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * @author dongsilin
+ * @version 2018/12/2.
+ * JDK Flight Recorder事件：加锁（等待时间、请求次数、结果）、持有锁时间、后端单次请求耗时，
+ * 与线程、GC、IO等JFR事件放在同一时间线上，可以区分耗时是在等锁、请求后端还是执行业务逻辑。
+ * 包装其他监控指标实现，同时转发给被包装者。事件时间为记录时刻（操作结束时），耗时在各事件的时间字段中。
+ * 没有开启JFR录制时事件不提交，只多一次isEnabled判断；需要JDK 8u262+或JDK 11+
+ */
+public class JfrLockMetrics implements LockMetrics {
+
+    /** 被包装的监控指标 */
+    private final LockMetrics delegate;
+
+    /**
+     * @param delegate 被包装的监控指标，为null时只记录JFR事件
+     */
+    public JfrLockMetrics(LockMetrics delegate) {
+        this.delegate = delegate != null ? delegate : LockMetrics.NOOP;
+    }
+
+    @Override
+    public void recordAcquire(String backend, String name, long nanos, int attempts, String result) {
+        AcquireEvent event = new AcquireEvent();
+        if (event.isEnabled()) {
+            event.backend = backend;
+            event.name = name;
+            event.waitTime = nanos;
+            event.attempts = attempts;
+            event.result = result;
+            event.commit();
+        }
+        delegate.recordAcquire(backend, name, nanos, attempts, result);
+    }
+
+    @Override
+    public void recordHold(String backend, String name, long nanos) {
+        HoldEvent event = new HoldEvent();
+        if (event.isEnabled()) {
+            event.backend = backend;
+            event.name = name;
+            event.holdTime = nanos;
+            event.commit();
+        }
+        delegate.recordHold(backend, name, nanos);
+    }
+
+    @Override
+    public void recordLost(String backend, String name) {
+        delegate.recordLost(backend, name);
+    }
+
+    @Override
+    public void recordRoundTrip(String backend, String operation, long nanos) {
+        RoundTripEvent event = new RoundTripEvent();
+        if (event.isEnabled()) {
+            event.backend = backend;
+            event.operation = operation;
+            event.roundTripTime = nanos;
+            event.commit();
+        }
+        delegate.recordRoundTrip(backend, operation, nanos);
+    }
+
+
+    @Name("cn.dslcode.distributelock.Acquire")
+    @Label("Lock Acquire")
+    @Description("加锁，含等待时间")
+    @Category("Distribute Lock")
+    @StackTrace(false)
+    static class AcquireEvent extends Event {
+        @Label("Backend")
+        String backend;
+        @Label("Name")
+        String name;
+        @Label("Wait Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long waitTime;
+        @Label("Attempts")
+        int attempts;
+        @Label("Result")
+        String result;
+    }
+
+    @Name("cn.dslcode.distributelock.Hold")
+    @Label("Lock Hold")
+    @Description("持有锁时间（回调业务逻辑执行时间）")
+    @Category("Distribute Lock")
+    @StackTrace(false)
+    static class HoldEvent extends Event {
+        @Label("Backend")
+        String backend;
+        @Label("Name")
+        String name;
+        @Label("Hold Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long holdTime;
+    }
+
+    @Name("cn.dslcode.distributelock.RoundTrip")
+    @Label("Lock Backend Round Trip")
+    @Description("后端单次请求耗时")
+    @Category("Distribute Lock")
+    @StackTrace(false)
+    static class RoundTripEvent extends Event {
+        @Label("Backend")
+        String backend;
+        @Label("Operation")
+        String operation;
+        @Label("Round Trip Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long roundTripTime;
+    }
+
+}
@@ -0,0 +1,70 @@
+package cn.dslcode.distributelock.metrics;
+
+/**
+ * @author dongsilin
+ * @version 2018/11/20.
+ * 分布式锁监控指标，按后端（redis/zookeeper）和锁名称（@Lockable.key）统计。
+ * 默认NOOP，不计时也不统计；接入Micrometer等监控系统时实现此接口并注册为bean即可
+ */
+public interface LockMetrics {
+
+    /** 不统计 */
+    LockMetrics NOOP = new LockMetrics() {
+    };
+
+    /** 加锁结果：成功 */
+    String SUCCESS = "success";
+    /** 加锁结果：不等待直接失败 */
+    String FAIL = "fail";
+    /** 加锁结果：等待超时 */
+    String TIMEOUT = "timeout";
+    /** 加锁结果：后端异常 */
+    String ERROR = "error";
+
+    /**
+     * 加锁耗时
+     * @param backend 后端
+     * @param name 锁名称
+     * @param nanos 加锁耗时（含等待）/ns
+     * @param attempts 请求后端次数
+     * @param result 加锁结果
+     */
+    default void recordAcquire(String backend, String name, long nanos, int attempts, String result) {
+    }
+
+    /**
+     * 持有锁时间（回调业务逻辑执行时间）
+     * @param backend 后端
+     * @param name 锁名称
+     * @param nanos 持有时间/ns
+     */
+    default void recordHold(String backend, String name, long nanos) {
+    }
+
+    /**
+     * 锁丢失：续期时发现锁已过期或被其他持有者获取，业务逻辑执行期间不再互斥
+     * @param backend 后端
+     * @param name 锁名称
+     */
+    default void recordLost(String backend, String name) {
+    }
+
+    /**
+     * 后端单次请求耗时
+     * @param backend 后端
+     * @param operation 操作：lock/unlock
+     * @param nanos 请求耗时/ns
+     */
+    default void recordRoundTrip(String backend, String operation, long nanos) {
+    }
+
+    /**
+     * 加锁结果
+     * @param getLock 是否获取成功
+     * @param waitTimeMs 等待时间/ms
+     * @return 加锁结果
+     */
+    static String result(boolean getLock, int waitTimeMs) {
+        return getLock ? SUCCESS : waitTimeMs > 0 ? TIMEOUT : FAIL;
+    }
+}
@@ -0,0 +1,154 @@
+package cn.dslcode.distributelock.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author dongsilin
+ * @version 2018/11/20.
+ * 内存统计的分布式锁监控指标，没有接入监控系统时用于定位热点锁和调整waitTimeMs。
+ * 耗时按2的幂（微秒）分桶，计数全部使用LongAdder，统计本身不加锁
+ */
+public class SimpleLockMetrics implements LockMetrics {
+
+    /** 后端 + 锁名称 -> 统计 */
+    private final ConcurrentHashMap<String, LockStats> lockStats = new ConcurrentHashMap<>();
+    /** 后端 + 操作 -> 请求耗时 */
+    private final ConcurrentHashMap<String, Histogram> roundTrips = new ConcurrentHashMap<>();
+
+    @Override
+    public void recordAcquire(String backend, String name, long nanos, int attempts, String result) {
+        LockStats stats = stats(backend, name);
+        stats.acquire.record(nanos);
+        stats.attempts.record(attempts);
+        switch (result) {
+            case SUCCESS: stats.success.increment(); break;
+            case FAIL: stats.fail.increment(); break;
+            case TIMEOUT: stats.timeout.increment(); break;
+            default: stats.error.increment();
+        }
+    }
+
+    @Override
+    public void recordHold(String backend, String name, long nanos) {
+        stats(backend, name).hold.record(nanos);
+    }
+
+    @Override
+    public void recordLost(String backend, String name) {
+        stats(backend, name).lost.increment();
+    }
+
+    @Override
+    public void recordRoundTrip(String backend, String operation, long nanos) {
+        String key = backend + ':' + operation;
+        Histogram histogram = roundTrips.get(key);
+        if (histogram == null) {
+            histogram = roundTrips.computeIfAbsent(key, k -> new Histogram());
+        }
+        histogram.record(nanos);
+    }
+
+    /**
+     * 统计快照，按锁统计和后端请求统计输出
+     * @return 后端:锁名称 -> 指标
+     */
+    public Map<String, Map<String, Object>> snapshot() {
+        Map<String, Map<String, Object>> snapshot = new LinkedHashMap<>();
+        lockStats.forEach((key, stats) -> {
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("success", stats.success.sum());
+            values.put("fail", stats.fail.sum());
+            values.put("timeout", stats.timeout.sum());
+            values.put("error", stats.error.sum());
+            values.put("lost", stats.lost.sum());
+            values.put("acquire", stats.acquire.snapshot(true));
+            values.put("attempts", stats.attempts.snapshot(false));
+            values.put("hold", stats.hold.snapshot(true));
+            snapshot.put(key, values);
+        });
+        roundTrips.forEach((key, histogram) -> {
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("roundTrip", histogram.snapshot(true));
+            snapshot.put(key, values);
+        });
+        return snapshot;
+    }
+
+    private LockStats stats(String backend, String name) {
+        String key = backend + ':' + name;
+        LockStats stats = lockStats.get(key);
+        if (stats == null) {
+            stats = lockStats.computeIfAbsent(key, k -> new LockStats());
+        }
+        return stats;
+    }
+
+
+    private static class LockStats {
+        private final LongAdder success = new LongAdder();
+        private final LongAdder fail = new LongAdder();
+        private final LongAdder timeout = new LongAdder();
+        private final LongAdder error = new LongAdder();
+        private final LongAdder lost = new LongAdder();
+        private final Histogram acquire = new Histogram();
+        private final Histogram attempts = new Histogram();
+        private final Histogram hold = new Histogram();
+    }
+
+    /**
+     * 2的幂分桶直方图
+     */
+    private static class Histogram {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+        /** 第i个桶：[2^(i-1), 2^i) */
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+
+        private void record(long value) {
+            count.increment();
+            total.add(value);
+            max.accumulate(value);
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(Math.max(0, value)));
+        }
+
+        /**
+         * @param nanos 是否耗时（ns），耗时按微秒输出
+         */
+        private Map<String, Object> snapshot(boolean nanos) {
+            long n = count.sum();
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("count", n);
+            values.put("mean", n == 0 ? 0 : unit(total.sum() / n, nanos));
+            values.put("p50", unit(percentile(n, 0.5), nanos));
+            values.put("p99", unit(percentile(n, 0.99), nanos));
+            values.put("max", unit(max.get(), nanos));
+            return values;
+        }
+
+        /** 分位数，取所在桶的上界 */
+        private long percentile(long n, double p) {
+            long rank = (long) Math.ceil(n * p);
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank && seen > 0) {
+                    return i == 0 ? 0 : (1L << i) - 1;
+                }
+            }
+            return 0;
+        }
+
+        private static long unit(long value, boolean nanos) {
+            return nanos ? TimeUnit.NANOSECONDS.toMicros(value) : value;
+        }
+    }
+
+}
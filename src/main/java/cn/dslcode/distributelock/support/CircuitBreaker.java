@@ -0,0 +1,139 @@
+package cn.dslcode.distributelock.support;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author dongsilin
+ * @version 2018/12/4.
+ * 熔断器，按最近windowSize次调用统计失败率和慢调用率，任一超过阈值即打开。
+ * 打开后不再统计，由使用方探测后端恢复后调用{@link #reset()}关闭。
+ * 统计不加锁，窗口计数在并发下是近似值，足够用于判断后端是否健康
+ */
+public class CircuitBreaker {
+
+    /** 窗口中的调用结果：空 */
+    private static final int EMPTY = 0;
+    /** 窗口中的调用结果：正常 */
+    private static final int OK = 1;
+    /** 窗口中的调用结果：慢调用 */
+    private static final int SLOW = 2;
+    /** 窗口中的调用结果：失败 */
+    private static final int ERROR = 3;
+
+    /** 统计窗口大小 */
+    private final int windowSize;
+    /** 窗口中至少有多少次调用才判断 */
+    private final int minCalls;
+    /** 失败率阈值 */
+    private final double failureRateThreshold;
+    /** 慢调用率阈值 */
+    private final double slowRateThreshold;
+    /** 慢调用耗时/ns */
+    private final long slowCallNanos;
+
+    /** 最近windowSize次调用结果，环形 */
+    private final AtomicIntegerArray window;
+    private final AtomicLong cursor = new AtomicLong();
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicInteger slows = new AtomicInteger();
+    private final AtomicInteger errors = new AtomicInteger();
+    /** 是否打开 */
+    private volatile boolean open;
+    /** 最近一次打开的时间，System.nanoTime */
+    private volatile long openedAt;
+
+    /**
+     * @param windowSize 统计窗口大小
+     * @param minCalls 窗口中至少有多少次调用才判断
+     * @param failureRateThreshold 失败率阈值，0~1
+     * @param slowRateThreshold 慢调用率阈值，0~1
+     * @param slowCallMs 慢调用耗时/ms
+     */
+    public CircuitBreaker(int windowSize, int minCalls, double failureRateThreshold, double slowRateThreshold, long slowCallMs) {
+        this.windowSize = windowSize;
+        this.minCalls = Math.min(minCalls, windowSize);
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowRateThreshold = slowRateThreshold;
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMs);
+        this.window = new AtomicIntegerArray(windowSize);
+    }
+
+    /**
+     * 记录一次调用
+     * @param nanos 耗时/ns
+     * @param error 是否失败
+     * @return boolean 本次调用是否使熔断器打开
+     */
+    public boolean record(long nanos, boolean error) {
+        if (open) {
+            return false;
+        }
+        int outcome = error ? ERROR : nanos > slowCallNanos ? SLOW : OK;
+        int previous = window.getAndSet((int) (cursor.getAndIncrement() % windowSize), outcome);
+        count(previous, -1);
+        count(outcome, 1);
+        int total = calls.get();
+        if (total < minCalls) {
+            return false;
+        }
+        if (errors.get() >= failureRateThreshold * total || slows.get() >= slowRateThreshold * total) {
+            return trip();
+        }
+        return false;
+    }
+
+    /**
+     * 是否打开
+     * @return boolean
+     */
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * 最近一次打开的时间
+     * @return System.nanoTime
+     */
+    public long openedAt() {
+        return openedAt;
+    }
+
+    /**
+     * 后端恢复，关闭熔断器并清空统计
+     */
+    public synchronized void reset() {
+        clear();
+        open = false;
+    }
+
+    private synchronized boolean trip() {
+        if (open) {
+            return false;
+        }
+        openedAt = System.nanoTime();
+        open = true;
+        return true;
+    }
+
+    private void clear() {
+        for (int i = 0; i < windowSize; i++) {
+            count(window.getAndSet(i, EMPTY), -1);
+        }
+    }
+
+    private void count(int outcome, int delta) {
+        if (outcome == EMPTY) {
+            return;
+        }
+        calls.addAndGet(delta);
+        if (outcome == SLOW) {
+            slows.addAndGet(delta);
+        } else if (outcome == ERROR) {
+            errors.addAndGet(delta);
+        }
+    }
+
+}
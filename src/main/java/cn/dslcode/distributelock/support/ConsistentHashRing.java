@@ -0,0 +1,104 @@
+package cn.dslcode.distributelock.support;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author dongsilin
+ * @version 2018/12/5.
+ * 一致性hash环，每个节点按名称生成virtualNodes个虚拟节点，key顺时针落到第一个虚拟节点所属的节点。
+ * 增加一个节点只有约1/N的key换节点，其余key不变；节点名称决定虚拟节点位置，与节点列表顺序无关。
+ * 创建后不可变，虚拟节点位置保存在有序long数组中，查找为一次二分查找，不加锁
+ */
+public final class ConsistentHashRing<T> {
+
+    /** 虚拟节点位置，升序 */
+    private final long[] points;
+    /** 虚拟节点所属节点，与points一一对应 */
+    private final int[] owners;
+    /** 节点 */
+    private final List<T> nodes;
+
+    /**
+     * @param names 节点名称，不能重复
+     * @param nodes 节点，与names一一对应
+     * @param virtualNodes 每个节点的虚拟节点数量
+     */
+    public ConsistentHashRing(List<String> names, List<T> nodes, int virtualNodes) {
+        if (names.isEmpty() || names.size() != nodes.size()) {
+            throw new IllegalArgumentException("节点名称与节点数量不一致或为空");
+        }
+        this.nodes = new ArrayList<>(nodes);
+        int size = names.size() * virtualNodes;
+        long[] positions = new long[size];
+        for (int node = 0, i = 0; node < names.size(); node++) {
+            for (int v = 0; v < virtualNodes; v++, i++) {
+                positions[i] = hash(names.get(node) + '#' + v);
+            }
+        }
+        // 按位置排序，位置相同的虚拟节点保留名称靠前的节点，保证结果与节点列表顺序无关
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> {
+            int c = Long.compare(positions[a], positions[b]);
+            return c != 0 ? c : names.get(a / virtualNodes).compareTo(names.get(b / virtualNodes));
+        });
+        this.points = new long[size];
+        this.owners = new int[size];
+        for (int i = 0; i < size; i++) {
+            points[i] = positions[order[i]];
+            owners[i] = order[i] / virtualNodes;
+        }
+    }
+
+    /**
+     * key所属节点
+     * @param key
+     * @return T
+     */
+    public T get(String key) {
+        return nodes.get(indexOf(key));
+    }
+
+    /**
+     * key所属节点在节点列表中的下标
+     * @param key
+     * @return int
+     */
+    public int indexOf(String key) {
+        int i = Arrays.binarySearch(points, hash(key));
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return owners[i == points.length ? 0 : i];
+    }
+
+    /**
+     * 节点数量
+     * @return int
+     */
+    public int size() {
+        return nodes.size();
+    }
+
+    /**
+     * 64位FNV-1a，再经murmur3的fmix64打散，相近的key在环上均匀分布
+     */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+}
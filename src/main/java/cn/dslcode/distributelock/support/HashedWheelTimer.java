@@ -0,0 +1,170 @@
+package cn.dslcode.distributelock.support;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author dongsilin
+ * @version 2018/11/8.
+ * 时间轮定时器，所有锁的续期、过期等定时任务共用一个工作线程，
+ * 添加/取消任务O(1)，不会为每个锁创建线程或调度任务。
+ * 任务在工作线程中执行，必须是轻量操作，耗时操作需要交给其他线程
+ */
+@Slf4j
+public class HashedWheelTimer {
+
+    /** 默认共享定时器，10ms一格，512格 */
+    private static class DefaultHolder {
+        private static final HashedWheelTimer INSTANCE = new HashedWheelTimer("distributelock-timer", 10, 512);
+    }
+
+    /** 每格时间/ns */
+    private final long tickNanos;
+    /** 时间轮 */
+    private final Queue<Timeout>[] wheel;
+    private final int mask;
+    /** 新添加的任务，由工作线程放入时间轮 */
+    private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+    private final long startTime = System.nanoTime();
+    private final Thread worker;
+    private volatile boolean running = true;
+
+    /**
+     * @param name 工作线程名称
+     * @param tickMs 每格时间/ms
+     * @param ticksPerWheel 格数，向上取2的幂
+     */
+    @SuppressWarnings("unchecked")
+    public HashedWheelTimer(String name, long tickMs, int ticksPerWheel) {
+        int size = 1;
+        while (size < ticksPerWheel) {
+            size <<= 1;
+        }
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMs);
+        this.wheel = new Queue[size];
+        for (int i = 0; i < size; i++) {
+            this.wheel[i] = new ArrayDeque<>();
+        }
+        this.mask = size - 1;
+        this.worker = new Thread(this::work, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * 默认共享定时器
+     * @return HashedWheelTimer
+     */
+    public static HashedWheelTimer getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    /**
+     * 添加定时任务
+     * @param task 任务
+     * @param delayMs 延迟时间/ms
+     * @return Timeout 可用于取消任务
+     */
+    public Timeout newTimeout(Runnable task, long delayMs) {
+        Timeout timeout = new Timeout(task, System.nanoTime() - startTime + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMs)));
+        newTimeouts.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * 停止定时器，未执行的任务被丢弃
+     */
+    public void stop() {
+        running = false;
+        worker.interrupt();
+    }
+
+    private void work() {
+        long tick = 0;
+        while (running) {
+            // 等到下一格
+            long sleepNanos = tickNanos * (tick + 1) - (System.nanoTime() - startTime);
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    continue;
+                }
+            }
+            transferNewTimeouts(tick);
+            expire(wheel[(int) (tick & mask)], tick);
+            tick++;
+        }
+    }
+
+    /**
+     * 新任务放入对应的格子，已过期的任务放入当前格子
+     */
+    private void transferNewTimeouts(long currentTick) {
+        Timeout timeout;
+        while ((timeout = newTimeouts.poll()) != null) {
+            if (timeout.cancelled) {
+                continue;
+            }
+            long ticks = Math.max(timeout.deadline / tickNanos, currentTick);
+            timeout.rounds = (ticks - currentTick) / wheel.length;
+            wheel[(int) (ticks & mask)].add(timeout);
+        }
+    }
+
+    /**
+     * 执行当前格子中到期的任务
+     */
+    private void expire(Queue<Timeout> bucket, long currentTick) {
+        for (int i = bucket.size(); i > 0; i--) {
+            Timeout timeout = bucket.poll();
+            if (timeout.cancelled) {
+                continue;
+            }
+            if (timeout.rounds > 0) {
+                timeout.rounds--;
+                bucket.add(timeout);
+                continue;
+            }
+            try {
+                timeout.task.run();
+            } catch (Throwable e) {
+                log.error("", e);
+            }
+        }
+    }
+
+
+    /**
+     * 定时任务句柄
+     */
+    public static class Timeout {
+
+        private final Runnable task;
+        /** 到期时间，相对定时器启动时间/ns */
+        private final long deadline;
+        /** 剩余圈数，只在工作线程中修改 */
+        private long rounds;
+        private volatile boolean cancelled;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * 取消任务，时间轮转到时直接丢弃
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+}
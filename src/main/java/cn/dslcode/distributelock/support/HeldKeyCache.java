@@ -0,0 +1,120 @@
+package cn.dslcode.distributelock.support;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author dongsilin
+ * @version 2018/11/29.
+ * 锁占用缓存（负缓存）：加锁失败时后端返回当前持有者的剩余过期时间，本地记录“该key在T之前被占用”，
+ * T之前不等待的加锁请求直接本地失败，不再请求后端；本JVM释放该key时立即失效。
+ * 用于防重复提交（waitTimeMs=0）场景，重试风暴时被拒绝的请求不再产生网络请求。
+ * 其他JVM提前释放锁时本地感知不到，最多误判maxTtlMs，因此缓存时间不超过maxTtlMs
+ */
+public class HeldKeyCache {
+
+    /** 失效版本分段数 */
+    private static final int STRIPES = 64;
+
+    /** lockKey -> 占用截止时间（System.nanoTime） */
+    private final Map<String, Long> heldUntil = new ConcurrentHashMap<>();
+    /** 每段的失效版本号，读取后端结果期间发生过本地释放则不缓存，避免释放后又写入过时的结果 */
+    private final AtomicLongArray versions = new AtomicLongArray(STRIPES);
+    /** 最大缓存key数量 */
+    private final int maxSize;
+    /** 最大缓存时间/ns */
+    private final long maxTtlNanos;
+    /** 两次清理过期key的最小间隔/ns，缓存满时不是每次put都全量扫描 */
+    private final long sweepIntervalNanos;
+    /** 上次清理过期key的时间，System.nanoTime */
+    private final AtomicLong lastSweep = new AtomicLong(System.nanoTime());
+
+    /**
+     * @param maxSize 最大缓存key数量，超过时清理过期key（每maxTtlMs/4最多一次），仍然超过则不再缓存新key
+     * @param maxTtlMs 最大缓存时间/ms
+     */
+    public HeldKeyCache(int maxSize, long maxTtlMs) {
+        this.maxSize = maxSize;
+        this.maxTtlNanos = TimeUnit.MILLISECONDS.toNanos(maxTtlMs);
+        this.sweepIntervalNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(1), maxTtlNanos / 4);
+    }
+
+    /**
+     * 是否确定被占用
+     * @param lockKey 锁key
+     * @return boolean 在缓存有效期内返回true
+     */
+    public boolean isHeld(String lockKey) {
+        Long until = heldUntil.get(lockKey);
+        if (until == null) {
+            return false;
+        }
+        if (until - System.nanoTime() > 0) {
+            return true;
+        }
+        heldUntil.remove(lockKey, until);
+        return false;
+    }
+
+    /**
+     * 请求后端之前读取失效版本号
+     * @param lockKey 锁key
+     * @return 版本号，传给{@link #put(String, long, long)}
+     */
+    public long version(String lockKey) {
+        return versions.get(stripe(lockKey));
+    }
+
+    /**
+     * 记录占用
+     * @param lockKey 锁key
+     * @param ttlMs 剩余占用时间/ms，小于等于0不记录
+     * @param version 请求后端之前读取的版本号，期间有本地释放则不记录
+     */
+    public void put(String lockKey, long ttlMs, long version) {
+        if (ttlMs <= 0) {
+            return;
+        }
+        if (heldUntil.size() >= maxSize && !evictExpired()) {
+            return;
+        }
+        Long until = System.nanoTime() + Math.min(TimeUnit.MILLISECONDS.toNanos(ttlMs), maxTtlNanos);
+        heldUntil.put(lockKey, until);
+        // 写入期间发生了本地释放，撤销刚写入的结果，其他线程已写入的新结果保留
+        if (versions.get(stripe(lockKey)) != version) {
+            heldUntil.remove(lockKey, until);
+        }
+    }
+
+    /**
+     * 本JVM释放锁后失效
+     * @param lockKey 锁key
+     */
+    public void invalidate(String lockKey) {
+        versions.incrementAndGet(stripe(lockKey));
+        heldUntil.remove(lockKey);
+    }
+
+    /**
+     * 清理过期key，距上次清理不足sweepIntervalNanos或其他线程正在清理时不清理，
+     * 重试风暴中缓存满时被拒绝的请求不会每次都扫描整个map
+     * @return 清理后是否有空间
+     */
+    private boolean evictExpired() {
+        long now = System.nanoTime();
+        long last = lastSweep.get();
+        if (now - last < sweepIntervalNanos || !lastSweep.compareAndSet(last, now)) {
+            return false;
+        }
+        heldUntil.values().removeIf(until -> until - now <= 0);
+        return heldUntil.size() < maxSize;
+    }
+
+    private static int stripe(String lockKey) {
+        return lockKey.hashCode() & (STRIPES - 1);
+    }
+
+}
@@ -0,0 +1,47 @@
+package cn.dslcode.distributelock.support;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author dongsilin
+ * @version 2018/11/28.
+ * 锁value生成器，替代UUID.randomUUID()：UUID每次都要访问共享的SecureRandom，高并发下有竞争。
+ * token = 进程标识（启动时随机生成一次） + 进程内序号，序号按块分配给线程，线程内自增，不加锁、不竞争
+ */
+public final class LockTokens {
+
+    /** 每个线程每次分配的序号数量 */
+    private static final long BLOCK_SIZE = 1 << 16;
+    /** 进程标识，16位十六进制，不同进程、同一进程不同启动都不同 */
+    private static final String NODE_ID = String.format("%016x:", new SecureRandom().nextLong());
+    /** 下一个序号块 */
+    private static final AtomicLong NEXT_BLOCK = new AtomicLong();
+    /** 线程当前序号块：[下一个序号, 块结束序号) */
+    private static final ThreadLocal<long[]> SEQUENCE = ThreadLocal.withInitial(() -> new long[2]);
+
+    private LockTokens() {
+    }
+
+    /**
+     * 生成进程内唯一、跨进程唯一的锁value
+     * @return token
+     */
+    public static String next() {
+        long[] sequence = SEQUENCE.get();
+        if (sequence[0] == sequence[1]) {
+            sequence[0] = NEXT_BLOCK.getAndIncrement() * BLOCK_SIZE;
+            sequence[1] = sequence[0] + BLOCK_SIZE;
+        }
+        return NODE_ID.concat(Long.toString(sequence[0]++, 36));
+    }
+
+    /**
+     * 进程标识，可用于从锁value判断持有锁的进程
+     * @return 进程标识
+     */
+    public static String nodeId() {
+        return NODE_ID.substring(0, NODE_ID.length() - 1);
+    }
+
+}
@@ -0,0 +1,108 @@
+package cn.dslcode.distributelock.support;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author dongsilin
+ * @version 2018/12/9.
+ * 流式分位数估计：对数线性分桶直方图，每个2的幂区间再分8个子桶，相对误差不超过12.5%，分位数取所在桶的上界（偏大）。
+ * 按样本数分窗口，统计最近两个窗口（windowSize ~ 2 * windowSize个样本），旧样本随窗口轮换淘汰。
+ * 记录只有两次原子自增，不加锁；轮换时少量并发记录可能丢失，不影响估计
+ */
+public final class PercentileSketch {
+
+    /** 每个2的幂区间的子桶数量的位数 */
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    /** 桶数量，覆盖全部非负long */
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    /** 每个窗口的样本数 */
+    private final int windowSize;
+    /** 当前窗口 */
+    private volatile Window current = new Window();
+    /** 上一个窗口 */
+    private volatile Window previous = new Window();
+
+    /**
+     * @param windowSize 每个窗口的样本数
+     */
+    public PercentileSketch(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * 记录一个样本
+     * @param value 非负数，负数按0记录
+     */
+    public void record(long value) {
+        Window window = current;
+        window.buckets.incrementAndGet(index(Math.max(0, value)));
+        if (window.count.incrementAndGet() == windowSize) {
+            previous = window;
+            current = new Window();
+        }
+    }
+
+    /**
+     * 最近两个窗口的样本数
+     * @return long
+     */
+    public long count() {
+        return (long) current.count.get() + previous.count.get();
+    }
+
+    /**
+     * 最近两个窗口的分位数
+     * @param p 0 ~ 1
+     * @return 分位数所在桶的上界，没有样本时为0
+     */
+    public long percentile(double p) {
+        Window cur = current;
+        Window prev = previous;
+        long[] counts = new long[BUCKETS];
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = cur.buckets.get(i) + prev.buckets.get(i);
+            n += counts[i];
+        }
+        long rank = Math.max(1, (long) Math.ceil(n * p));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return upperBound(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 小于SUB_BUCKETS的值每个值一个桶，其余按最高位所在的2的幂区间和其后SUB_BITS位分桶
+     */
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+
+    private static class Window {
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicInteger count = new AtomicInteger();
+    }
+
+}
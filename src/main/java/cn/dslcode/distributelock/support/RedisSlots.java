@@ -0,0 +1,103 @@
+package cn.dslcode.distributelock.support;
+
+import java.nio.charset.StandardCharsets;
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.util.ClassUtils;
+
+/**
+ * @author dongsilin
+ * @version 2018/11/24.
+ * redis cluster hash slot计算，与redis服务端CRC16(key) % 16384一致，支持hash tag
+ */
+public final class RedisSlots {
+
+    /** cluster slot数量 */
+    public static final int SLOT_COUNT = 16384;
+
+    /** 是否使用lettuce客户端，使用jedis时没有lettuce的类 */
+    private static final boolean LETTUCE_PRESENT = ClassUtils.isPresent("io.lettuce.core.RedisClient", RedisSlots.class.getClassLoader());
+
+    /** CRC16/XMODEM查表 */
+    private static final int[] CRC16_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 8;
+            for (int j = 0; j < 8; j++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+            CRC16_TABLE[i] = crc & 0xFFFF;
+        }
+    }
+
+    private RedisSlots() {
+    }
+
+    /**
+     * 是否cluster模式，lettuce按连接配置判断，不建立连接；其他客户端尝试获取cluster连接
+     * @param connectionFactory
+     * @return boolean
+     */
+    public static boolean isCluster(RedisConnectionFactory connectionFactory) {
+        if (LETTUCE_PRESENT && connectionFactory instanceof LettuceConnectionFactory) {
+            return ((LettuceConnectionFactory) connectionFactory).getClusterConfiguration() != null;
+        }
+        try {
+            RedisClusterConnection connection = connectionFactory.getClusterConnection();
+            connection.close();
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * 锁在redis中的key，cluster模式下lockKey作为hash tag，
+     * 使lockKey相同的锁key、续期、多key脚本落在同一个slot；lockKey已包含hash tag时原样使用
+     * @param prefix key前缀
+     * @param lockKey 锁key
+     * @param cluster 是否cluster模式
+     * @return redis key
+     */
+    public static String redisKey(String prefix, String lockKey, boolean cluster) {
+        if (!cluster || hashTagRange(lockKey) != null) {
+            return prefix + lockKey;
+        }
+        return new StringBuilder(prefix.length() + lockKey.length() + 2)
+            .append(prefix).append('{').append(lockKey).append('}').toString();
+    }
+
+    /**
+     * 计算key所在的slot
+     * @param key redis key
+     * @return slot
+     */
+    public static int slot(String key) {
+        int[] range = hashTagRange(key);
+        byte[] bytes = (range == null ? key : key.substring(range[0], range[1])).getBytes(StandardCharsets.UTF_8);
+        int crc = 0;
+        for (byte b : bytes) {
+            crc = ((crc << 8) ^ CRC16_TABLE[((crc >>> 8) ^ b) & 0xFF]) & 0xFFFF;
+        }
+        return crc & (SLOT_COUNT - 1);
+    }
+
+    /**
+     * hash tag区间：第一个'{'与其后第一个'}'之间，且内容不为空
+     * @return [start, end)，没有hash tag返回null
+     */
+    private static int[] hashTagRange(String key) {
+        int start = key.indexOf('{');
+        if (start < 0) {
+            return null;
+        }
+        int end = key.indexOf('}', start + 1);
+        if (end <= start + 1) {
+            return null;
+        }
+        return new int[]{start + 1, end};
+    }
+
+}
@@ -0,0 +1,111 @@
+package cn.dslcode.distributelock.support;
+
+/**
+ * @author dongsilin
+ * @version 2018/12/8.
+ * zookeeper锁节点路径：lockKey按hash分到两级目录（每级256个），root/ab/cd/转义后的lockKey。
+ * 锁节点不直接放在根节点下，key数量达到百万级时每个目录的子节点数仍然有限，getChildren开销不随key数量增长；
+ * lockKey中的"/"等zookeeper路径不允许的字符转义为%加4位16进制，不会产生需要预先存在的多级路径
+ */
+public final class ZookeeperPaths {
+
+    /** 每级目录数量 */
+    public static final int FAN_OUT = 256;
+
+    /** 转义后节点名称最大长度，超过时截断并追加hash */
+    private static final int MAX_NAME_LENGTH = 200;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private ZookeeperPaths() {
+    }
+
+    /**
+     * lockKey的锁节点路径
+     * @param root 根节点，如/locks
+     * @param lockKey 锁key
+     * @return String root/ab/cd/name
+     */
+    public static String lockNode(String root, String lockKey) {
+        int h = hash(lockKey);
+        return bucket(root, (h >>> 24) & 0xff, (h >>> 16) & 0xff) + '/' + escape(lockKey);
+    }
+
+    /**
+     * 目录节点路径
+     * @param root 根节点
+     * @param first 第一级目录下标，0 ~ FAN_OUT-1
+     * @param second 第二级目录下标，0 ~ FAN_OUT-1
+     * @return String root/ab/cd
+     */
+    public static String bucket(String root, int first, int second) {
+        return bucket(root, first) + '/' + HEX[second >>> 4] + HEX[second & 0xf];
+    }
+
+    /**
+     * 第一级目录节点路径
+     * @param root 根节点
+     * @param first 第一级目录下标，0 ~ FAN_OUT-1
+     * @return String root/ab
+     */
+    public static String bucket(String root, int first) {
+        return root + '/' + HEX[first >>> 4] + HEX[first & 0xf];
+    }
+
+    /**
+     * 节点的父节点路径
+     * @param node 节点路径
+     * @return String
+     */
+    public static String parent(String node) {
+        return node.substring(0, node.lastIndexOf('/'));
+    }
+
+    /**
+     * 转义为zookeeper节点名称："/"、"%"、控制字符及zookeeper不允许的字符转义为%加4位16进制，"."和".."转义首字符。
+     * 过长的名称截断并追加64位hash，不同key截断后相同时共用一把锁，只影响并发不影响互斥
+     * @param key
+     * @return String
+     */
+    public static String escape(String key) {
+        StringBuilder name = null;
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            boolean escape = c == '/' || c == '%' || c <= 0x1f || (c >= 0x7f && c <= 0x9f)
+                || (c >= 0xd800 && c <= 0xf8ff) || c >= 0xfff0
+                || (i == 0 && c == '.' && (key.length() == 1 || key.equals("..")));
+            if (escape && name == null) {
+                name = new StringBuilder(key.length() + 16).append(key, 0, i);
+            }
+            if (escape) {
+                name.append('%').append(HEX[c >>> 12]).append(HEX[(c >>> 8) & 0xf]).append(HEX[(c >>> 4) & 0xf]).append(HEX[c & 0xf]);
+            } else if (name != null) {
+                name.append(c);
+            }
+        }
+        String escaped = name != null ? name.toString() : key;
+        if (escaped.length() <= MAX_NAME_LENGTH) {
+            return escaped;
+        }
+        long h = ConsistentHashRing.hash(key);
+        StringBuilder truncated = new StringBuilder(MAX_NAME_LENGTH).append(escaped, 0, MAX_NAME_LENGTH - 17).append('~');
+        for (int shift = 60; shift >= 0; shift -= 4) {
+            truncated.append(HEX[(int) (h >>> shift) & 0xf]);
+        }
+        return truncated.toString();
+    }
+
+    /**
+     * 目录hash，murmur3的fmix32打散String.hashCode
+     */
+    private static int hash(String key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+}
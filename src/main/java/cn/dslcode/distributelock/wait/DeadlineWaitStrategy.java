@@ -0,0 +1,46 @@
+package cn.dslcode.distributelock.wait;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author dongsilin
+ * @version 2018/11/30.
+ * 按截止时间退避：指数增长，但不超过剩余等待时间的一半，越接近截止时间重试越密；
+ * 剩余时间不足一次最小等待时，直接等到截止时间做最后一次重试。适合waitTimeMs较短、希望尽量在期限内拿到锁的场景
+ */
+public class DeadlineWaitStrategy implements WaitStrategy {
+
+    /** 最小等待时间/ns */
+    private final long baseNanos;
+    /** 最大等待时间/ns */
+    private final long maxNanos;
+
+    public DeadlineWaitStrategy() {
+        this(2, 200);
+    }
+
+    /**
+     * @param baseMs 最小等待时间/ms
+     * @param maxMs 最大等待时间/ms
+     */
+    public DeadlineWaitStrategy(long baseMs, long maxMs) {
+        this.baseNanos = TimeUnit.MILLISECONDS.toNanos(baseMs);
+        this.maxNanos = TimeUnit.MILLISECONDS.toNanos(maxMs);
+    }
+
+    @Override
+    public long nextWaitNanos(int attempts, long previousWaitNanos, long remainingNanos) {
+        if (remainingNanos <= baseNanos * 2) {
+            return remainingNanos;
+        }
+        long waitNanos = baseNanos << Math.min(attempts - 1, 20);
+        if (waitNanos <= 0 || waitNanos > maxNanos) {
+            waitNanos = maxNanos;
+        }
+        waitNanos = Math.max(baseNanos, Math.min(waitNanos, remainingNanos >> 1));
+        // [3/4, 1]倍之间随机，错开重试
+        long quarter = waitNanos >> 2;
+        return waitNanos - quarter + ThreadLocalRandom.current().nextLong(quarter + 1);
+    }
+}
@@ -0,0 +1,37 @@
+package cn.dslcode.distributelock.wait;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author dongsilin
+ * @version 2018/11/30.
+ * 去相关抖动退避（默认策略）：等待时间在[base, 上一次等待时间 * 3]之间随机，不超过max。
+ * 每个竞争者的等待序列互不相关，不会形成同步的重试波峰
+ */
+public class DecorrelatedJitterWaitStrategy implements WaitStrategy {
+
+    /** 最小等待时间/ns */
+    private final long baseNanos;
+    /** 最大等待时间/ns */
+    private final long maxNanos;
+
+    public DecorrelatedJitterWaitStrategy() {
+        this(5, 200);
+    }
+
+    /**
+     * @param baseMs 最小等待时间/ms
+     * @param maxMs 最大等待时间/ms
+     */
+    public DecorrelatedJitterWaitStrategy(long baseMs, long maxMs) {
+        this.baseNanos = TimeUnit.MILLISECONDS.toNanos(baseMs);
+        this.maxNanos = TimeUnit.MILLISECONDS.toNanos(maxMs);
+    }
+
+    @Override
+    public long nextWaitNanos(int attempts, long previousWaitNanos, long remainingNanos) {
+        long upper = Math.min(maxNanos, Math.max(baseNanos, previousWaitNanos) * 3);
+        return baseNanos + ThreadLocalRandom.current().nextLong(upper - baseNanos + 1);
+    }
+}
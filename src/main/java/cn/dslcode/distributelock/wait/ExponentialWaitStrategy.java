@@ -0,0 +1,40 @@
+package cn.dslcode.distributelock.wait;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author dongsilin
+ * @version 2018/11/30.
+ * 指数退避：等待时间 base * 2^(attempts-1)，不超过max，在[1/2, 1]倍之间随机，错开不同节点的重试
+ */
+public class ExponentialWaitStrategy implements WaitStrategy {
+
+    /** 初始等待时间/ns */
+    private final long baseNanos;
+    /** 最大等待时间/ns */
+    private final long maxNanos;
+
+    public ExponentialWaitStrategy() {
+        this(5, 200);
+    }
+
+    /**
+     * @param baseMs 初始等待时间/ms
+     * @param maxMs 最大等待时间/ms
+     */
+    public ExponentialWaitStrategy(long baseMs, long maxMs) {
+        this.baseNanos = TimeUnit.MILLISECONDS.toNanos(baseMs);
+        this.maxNanos = TimeUnit.MILLISECONDS.toNanos(maxMs);
+    }
+
+    @Override
+    public long nextWaitNanos(int attempts, long previousWaitNanos, long remainingNanos) {
+        long waitNanos = baseNanos << Math.min(attempts - 1, 20);
+        if (waitNanos <= 0 || waitNanos > maxNanos) {
+            waitNanos = maxNanos;
+        }
+        long half = waitNanos >> 1;
+        return half + ThreadLocalRandom.current().nextLong(half + 1);
+    }
+}
@@ -0,0 +1,62 @@
+package cn.dslcode.distributelock.wait;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author dongsilin
+ * @version 2018/11/30.
+ * 加锁失败后的等待策略：决定下一次重试前等待多久。
+ * 等待时间由调用方按剩余等待时间截断，最后一次重试正好在waitTimeMs到期时进行，不会超出waitTimeMs。
+ * 可全局配置（distributelock.wait-strategy），也可通过@Lockable.waitStrategy按方法指定；
+ * 自定义策略实现此接口，需要无参构造方法，实例会被多线程共享
+ */
+@FunctionalInterface
+public interface WaitStrategy {
+
+    /**
+     * 计算下一次重试前的等待时间
+     * @param attempts 已请求后端次数，从1开始
+     * @param previousWaitNanos 上一次等待时间/ns，第一次为0
+     * @param remainingNanos 剩余等待时间/ns，大于0
+     * @return 等待时间/ns
+     */
+    long nextWaitNanos(int attempts, long previousWaitNanos, long remainingNanos);
+
+    /**
+     * 按名称获取策略：exponential、decorrelated-jitter、deadline，或自定义策略的类名
+     * @param name 策略名称
+     * @return WaitStrategy
+     */
+    static WaitStrategy of(String name) {
+        switch (name) {
+            case "exponential": return new ExponentialWaitStrategy();
+            case "decorrelated-jitter": return new DecorrelatedJitterWaitStrategy();
+            case "deadline": return new DeadlineWaitStrategy();
+            default:
+                try {
+                    return (WaitStrategy) Class.forName(name).newInstance();
+                } catch (ReflectiveOperationException | ClassCastException e) {
+                    throw new IllegalArgumentException("无效的等待策略：" + name, e);
+                }
+        }
+    }
+
+    /**
+     * 按等待时间挂起当前线程。使用LockSupport.parkNanos而不是Thread.sleep，
+     * 在新版本JDK的虚拟线程上只卸载虚拟线程，不占用载体线程
+     * @param nanos 等待时间/ns
+     * @throws InterruptedException 等待期间线程被中断
+     */
+    static void park(long nanos) throws InterruptedException {
+        long deadline = System.nanoTime() + nanos;
+        long remainNanos = nanos;
+        // parkNanos可能提前返回（虚假唤醒），循环直到等待时间用完
+        while (remainNanos > 0) {
+            LockSupport.parkNanos(remainNanos);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            remainNanos = deadline - System.nanoTime();
+        }
+    }
+}
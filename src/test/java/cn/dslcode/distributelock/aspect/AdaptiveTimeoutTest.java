@@ -0,0 +1,134 @@
+package cn.dslcode.distributelock.aspect;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author dongsilin
+ * @version 2018/12/9.
+ * 自适应锁过期时间：样本不足时使用初始值，分位数 + 余量，上下限，配置修正
+ */
+public class AdaptiveTimeoutTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void usesInitialTimeoutUntilMinSamples() {
+        AdaptiveTimeout timeout = new AdaptiveTimeout("order", 30000, 0.99, 1000, 1000, 60000);
+        // 第16、32、48个样本时检查，样本数不足50
+        record(timeout, 49, 100 * MS);
+        assertEquals(30000, timeout.timeoutMs());
+        // 第64个样本时更新
+        record(timeout, 14, 100 * MS);
+        assertEquals(30000, timeout.timeoutMs());
+        record(timeout, 1, 100 * MS);
+        assertTrue(timeout.timeoutMs() != 30000);
+    }
+
+    @Test
+    public void percentilePlusHeadroom() {
+        AdaptiveTimeout timeout = new AdaptiveTimeout("order", 30000, 0.99, 1000, 1000, 60000);
+        record(timeout, 64, 100 * MS);
+        // 100ms所在桶上界不超过112.5ms，再加1ms
+        assertBetween(1101, 1114, timeout.timeoutMs());
+        Map<String, Object> snapshot = timeout.snapshot();
+        assertEquals("order", snapshot.get("key"));
+        assertEquals(timeout.timeoutMs(), snapshot.get("timeoutMs"));
+        assertEquals(30000, snapshot.get("initialTimeoutMs"));
+        assertEquals(64L, snapshot.get("samples"));
+        assertBetween(101, 114, (Long) snapshot.get("holdPercentileMs"));
+    }
+
+    @Test
+    public void usesConfiguredPercentile() {
+        AdaptiveTimeout median = new AdaptiveTimeout("order", 30000, 0.5, 0, 1, 60000);
+        AdaptiveTimeout tail = new AdaptiveTimeout("order", 30000, 0.99, 0, 1, 60000);
+        for (int i = 0; i < 96; i++) {
+            long nanos = i % 10 == 0 ? 1000 * MS : 10 * MS;
+            median.record(nanos);
+            tail.record(nanos);
+        }
+        assertBetween(11, 12, median.timeoutMs());
+        assertBetween(1001, 1126, tail.timeoutMs());
+    }
+
+    @Test
+    public void clampsToMinAndMax() {
+        AdaptiveTimeout min = new AdaptiveTimeout("order", 30000, 0.99, 0, 500, 60000);
+        record(min, 64, MS);
+        assertEquals(500, min.timeoutMs());
+
+        AdaptiveTimeout max = new AdaptiveTimeout("order", 30000, 0.99, 1000, 1000, 2000);
+        record(max, 64, 10000 * MS);
+        assertEquals(2000, max.timeoutMs());
+
+        // max小于min时按min
+        AdaptiveTimeout inverted = new AdaptiveTimeout("order", 30000, 0.99, 1000, 3000, 2000);
+        record(inverted, 64, 10000 * MS);
+        assertEquals(3000, inverted.timeoutMs());
+    }
+
+    @Test
+    public void percentileConfigGivenAsPercentage() throws Exception {
+        assertEquals(0.99, checkedPercentile(99), 1e-9);
+        assertEquals(0.999, checkedPercentile(99.9), 1e-9);
+        assertEquals(0.5, checkedPercentile(0.5), 1e-9);
+        assertEquals(1, checkedPercentile(1), 1e-9);
+        // 无法解释的值按0.99
+        assertEquals(0.99, checkedPercentile(0), 1e-9);
+        assertEquals(0.99, checkedPercentile(-1), 1e-9);
+        assertEquals(0.99, checkedPercentile(150), 1e-9);
+        assertEquals(0.99, checkedPercentile(Double.NaN), 1e-9);
+    }
+
+    @Test
+    public void invalidLimitsCorrected() throws Exception {
+        DistributedLockAspect aspect = new DistributedLockAspect();
+        set(aspect, "adaptivePercentile", 0.99);
+        set(aspect, "adaptiveHeadroomMs", -1);
+        set(aspect, "adaptiveMinMs", 0);
+        set(aspect, "adaptiveMaxMs", 500);
+        aspect.init();
+        assertEquals(0, get(aspect, "adaptiveHeadroomMs"));
+        assertEquals(1000, get(aspect, "adaptiveMinMs"));
+        assertEquals(1000, get(aspect, "adaptiveMaxMs"));
+    }
+
+    private static double checkedPercentile(double configured) throws Exception {
+        DistributedLockAspect aspect = new DistributedLockAspect();
+        set(aspect, "adaptivePercentile", configured);
+        set(aspect, "adaptiveHeadroomMs", 1000);
+        set(aspect, "adaptiveMinMs", 1000);
+        set(aspect, "adaptiveMaxMs", 60000);
+        aspect.init();
+        return (Double) get(aspect, "adaptivePercentile");
+    }
+
+    private static void record(AdaptiveTimeout timeout, int samples, long nanos) {
+        for (int i = 0; i < samples; i++) {
+            timeout.record(nanos);
+        }
+    }
+
+    private static void assertBetween(long min, long max, long actual) {
+        assertTrue(actual + " 不在[" + min + ", " + max + "]内", actual >= min && actual <= max);
+    }
+
+    private static void set(Object target, String name, Object value) throws Exception {
+        Field field = DistributedLockAspect.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    private static Object get(Object target, String name) throws Exception {
+        Field field = DistributedLockAspect.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(target);
+    }
+
+}
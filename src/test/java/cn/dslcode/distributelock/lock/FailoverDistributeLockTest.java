@@ -0,0 +1,184 @@
+package cn.dslcode.distributelock.lock;
+
+import cn.dslcode.distributelock.support.CircuitBreaker;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author dongsilin
+ * @version 2018/12/4.
+ * 主备切换：主后端人为变慢后熔断，主后端上的锁释放前直接失败，释放后切到备后端，
+ * 主后端恢复且备后端上的锁释放后切回；锁总是在获取它的后端上释放
+ */
+public class FailoverDistributeLockTest {
+
+    private static final String PROBE_KEY = "__failover_probe__";
+
+    private SlowLock primary;
+    private RecordingLock secondary;
+    private CircuitBreaker breaker;
+    private FailoverDistributeLock<String> lock;
+
+    @Before
+    public void setUp() {
+        primary = new SlowLock();
+        secondary = new RecordingLock();
+        breaker = new CircuitBreaker(20, 10, 0.5, 0.5, 50);
+        // 隔离期足够长，只有原后端上的锁全部释放才切换
+        lock = new FailoverDistributeLock<>(primary, secondary, breaker, 200, 50, 60000);
+        primary.observer = lock.callObserver();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        lock.close();
+    }
+
+    @Test
+    public void failsOverToSecondaryAndBack() throws Throwable {
+        assertTrue(lock.tryLock("k", "v1", 0, 10000));
+        assertTrue(primary.locked.contains("k"));
+
+        // 主后端变慢，慢调用率超过阈值后熔断
+        primary.delayMs = 80;
+        for (int i = 0; i < 10 && !breaker.isOpen(); i++) {
+            assertTrue(lock.tryLock("x" + i, "v", 0, 10000));
+            lock.releaseLock("x" + i, "v");
+        }
+        assertTrue(breaker.isOpen());
+
+        // 主后端上仍持有k：不请求任何后端，直接失败
+        int primaryCalls = primary.calls.get();
+        assertFalse(lock.tryLock("y", "v", 0, 10000));
+        assertEquals("fail", lock.tryLockAndCallBack("y", 0, 10000, () -> "ok", () -> "fail"));
+        assertEquals(primaryCalls, primary.calls.get());
+        assertTrue(secondary.locked.isEmpty());
+
+        // k在获取它的主后端上释放，之后切到备后端
+        lock.releaseLock("k", "v1");
+        assertTrue(primary.released.contains("k"));
+        assertFalse(secondary.released.contains("k"));
+        assertTrue(lock.tryLock("k", "v2", 0, 10000));
+        assertTrue(secondary.locked.contains("k"));
+        assertFalse(secondary.tryLock("k", "other", 0, 10000));
+
+        // 主后端恢复，探测成功后关闭熔断器
+        primary.delayMs = 0;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (breaker.isOpen() && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        assertFalse(breaker.isOpen());
+
+        // 备后端上仍持有k，继续使用备后端
+        assertTrue(lock.tryLock("z", "vz", 0, 10000));
+        assertTrue(secondary.locked.contains("z"));
+        lock.releaseLock("z", "vz");
+        assertTrue(secondary.released.contains("z"));
+        assertEquals("ok", lock.tryLockAndCallBack("cb", 0, 10000, () -> "ok", () -> "fail"));
+        assertTrue(secondary.locked.contains("cb"));
+
+        // k在备后端上释放，备后端已无持有的锁，切回主后端
+        lock.releaseLock("k", "v2");
+        assertTrue(secondary.released.contains("k"));
+        assertTrue(lock.tryLock("w", "vw", 0, 10000));
+        assertTrue(primary.locked.contains("w"));
+        assertFalse(secondary.locked.contains("w"));
+        lock.releaseLock("w", "vw");
+        assertTrue(primary.released.contains("w"));
+    }
+
+    @Test
+    public void callbackOnPrimaryDelaysSwitch() throws Throwable {
+        AtomicInteger inside = new AtomicInteger();
+        String result = lock.tryLockAndCallBack("cb", 0, 10000, () -> {
+            // 回调期间主后端故障
+            primary.fail = true;
+            for (int i = 0; i < 10 && !breaker.isOpen(); i++) {
+                try {
+                    lock.tryLock("x" + i, "v", 0, 10000);
+                } catch (IllegalStateException e) {
+                    inside.incrementAndGet();
+                }
+            }
+            assertTrue(breaker.isOpen());
+            // 回调未结束，仍持有主后端上的锁
+            assertFalse(lock.tryLock("y", "v", 0, 10000));
+            return "ok";
+        }, () -> "fail");
+        assertEquals("ok", result);
+        assertTrue(inside.get() > 0);
+        assertTrue(primary.released.contains("cb"));
+
+        assertTrue(lock.tryLock("y", "v", 0, 10000));
+        assertTrue(secondary.locked.contains("y"));
+        lock.releaseLock("y", "v");
+    }
+
+    /**
+     * 记录加锁和释放的key，探测key除外
+     */
+    static class RecordingLock extends LocalDistributeLock<String> {
+
+        final List<String> locked = new CopyOnWriteArrayList<>();
+        final List<String> released = new CopyOnWriteArrayList<>();
+
+        @Override
+        public boolean tryLock(String lockKey, String lockValue, int waitTimeMs, int timeoutMs) throws Exception {
+            boolean result = super.tryLock(lockKey, lockValue, waitTimeMs, timeoutMs);
+            if (result && !PROBE_KEY.equals(lockKey)) {
+                locked.add(lockKey);
+            }
+            return result;
+        }
+
+        @Override
+        public void releaseLock(String lockKey, String lockValue) {
+            super.releaseLock(lockKey, lockValue);
+            if (!PROBE_KEY.equals(lockKey)) {
+                released.add(lockKey);
+            }
+        }
+    }
+
+    /**
+     * 人为变慢或故障的主后端，每次加锁请求的耗时和是否异常交给熔断器统计
+     */
+    static class SlowLock extends RecordingLock {
+
+        volatile BackendCallObserver observer;
+        volatile long delayMs;
+        volatile boolean fail;
+        final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public boolean tryLock(String lockKey, String lockValue, int waitTimeMs, int timeoutMs) throws Exception {
+            calls.incrementAndGet();
+            long startNanos = System.nanoTime();
+            boolean error = true;
+            try {
+                if (delayMs > 0) {
+                    Thread.sleep(delayMs);
+                }
+                if (fail) {
+                    throw new IllegalStateException("主后端故障");
+                }
+                boolean result = super.tryLock(lockKey, lockValue, waitTimeMs, timeoutMs);
+                error = false;
+                return result;
+            } finally {
+                observer.onCall(System.nanoTime() - startNanos, error);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,166 @@
+package cn.dslcode.distributelock.lock;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author dongsilin
+ * @version 2018/12/1.
+ * 进程内分布式锁：过期唤醒等待者、释放比对lockValue、并发互斥、过期清理
+ */
+public class LocalDistributeLockTest {
+
+    private LocalDistributeLock<String> lock;
+
+    @Before
+    public void setUp() {
+        lock = new LocalDistributeLock<>();
+    }
+
+    @After
+    public void tearDown() {
+        lock.close();
+    }
+
+    @Test
+    public void expiryWakesWaiter() throws Exception {
+        assertTrue(lock.tryLock("order", "a", 0, 200));
+        long start = System.nanoTime();
+        // 持有者不释放，等待者在过期后获取
+        assertTrue(lock.tryLock("order", "b", 5000, 10000));
+        long waitedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(String.valueOf(waitedMs), waitedMs >= 150 && waitedMs < 1000);
+    }
+
+    @Test
+    public void releaseWakesWaiter() throws Exception {
+        assertTrue(lock.tryLock("order", "a", 0, 10000));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CountDownLatch started = new CountDownLatch(1);
+            Future<Boolean> waiter = executor.submit(() -> {
+                started.countDown();
+                return lock.tryLock("order", "b", 5000, 10000);
+            });
+            started.await();
+            Thread.sleep(50);
+            long start = System.nanoTime();
+            lock.releaseLock("order", "a");
+            assertTrue(waiter.get(1, TimeUnit.SECONDS));
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void waitTimesOut() throws Exception {
+        assertTrue(lock.tryLock("order", "a", 0, 10000));
+        long start = System.nanoTime();
+        assertFalse(lock.tryLock("order", "b", 100, 10000));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    public void staleReleaseIgnored() throws Exception {
+        assertTrue(lock.tryLock("order", "a", 0, 50));
+        Thread.sleep(80);
+        // a已过期，b获取后a的释放不能删除b的锁
+        assertTrue(lock.tryLock("order", "b", 0, 10000));
+        lock.releaseLock("order", "a");
+        assertFalse(lock.tryLock("order", "c", 0, 10000));
+        lock.releaseLock("order", "b");
+        assertTrue(lock.tryLock("order", "c", 0, 10000));
+    }
+
+    @Test
+    public void contendedThreadsNeverOverlap() throws Exception {
+        int threads = 8;
+        int rounds = 5000;
+        AtomicInteger inside = new AtomicInteger();
+        AtomicInteger overlaps = new AtomicInteger();
+        AtomicInteger acquired = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                String lockValue = "t" + t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < rounds; i++) {
+                        if (!lock.tryLock("order", lockValue, 10000, 0)) {
+                            continue;
+                        }
+                        acquired.incrementAndGet();
+                        if (inside.incrementAndGet() != 1) {
+                            overlaps.incrementAndGet();
+                        }
+                        inside.decrementAndGet();
+                        lock.releaseLock("order", lockValue);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(0, overlaps.get());
+        assertEquals(threads * rounds, acquired.get());
+    }
+
+    @Test
+    public void sweeperEmptiesExpiredLocks() throws Exception {
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(lock.tryLock("order:" + i, "a", 0, 50));
+        }
+        assertTrue(lock.tryLock("held", "a", 0, 0));
+        Map<?, ?> locks = locks(lock);
+        assertEquals(10001, locks.size());
+        // 每秒清理一次
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (locks.size() > 1 && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(1, locks.size());
+        assertFalse(lock.tryLock("held", "b", 0, 0));
+    }
+
+    @Test
+    public void multiLockIsAllOrNothing() throws Exception {
+        assertTrue(lock.tryLock("b", "other", 0, 10000));
+        List<String> keys = Arrays.asList("a", "b");
+        assertFalse(lock.tryMultiLock(keys, "v", 0, 10000));
+        // 失败时已获取的a被释放
+        assertTrue(lock.tryLock("a", "x", 0, 10000));
+        lock.releaseLock("a", "x");
+        lock.releaseLock("b", "other");
+        assertTrue(lock.tryMultiLock(keys, "v", 0, 10000));
+        lock.releaseMultiLock(keys, "v");
+        assertTrue(lock.tryLock("b", "x", 0, 10000));
+    }
+
+    private static Map<?, ?> locks(LocalDistributeLock<?> lock) throws Exception {
+        Field field = LocalDistributeLock.class.getDeclaredField("locks");
+        field.setAccessible(true);
+        return (Map<?, ?>) field.get(lock);
+    }
+
+}
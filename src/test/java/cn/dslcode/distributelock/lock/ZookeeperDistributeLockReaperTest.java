@@ -0,0 +1,131 @@
+package cn.dslcode.distributelock.lock;
+
+import cn.dslcode.distributelock.support.ZookeeperPaths;
+import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.server.NIOServerCnxnFactory;
+import org.apache.zookeeper.server.ServerCnxnFactory;
+import org.apache.zookeeper.server.ZooKeeperServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author dongsilin
+ * @version 2018/12/8.
+ * 空父节点清理：删除没有子节点的持久锁节点，保留持有中的锁节点，清理后可重新加锁
+ */
+public class ZookeeperDistributeLockReaperTest {
+
+    private File dataDir;
+    private ZooKeeperServer server;
+    private ServerCnxnFactory cnxnFactory;
+    private ZookeeperDistributeLock<String> lock;
+    private ZooKeeper zk;
+
+    @Before
+    public void setUp() throws Exception {
+        dataDir = Files.createTempDirectory("distributelock-zk").toFile();
+        server = new ZooKeeperServer(dataDir, dataDir, 2000);
+        cnxnFactory = NIOServerCnxnFactory.createFactory(new InetSocketAddress("127.0.0.1", 0), 100);
+        cnxnFactory.startup(server);
+        String connectString = "127.0.0.1:" + cnxnFactory.getLocalPort();
+
+        lock = new ZookeeperDistributeLock<>(connectString, true);
+        // 停止后台清理，由测试逐个目录调用
+        lock.setReapIntervalMs(0);
+        CountDownLatch connected = new CountDownLatch(1);
+        zk = new ZooKeeper(connectString, 10000, event -> {
+            if (event.getState() == Watcher.Event.KeeperState.SyncConnected) {
+                connected.countDown();
+            }
+        });
+        assertTrue(connected.await(10, TimeUnit.SECONDS));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (zk != null) {
+            zk.close();
+        }
+        if (lock != null) {
+            lock.close();
+        }
+        cnxnFactory.shutdown();
+        server.shutdown();
+        delete(dataDir);
+    }
+
+    @Test
+    public void reapsOnlyEmptyLockNodes() throws Exception {
+        String released = ZookeeperPaths.lockNode("/locks", "order/1");
+        String held = ZookeeperPaths.lockNode("/locks", "order/2");
+        assertTrue(lock.tryLock("order/1", "v1", 0, 10000));
+        lock.releaseLock("order/1", "v1");
+        assertTrue(lock.tryLock("order/2", "v2", 0, 10000));
+        assertNotNull(zk.exists(released, false));
+        assertNotNull(zk.exists(held, false));
+
+        Thread.sleep(20);
+        reapAll(1);
+
+        assertNull(zk.exists(released, false));
+        assertNotNull(zk.exists(held, false));
+        assertFalse(lock.tryLock("order/2", "other", 0, 10000));
+
+        // 父节点删除后重新加锁
+        assertTrue(lock.tryLock("order/1", "v1", 0, 10000));
+        lock.releaseLock("order/1", "v1");
+        lock.releaseLock("order/2", "v2");
+    }
+
+    @Test
+    public void keepsRecentlyCreatedNodes() throws Exception {
+        String node = ZookeeperPaths.lockNode("/locks", "order/3");
+        assertTrue(lock.tryLock("order/3", "v3", 0, 10000));
+        lock.releaseLock("order/3", "v3");
+
+        reapAll(600000);
+
+        assertNotNull(zk.exists(node, false));
+    }
+
+    /**
+     * 按清理周期reapIntervalMs扫描一遍全部第一级目录
+     */
+    private void reapAll(long reapIntervalMs) throws Exception {
+        Field interval = ZookeeperDistributeLock.class.getDeclaredField("reapIntervalMs");
+        interval.setAccessible(true);
+        interval.set(lock, reapIntervalMs);
+        Method reap = ZookeeperDistributeLock.class.getDeclaredMethod("reap");
+        reap.setAccessible(true);
+        for (int i = 0; i < ZookeeperPaths.FAN_OUT; i++) {
+            reap.invoke(lock);
+        }
+        // 删除为异步请求，等待完成
+        Thread.sleep(200);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+}
@@ -0,0 +1,78 @@
+package cn.dslcode.distributelock.support;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author dongsilin
+ * @version 2018/12/4.
+ * 熔断器：失败率、慢调用率、最少调用数、窗口滑动、关闭
+ */
+public class CircuitBreakerTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(80);
+
+    @Test
+    public void opensOnFailureRateAfterMinCalls() {
+        CircuitBreaker breaker = new CircuitBreaker(20, 10, 0.5, 0.5, 50);
+        for (int i = 0; i < 9; i++) {
+            assertFalse(breaker.record(FAST, true));
+        }
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.record(FAST, true));
+        assertTrue(breaker.isOpen());
+        assertTrue(breaker.openedAt() != 0);
+        // 打开后不再统计，也不再返回打开
+        assertFalse(breaker.record(FAST, true));
+    }
+
+    @Test
+    public void opensOnSlowRate() {
+        CircuitBreaker breaker = new CircuitBreaker(20, 10, 0.5, 0.5, 50);
+        for (int i = 0; i < 10; i++) {
+            assertFalse(breaker.record(FAST, false));
+        }
+        for (int i = 0; i < 9; i++) {
+            assertFalse(breaker.record(SLOW, false));
+        }
+        assertFalse(breaker.isOpen());
+        // 20次中10次慢调用
+        assertTrue(breaker.record(SLOW, false));
+    }
+
+    @Test
+    public void oldCallsLeaveWindow() {
+        CircuitBreaker breaker = new CircuitBreaker(10, 10, 0.5, 1, 50);
+        for (int i = 0; i < 4; i++) {
+            breaker.record(FAST, true);
+        }
+        for (int i = 0; i < 10; i++) {
+            breaker.record(FAST, false);
+        }
+        // 之前的4次失败已移出窗口
+        for (int i = 0; i < 4; i++) {
+            assertFalse(breaker.record(FAST, true));
+        }
+        assertTrue(breaker.record(FAST, true));
+    }
+
+    @Test
+    public void resetClosesAndClearsWindow() {
+        CircuitBreaker breaker = new CircuitBreaker(20, 10, 0.5, 0.5, 50);
+        for (int i = 0; i < 10; i++) {
+            breaker.record(FAST, true);
+        }
+        assertTrue(breaker.isOpen());
+        breaker.reset();
+        assertFalse(breaker.isOpen());
+        for (int i = 0; i < 9; i++) {
+            assertFalse(breaker.record(FAST, true));
+        }
+        assertTrue(breaker.record(FAST, true));
+    }
+
+}
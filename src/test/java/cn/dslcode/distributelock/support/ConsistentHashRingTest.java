@@ -0,0 +1,92 @@
+package cn.dslcode.distributelock.support;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author dongsilin
+ * @version 2018/12/5.
+ * 一致性hash环：key分布、增加节点的迁移比例、与节点列表顺序无关
+ */
+public class ConsistentHashRingTest {
+
+    private static final int VIRTUAL_NODES = 160;
+
+    private static final int KEYS = 100000;
+
+    @Test
+    public void spreadsKeysAcrossNodes() {
+        ConsistentHashRing<String> ring = ring(names(5));
+        int[] counts = new int[ring.size()];
+        for (int i = 0; i < KEYS; i++) {
+            counts[ring.indexOf("lock:order:" + i)]++;
+        }
+        // 每个节点期望20%，160个虚拟节点时偏差在±30%以内
+        for (int count : counts) {
+            assertTrue(Arrays.toString(counts), count > KEYS / 5 * 7 / 10 && count < KEYS / 5 * 13 / 10);
+        }
+    }
+
+    @Test
+    public void addingNodeMovesAboutOneNthOfKeys() {
+        List<String> names = names(4);
+        ConsistentHashRing<String> before = ring(names);
+        List<String> more = new ArrayList<>(names);
+        more.add("redis-4:6379");
+        ConsistentHashRing<String> after = ring(more);
+
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            String key = "lock:order:" + i;
+            String node = after.get(key);
+            if (!node.equals(before.get(key))) {
+                moved++;
+                // 只会迁移到新节点
+                assertEquals("redis-4:6379", node);
+            }
+        }
+        // 5个节点，期望迁移1/5
+        assertTrue(String.valueOf(moved), moved > KEYS / 5 * 7 / 10 && moved < KEYS / 5 * 13 / 10);
+    }
+
+    @Test
+    public void independentOfNodeOrder() {
+        List<String> names = names(6);
+        ConsistentHashRing<String> ring = ring(names);
+        List<String> shuffled = new ArrayList<>(names);
+        Collections.shuffle(shuffled, new Random(42));
+        ConsistentHashRing<String> other = ring(shuffled);
+        for (int i = 0; i < KEYS; i++) {
+            String key = "lock:order:" + i;
+            assertEquals(key, ring.get(key), other.get(key));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMismatchedNodes() {
+        new ConsistentHashRing<>(Arrays.asList("a", "b"), Collections.singletonList("a"), VIRTUAL_NODES);
+    }
+
+    private static List<String> names(int count) {
+        List<String> names = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            names.add("redis-" + i + ":6379");
+        }
+        return names;
+    }
+
+    /**
+     * 节点即名称，get返回的节点可直接比较
+     */
+    private static ConsistentHashRing<String> ring(List<String> names) {
+        return new ConsistentHashRing<>(names, names, VIRTUAL_NODES);
+    }
+
+}
@@ -0,0 +1,102 @@
+package cn.dslcode.distributelock.support;
+
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author dongsilin
+ * @version 2018/12/9.
+ * 流式分位数估计：分桶下标、桶上界、分位数、窗口轮换
+ */
+public class PercentileSketchTest {
+
+    @Test
+    public void smallValuesHaveOwnBucket() {
+        for (int v = 0; v < 8; v++) {
+            assertEquals(v, PercentileSketch.index(v));
+            assertEquals(v, PercentileSketch.upperBound(v));
+        }
+        assertEquals(8, PercentileSketch.index(8));
+        assertEquals(15, PercentileSketch.index(15));
+        // 16 ~ 31每2个值一个桶
+        assertEquals(16, PercentileSketch.index(16));
+        assertEquals(16, PercentileSketch.index(17));
+        assertEquals(17, PercentileSketch.upperBound(16));
+        assertEquals(23, PercentileSketch.index(31));
+        assertEquals(31, PercentileSketch.upperBound(23));
+    }
+
+    @Test
+    public void bucketsAreContiguousAndMonotonic() {
+        int last = PercentileSketch.index(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, PercentileSketch.upperBound(last));
+        for (int i = 1; i <= last; i++) {
+            // 每个桶从上一个桶的上界+1开始
+            long lower = PercentileSketch.upperBound(i - 1) + 1;
+            assertEquals(i, PercentileSketch.index(lower));
+            assertEquals(i, PercentileSketch.index(PercentileSketch.upperBound(i)));
+        }
+    }
+
+    @Test
+    public void upperBoundWithinRelativeError() {
+        Random random = new Random(7);
+        for (int i = 0; i < 100000; i++) {
+            long value = random.nextLong() >>> (1 + random.nextInt(63));
+            long upper = PercentileSketch.upperBound(PercentileSketch.index(value));
+            assertTrue(value + " -> " + upper, upper >= value);
+            assertTrue(value + " -> " + upper, upper - value <= value / 8);
+        }
+    }
+
+    @Test
+    public void percentileOfRecordedValues() {
+        PercentileSketch sketch = new PercentileSketch(1024);
+        assertEquals(0, sketch.percentile(0.99));
+        for (int v = 1; v <= 1000; v++) {
+            sketch.record(v);
+        }
+        assertEquals(1000, sketch.count());
+        assertEquals(1, sketch.percentile(0));
+        assertBetween(500, 500 + 500 / 8, sketch.percentile(0.5));
+        assertBetween(990, 990 + 990 / 8, sketch.percentile(0.99));
+        assertEquals(PercentileSketch.upperBound(PercentileSketch.index(1000)), sketch.percentile(1));
+    }
+
+    @Test
+    public void negativeRecordedAsZero() {
+        PercentileSketch sketch = new PercentileSketch(1024);
+        sketch.record(-5);
+        assertEquals(1, sketch.count());
+        assertEquals(0, sketch.percentile(1));
+    }
+
+    @Test
+    public void oldWindowAgesOut() {
+        PercentileSketch sketch = new PercentileSketch(100);
+        for (int i = 0; i < 100; i++) {
+            sketch.record(1000);
+        }
+        // 第一个窗口已满，成为上一个窗口
+        assertEquals(100, sketch.count());
+        for (int i = 0; i < 50; i++) {
+            sketch.record(10);
+        }
+        assertEquals(150, sketch.count());
+        assertEquals(PercentileSketch.upperBound(PercentileSketch.index(1000)), sketch.percentile(1));
+        for (int i = 0; i < 50; i++) {
+            sketch.record(10);
+        }
+        // 1000所在窗口被淘汰
+        assertEquals(100, sketch.count());
+        assertEquals(10, sketch.percentile(1));
+    }
+
+    private static void assertBetween(long min, long max, long actual) {
+        assertTrue(actual + " 不在[" + min + ", " + max + "]内", actual >= min && actual <= max);
+    }
+
+}
@@ -0,0 +1,137 @@
+package cn.dslcode.distributelock.support;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author dongsilin
+ * @version 2018/12/8.
+ * 锁节点路径：转义、截断、目录下标
+ */
+public class ZookeeperPathsTest {
+
+    @Test
+    public void plainKeyIsUnchanged() {
+        assertEquals("order:123", ZookeeperPaths.escape("order:123"));
+        assertEquals("a.b", ZookeeperPaths.escape("a.b"));
+        assertEquals("...", ZookeeperPaths.escape("..."));
+        assertEquals("中文", ZookeeperPaths.escape("中文"));
+    }
+
+    @Test
+    public void escapesSlashAndPercent() {
+        assertEquals("order%002f123", ZookeeperPaths.escape("order/123"));
+        assertEquals("%002f", ZookeeperPaths.escape("/"));
+        assertEquals("a%0025b", ZookeeperPaths.escape("a%b"));
+    }
+
+    @Test
+    public void escapesDotNames() {
+        assertEquals("%002e", ZookeeperPaths.escape("."));
+        assertEquals("%002e.", ZookeeperPaths.escape(".."));
+        assertEquals(".a", ZookeeperPaths.escape(".a"));
+    }
+
+    @Test
+    public void escapesControlAndSurrogateCharacters() {
+        assertEquals("%0000", ZookeeperPaths.escape("\u0000"));
+        assertEquals("a%000ab", ZookeeperPaths.escape("a\nb"));
+        assertEquals("%001f", ZookeeperPaths.escape("\u001f"));
+        assertEquals("%007f%009f", ZookeeperPaths.escape("\u007f\u009f"));
+        // 代理对两个char分别转义
+        assertEquals("%d83d%de00", ZookeeperPaths.escape("\ud83d\ude00"));
+        assertEquals("%e000%f8ff", ZookeeperPaths.escape("\ue000\uf8ff"));
+        assertEquals("%fff0%ffff", ZookeeperPaths.escape("\ufff0\uffff"));
+    }
+
+    @Test
+    public void escapedNamesAreValidNodeNames() {
+        String[] keys = {"/", "a/b/c", ".", "..", "\u0000", "\ud800", "%", "x\u0085y"};
+        for (String key : keys) {
+            String name = ZookeeperPaths.escape(key);
+            assertFalse(name, name.isEmpty() || name.equals(".") || name.equals(".."));
+            for (int i = 0; i < name.length(); i++) {
+                char c = name.charAt(i);
+                assertTrue(name, c > 0x1f && c != '/' && c < 0x7f);
+            }
+        }
+    }
+
+    @Test
+    public void escapeIsInjective() {
+        String[] keys = {"a/b", "a%002fb", "a%b", "a%0025b", "%", "%0025", ".", "%002e", "..", "%002e.", "...",
+            "\u0000", "%0000", "\ud83d\ude00", "%d83d%de00", "/", "//", "%002f", "%002f%002f", "a.b", "a\nb"};
+        Map<String, String> names = new HashMap<>();
+        for (String key : keys) {
+            String previous = names.put(ZookeeperPaths.escape(key), key);
+            assertNull(key + " 与 " + previous + " 转义后相同", previous);
+        }
+    }
+
+    @Test
+    public void truncatesLongNamesWithHash() {
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            key.append('x');
+        }
+        String name = ZookeeperPaths.escape(key.toString());
+        assertEquals(200, name.length());
+        assertTrue(name.startsWith(key.substring(0, 183) + "~"));
+        assertTrue(name.substring(184).matches("[0-9a-f]{16}"));
+
+        // 前缀相同的不同key截断后不同
+        String other = ZookeeperPaths.escape(key.toString() + "y");
+        assertEquals(200, other.length());
+        assertFalse(name.equals(other));
+        assertEquals(name, ZookeeperPaths.escape(key.toString()));
+    }
+
+    @Test
+    public void truncationAppliesAfterEscaping() {
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            key.append('/');
+        }
+        // 40个"/"转义为200个字符，不截断
+        assertEquals(200, ZookeeperPaths.escape(key.toString()).length());
+        assertFalse(ZookeeperPaths.escape(key.toString()).contains("~"));
+        String name = ZookeeperPaths.escape(key.append('/').toString());
+        assertEquals(200, name.length());
+        assertEquals('~', name.charAt(183));
+    }
+
+    @Test
+    public void bucketNamesCoverFanOut() {
+        Set<String> names = new HashSet<>();
+        for (int i = 0; i < ZookeeperPaths.FAN_OUT; i++) {
+            String first = ZookeeperPaths.bucket("/locks", i);
+            assertTrue(first, first.matches("/locks/[0-9a-f]{2}"));
+            assertTrue(names.add(first));
+        }
+        assertEquals("/locks/00", ZookeeperPaths.bucket("/locks", 0));
+        assertEquals("/locks/ff", ZookeeperPaths.bucket("/locks", ZookeeperPaths.FAN_OUT - 1));
+        assertEquals("/locks/0a/f0", ZookeeperPaths.bucket("/locks", 10, 240));
+    }
+
+    @Test
+    public void lockNodeIsUnderTwoLevelBucket() {
+        Set<String> firsts = new HashSet<>();
+        for (int i = 0; i < 10000; i++) {
+            String node = ZookeeperPaths.lockNode("/locks", "order/" + i);
+            assertTrue(node, node.matches("/locks/[0-9a-f]{2}/[0-9a-f]{2}/order%002f" + i));
+            assertEquals(node.substring(0, 12), ZookeeperPaths.parent(node));
+            firsts.add(node.substring(0, 9));
+        }
+        // 10000个key应分布到几乎全部第一级目录
+        assertTrue(String.valueOf(firsts.size()), firsts.size() > ZookeeperPaths.FAN_OUT * 9 / 10);
+    }
+
+}